@@ -0,0 +1,31 @@
+package com.strumenta.kolasu.codebase
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.traversing.Query
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Executes [query] on the ASTs of all the files of this codebase, processing the files in parallel in [pool].
+ * The query is compiled once and shared by all the files.
+ *
+ * @return the nodes matched in each file, for the files having at least one match, in the order of [Codebase.files].
+ */
+@JvmOverloads
+fun <R : Node, T : Any> Codebase<R>.query(
+    query: Query<T>,
+    pool: ForkJoinPool = ForkJoinPool.commonPool(),
+): Map<CodebaseFile<R>, List<T>> {
+    val compiledQuery = query.compile()
+    val files = files().toList()
+    // One task per file, so that the files are distributed among the threads of the pool
+    val tasks = files.map { file -> pool.submit(Callable { compiledQuery.execute(file.ast) }) }
+    val matches = tasks.map { it.join() }
+    val result = LinkedHashMap<CodebaseFile<R>, List<T>>()
+    files.forEachIndexed { i, file ->
+        if (matches[i].isNotEmpty()) {
+            result[file] = matches[i]
+        }
+    }
+    return result
+}
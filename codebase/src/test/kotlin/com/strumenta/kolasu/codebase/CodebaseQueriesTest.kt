@@ -0,0 +1,68 @@
+package com.strumenta.kolasu.codebase
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.traversing.Query
+import java.util.concurrent.ForkJoinPool
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class CodebaseQueriesTest {
+    class CompilationUnit(
+        val statements: List<Node>,
+    ) : Node()
+
+    class Print(
+        val value: String,
+    ) : Node()
+
+    class Input(
+        val variable: String,
+    ) : Node()
+
+    private class InMemoryCodebase(
+        asts: Map<String, CompilationUnit>,
+    ) : Codebase<CompilationUnit> {
+        override val name: String = "in-memory"
+
+        private val files = asts.map { (path, ast) -> CodebaseFile(this, path, "", ast, null) }
+
+        override fun files(): Sequence<CodebaseFile<CompilationUnit>> = files.asSequence()
+
+        override fun fileByRelativePath(relativePath: String): CodebaseFile<CompilationUnit>? =
+            files.find { it.relativePath == relativePath }
+    }
+
+    private val printA = Print("a")
+    private val printB = Print("b")
+    private val printC = Print("c")
+    private val codebase =
+        InMemoryCodebase(
+            linkedMapOf(
+                "one.sl" to CompilationUnit(listOf(printA, Input("x"), printB)),
+                "two.sl" to CompilationUnit(listOf(Input("y"))),
+                "three.sl" to CompilationUnit(listOf(printC)),
+            ),
+        )
+
+    @Test
+    fun matchesAreGroupedByFileInTheOrderOfTheCodebase() {
+        val matches = codebase.query(Query.descendants<Print>())
+        assertEquals(listOf("one.sl", "three.sl"), matches.keys.map { it.relativePath })
+        assertEquals(listOf(listOf(printA, printB), listOf(printC)), matches.values.toList())
+    }
+
+    @Test
+    fun queriesCanBeExecutedInAGivenPool() {
+        val pool = ForkJoinPool(2)
+        try {
+            val query = Query.children<Print>().where { it.value != "a" }
+            val matches = codebase.query(query, pool)
+            assertEquals(
+                mapOf("one.sl" to listOf(printB), "three.sl" to listOf(printC)),
+                matches.mapKeys { it.key.relativePath },
+            )
+        } finally {
+            pool.shutdown()
+        }
+    }
+}
@@ -0,0 +1,26 @@
+plugins {
+    kotlin("jvm")
+    alias(libs.plugins.vanniktech.publish)
+    idea
+    signing
+    alias(libs.plugins.ktlint)
+    id("org.jetbrains.dokka")
+}
+
+dependencies {
+    implementation(libs.kotlin.stdlib)
+    implementation(libs.ksp.api)
+
+    testImplementation(project(":core"))
+    testImplementation(kotlin("reflect", libs.versions.kotlin.get()))
+    testImplementation(kotlin("test-junit", libs.versions.kotlin.get()))
+    testImplementation(libs.kotlin.compile.testing.ksp)
+}
+
+mavenPublishing {
+    coordinates(
+        project.group.toString(),
+        "starlasu-kotlin-${project.name}",
+        project.version.toString(),
+    )
+}
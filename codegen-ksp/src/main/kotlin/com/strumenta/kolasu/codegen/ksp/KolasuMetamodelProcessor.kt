@@ -0,0 +1,333 @@
+package com.strumenta.kolasu.codegen.ksp
+
+import com.google.devtools.ksp.getAllSuperTypes
+import com.google.devtools.ksp.getVisibility
+import com.google.devtools.ksp.isAbstract
+import com.google.devtools.ksp.isLocal
+import com.google.devtools.ksp.processing.CodeGenerator
+import com.google.devtools.ksp.processing.Dependencies
+import com.google.devtools.ksp.processing.KSPLogger
+import com.google.devtools.ksp.processing.Resolver
+import com.google.devtools.ksp.processing.SymbolProcessor
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSAnnotated
+import com.google.devtools.ksp.symbol.KSAnnotation
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import com.google.devtools.ksp.symbol.KSDeclaration
+import com.google.devtools.ksp.symbol.KSFile
+import com.google.devtools.ksp.symbol.KSPropertyDeclaration
+import com.google.devtools.ksp.symbol.KSType
+import com.google.devtools.ksp.symbol.KSTypeAlias
+import com.google.devtools.ksp.symbol.Modifier
+import com.google.devtools.ksp.symbol.Origin
+import com.google.devtools.ksp.symbol.Variance
+import com.google.devtools.ksp.symbol.Visibility
+
+private const val BASE_AST_NODE = "com.strumenta.kolasu.model.BaseASTNode"
+private const val REFERENCE_BY_NAME = "com.strumenta.kolasu.model.ReferenceByName"
+private const val NAMED = "com.strumenta.kolasu.model.Named"
+private const val INTERNAL = "com.strumenta.kolasu.model.Internal"
+private const val LINK = "com.strumenta.kolasu.model.Link"
+private const val DERIVED = "com.strumenta.kolasu.model.Derived"
+private const val NODE_TYPE = "com.strumenta.kolasu.model.NodeType"
+private const val AST_ROOT = "com.strumenta.kolasu.model.ASTRoot"
+private const val COLLECTION = "kotlin.collections.Collection"
+private val RESERVED_FEATURE_NAMES = setOf("parent", "position")
+
+/**
+ * The option used to specify the qualified name of the generated metamodel class.
+ */
+const val METAMODEL_CLASS_OPTION = "kolasu.metamodel.class"
+
+private const val DEFAULT_METAMODEL_CLASS = "GeneratedKolasuMetamodel"
+
+/**
+ * Generates a [com.strumenta.kolasu.model.GeneratedMetamodel] describing all the node classes of the module,
+ * together with the ServiceLoader registration needed for Kolasu to find it at runtime.
+ *
+ * The features are classified following the same rules applied by Kolasu when it computes them through
+ * reflection. Classes which cannot be fully described statically (e.g., because they have type parameters)
+ * are skipped, and Kolasu keeps using reflection for them.
+ */
+class KolasuMetamodelProcessor(
+    private val codeGenerator: CodeGenerator,
+    private val logger: KSPLogger,
+    private val options: Map<String, String>,
+) : SymbolProcessor {
+    private val nodeClasses = mutableListOf<NodeClassModel>()
+
+    override fun process(resolver: Resolver): List<KSAnnotated> {
+        resolver.getNewFiles().forEach { file ->
+            file.declarations
+                .filterIsInstance<KSClassDeclaration>()
+                .flatMap { it.withNestedClasses() }
+                .filter { it.origin == Origin.KOTLIN && it.isANode() }
+                .forEach { classDeclaration ->
+                    val model = buildModel(classDeclaration)
+                    if (model != null) {
+                        nodeClasses.add(model)
+                    }
+                }
+        }
+        return emptyList()
+    }
+
+    override fun finish() {
+        if (nodeClasses.isEmpty()) {
+            return
+        }
+        val qualifiedName =
+            options[METAMODEL_CLASS_OPTION] ?: commonPackage(nodeClasses.map { it.packageName })
+                .let { if (it.isEmpty()) DEFAULT_METAMODEL_CLASS else "$it.$DEFAULT_METAMODEL_CLASS" }
+        val packageName = qualifiedName.substringBeforeLast('.', "")
+        val className = qualifiedName.substringAfterLast('.')
+        val dependencies = Dependencies(true, *nodeClasses.mapNotNull { it.file }.distinct().toTypedArray())
+        codeGenerator.createNewFile(dependencies, packageName, className).bufferedWriter().use {
+            it.write(MetamodelWriter(packageName, className, nodeClasses).write())
+        }
+        codeGenerator
+            .createNewFileByPath(dependencies, "META-INF/services/com.strumenta.kolasu.model.GeneratedMetamodel", "")
+            .bufferedWriter()
+            .use { it.write("$qualifiedName\n") }
+    }
+
+    private fun buildModel(classDeclaration: KSClassDeclaration): NodeClassModel? {
+        val qualifiedName = classDeclaration.qualifiedName?.asString() ?: return null
+        if (classDeclaration.isLocal() ||
+            classDeclaration.typeParameters.isNotEmpty() ||
+            classDeclaration.getVisibility() !in setOf(Visibility.PUBLIC, Visibility.INTERNAL)
+        ) {
+            logger.info("Not generating the metamodel of $qualifiedName", classDeclaration)
+            return null
+        }
+        val classType = classDeclaration.asStarProjectedType()
+        return try {
+            val features =
+                classDeclaration
+                    .nodeProperties()
+                    .map { buildFeature(it, it.asMemberOf(classType), classDeclaration) }
+                    .toList()
+            val inheritedFeatureNames =
+                classDeclaration
+                    .getAllSuperTypes()
+                    .mapNotNull { it.declaration as? KSClassDeclaration }
+                    .filter { it.isANode() || it.qualifiedName?.asString() == NAMED }
+                    .flatMap { supertype -> supertype.nodeProperties().filter { !it.hasAnnotation(DERIVED) } }
+                    .map { it.simpleName.asString() }
+                    .toSet()
+            NodeClassModel(
+                qualifiedName = render(qualifiedName),
+                packageName = classDeclaration.packageName.asString(),
+                features = features,
+                inheritedFeatureNames = inheritedFeatureNames,
+                astRoot = classDeclaration.hasAnnotation(AST_ROOT),
+                constructorParameters = constructorParameters(classDeclaration),
+                file = classDeclaration.containingFile,
+            )
+        } catch (e: UnsupportedTypeException) {
+            logger.info("Not generating the metamodel of $qualifiedName: ${e.message}", classDeclaration)
+            null
+        }
+    }
+
+    private fun buildFeature(
+        property: KSPropertyDeclaration,
+        type: KSType,
+        owner: KSClassDeclaration,
+    ): FeatureModel {
+        val name = property.simpleName.asString()
+        if (name in RESERVED_FEATURE_NAMES) {
+            logger.error("Property $name in ${owner.qualifiedName?.asString()} should be marked as internal", property)
+        }
+        val classifier = type.classDeclaration() ?: throw UnsupportedTypeException("type of $name is not a class")
+        val multiple = classifier.isCollection()
+        val reference = classifier.qualifiedName?.asString() == REFERENCE_BY_NAME
+        val elementType = if (multiple) type.arguments.firstOrNull()?.type?.resolve() else type
+        val provideNodes = elementType?.classDeclaration()?.isANode() ?: false
+        val propertyType =
+            when {
+                reference -> "REFERENCE"
+                provideNodes -> "CONTAINMENT"
+                else -> "ATTRIBUTE"
+            }
+        val multiplicity =
+            when {
+                multiple -> "MANY"
+                type.isMarkedNullable -> "OPTIONAL"
+                else -> "SINGULAR"
+            }
+        val referredType =
+            if (reference) {
+                type.arguments
+                    .firstOrNull()
+                    ?.type
+                    ?.resolve() ?: throw UnsupportedTypeException("reference $name has no referred type")
+            } else {
+                null
+            }
+        val derived = property.hasAnnotation(DERIVED)
+        val invalid = (!provideNodes && !reference && multiple) || (provideNodes && multiple && type.isMarkedNullable)
+        // As in the reflection-based metamodel, derived properties which cannot be expressed as features are ignored
+        val languageFeature =
+            when {
+                derived && invalid -> null
+                !provideNodes && !reference && multiple ->
+                    "error(\"Attributes with a Collection type are not allowed (property $name)\")"
+                !provideNodes && !reference ->
+                    "Attribute(\"$name\", ${type.isMarkedNullable}, typeOf<${render(type.makeNotNullable())}>())"
+                reference -> "Reference(\"$name\", ${type.isMarkedNullable}, ${classLiteral(referredType!!)})"
+                multiple && type.isMarkedNullable ->
+                    "error(\"Containments should not be defined as nullable collections (property $name)\")"
+                else -> "Containment(\"$name\", Multiplicity.$multiplicity, ${classLiteral(elementType!!)})"
+            }
+        return FeatureModel(
+            name = name,
+            propertyType = propertyType,
+            multiplicity = multiplicity,
+            derived = derived,
+            provideNodes = provideNodes,
+            type = render(referredType ?: type),
+            languageFeature = languageFeature,
+        )
+    }
+
+    private fun constructorParameters(classDeclaration: KSClassDeclaration): List<Pair<String, String>>? {
+        val constructor = classDeclaration.primaryConstructor ?: return null
+        if (classDeclaration.classKind != ClassKind.CLASS ||
+            classDeclaration.isAbstract() ||
+            Modifier.INNER in classDeclaration.modifiers ||
+            constructor.getVisibility() !in setOf(Visibility.PUBLIC, Visibility.INTERNAL) ||
+            constructor.parameters.any { it.isVararg || it.name == null }
+        ) {
+            return null
+        }
+        return try {
+            constructor.parameters.map { it.name!!.asString() to render(it.type.resolve()) }
+        } catch (e: UnsupportedTypeException) {
+            null
+        }
+    }
+
+    private fun commonPackage(packages: List<String>): String {
+        val segments = packages.map { packageName -> packageName.split('.').filter { it.isNotEmpty() } }
+        val common = mutableListOf<String>()
+        for (i in 0 until segments.minOf { it.size }) {
+            val segment = segments.first()[i]
+            if (segments.any { it[i] != segment }) {
+                break
+            }
+            common.add(segment)
+        }
+        return common.joinToString(".")
+    }
+}
+
+private class UnsupportedTypeException(
+    message: String,
+) : RuntimeException(message)
+
+internal class FeatureModel(
+    val name: String,
+    val propertyType: String,
+    val multiplicity: String,
+    val derived: Boolean,
+    val provideNodes: Boolean,
+    val type: String,
+    val languageFeature: String?,
+)
+
+internal class NodeClassModel(
+    val qualifiedName: String,
+    val packageName: String,
+    val features: List<FeatureModel>,
+    val inheritedFeatureNames: Set<String>,
+    val astRoot: Boolean,
+    val constructorParameters: List<Pair<String, String>>?,
+    val file: KSFile?,
+)
+
+private fun KSClassDeclaration.withNestedClasses(): Sequence<KSClassDeclaration> =
+    sequenceOf(this) + declarations.filterIsInstance<KSClassDeclaration>().flatMap { it.withNestedClasses() }
+
+private fun KSAnnotated.hasAnnotation(qualifiedName: String): Boolean =
+    annotations.any { it.qualifiedName() == qualifiedName }
+
+private fun KSAnnotation.qualifiedName(): String? =
+    annotationType
+        .resolve()
+        .declaration.qualifiedName
+        ?.asString()
+
+private fun KSDeclaration.expandAliases(): KSDeclaration =
+    if (this is KSTypeAlias) type.resolve().declaration.expandAliases() else this
+
+private fun KSType.classDeclaration(): KSClassDeclaration? = declaration.expandAliases() as? KSClassDeclaration
+
+private fun KSClassDeclaration.supertypeNames(): Sequence<String?> =
+    sequenceOf(qualifiedName?.asString()) + getAllSuperTypes().map { it.declaration.qualifiedName?.asString() }
+
+private fun KSClassDeclaration.isCollection(): Boolean = supertypeNames().any { it == COLLECTION }
+
+private fun KSClassDeclaration.isANode(): Boolean =
+    supertypeNames().any { it == BASE_AST_NODE } ||
+        hasAnnotation(NODE_TYPE) ||
+        getAllSuperTypes().any { (it.declaration as? KSClassDeclaration)?.hasAnnotation(NODE_TYPE) == true }
+
+/**
+ * The properties which Kolasu considers as features: public, not internal, not links, and not declared by
+ * BaseASTNode.
+ */
+private fun KSClassDeclaration.nodeProperties(): Sequence<KSPropertyDeclaration> =
+    getAllProperties().filter {
+        it.extensionReceiver == null &&
+            it.getVisibility() == Visibility.PUBLIC &&
+            !it.hasAnnotation(INTERNAL) &&
+            !it.hasAnnotation(LINK) &&
+            it.parentDeclaration?.qualifiedName?.asString() != BASE_AST_NODE
+    }
+
+private val KOTLIN_KEYWORDS =
+    setOf(
+        "as", "break", "class", "continue", "do", "else", "false", "for", "fun", "if", "in", "interface", "is",
+        "null", "object", "package", "return", "super", "this", "throw", "true", "try", "typealias", "typeof",
+        "val", "var", "when", "while",
+    )
+
+/**
+ * Escapes the segments of a qualified name which are not valid identifiers.
+ */
+internal fun render(qualifiedName: String): String =
+    qualifiedName.split('.').joinToString(".") {
+        if (it in KOTLIN_KEYWORDS || !it.matches(Regex("[A-Za-z_][A-Za-z0-9_]*"))) "`$it`" else it
+    }
+
+private fun render(type: KSType): String {
+    if (type.isError) {
+        throw UnsupportedTypeException("type $type cannot be resolved")
+    }
+    val declaration = type.declaration
+    if (declaration !is KSClassDeclaration && declaration !is KSTypeAlias) {
+        throw UnsupportedTypeException("type $type depends on type parameters")
+    }
+    val name = render(declaration.qualifiedName?.asString() ?: throw UnsupportedTypeException("$type is local"))
+    val arguments =
+        if (type.arguments.isEmpty()) {
+            ""
+        } else {
+            type.arguments.joinToString(", ", "<", ">") {
+                when (it.variance) {
+                    Variance.STAR -> "*"
+                    Variance.COVARIANT -> "out ${render(it.type!!.resolve())}"
+                    Variance.CONTRAVARIANT -> "in ${render(it.type!!.resolve())}"
+                    Variance.INVARIANT -> render(it.type!!.resolve())
+                }
+            }
+        }
+    return name + arguments + if (type.isMarkedNullable) "?" else ""
+}
+
+private fun classLiteral(type: KSType): String {
+    val classDeclaration = type.classDeclaration() ?: throw UnsupportedTypeException("$type is not a class")
+    return render(classDeclaration.qualifiedName?.asString() ?: throw UnsupportedTypeException("$type is local")) +
+        "::class"
+}
@@ -0,0 +1,10 @@
+package com.strumenta.kolasu.codegen.ksp
+
+import com.google.devtools.ksp.processing.SymbolProcessor
+import com.google.devtools.ksp.processing.SymbolProcessorEnvironment
+import com.google.devtools.ksp.processing.SymbolProcessorProvider
+
+class KolasuMetamodelProcessorProvider : SymbolProcessorProvider {
+    override fun create(environment: SymbolProcessorEnvironment): SymbolProcessor =
+        KolasuMetamodelProcessor(environment.codeGenerator, environment.logger, environment.options)
+}
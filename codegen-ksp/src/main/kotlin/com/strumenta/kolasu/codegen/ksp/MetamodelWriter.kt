@@ -0,0 +1,136 @@
+package com.strumenta.kolasu.codegen.ksp
+
+/**
+ * Writes the source code of a generated metamodel: a public class implementing GeneratedMetamodel, plus one
+ * private descriptor object per node class.
+ */
+internal class MetamodelWriter(
+    private val packageName: String,
+    private val className: String,
+    private val nodeClasses: List<NodeClassModel>,
+) {
+    private val code = StringBuilder()
+
+    fun write(): String {
+        line("// Generated by the Kolasu metamodel processor. Do not edit.")
+        line("@file:Suppress(\"DEPRECATION\", \"UNCHECKED_CAST\", \"USELESS_IS_CHECK\", \"UNNECESSARY_SAFE_CALL\")")
+        line()
+        if (packageName.isNotEmpty()) {
+            line("package ${render(packageName)}")
+            line()
+        }
+        IMPORTS.forEach { line("import $it") }
+        line()
+        line("class $className : GeneratedMetamodel {")
+        line("    override val descriptors: List<GeneratedNodeDescriptor> =")
+        line("        listOf(")
+        nodeClasses.indices.forEach { line("            ${descriptorName(it)},") }
+        line("        )")
+        line("}")
+        nodeClasses.forEachIndexed { index, nodeClass ->
+            line()
+            writeDescriptor(descriptorName(index), nodeClass)
+        }
+        return code.toString()
+    }
+
+    private fun descriptorName(index: Int) = "${className}Descriptor$index"
+
+    private fun writeDescriptor(
+        name: String,
+        nodeClass: NodeClassModel,
+    ) {
+        val type = nodeClass.qualifiedName
+        line("// $type")
+        line("private object $name : GeneratedNodeDescriptor {")
+        line("    override val nodeClass: Class<*> = $type::class.java")
+        line()
+        line("    override val features: List<FeatureMetadata> =")
+        line("        listOf(")
+        nodeClass.features.forEach {
+            line("            FeatureMetadata(")
+            line("                \"${it.name}\",")
+            line("                PropertyType.${it.propertyType},")
+            line("                Multiplicity.${it.multiplicity},")
+            line("                ${it.derived},")
+            line("                ${it.provideNodes},")
+            line("                FeatureAccessor { (it as $type).${render(it.name)} },")
+            line("            ) { typeOf<${it.type}>() },")
+        }
+        line("        )")
+        line()
+        line("    override val languageFeatures: List<Feature> by lazy {")
+        line("        listOf(")
+        nodeClass.features.mapNotNull { it.languageFeature }.forEach { line("            $it,") }
+        line("        )")
+        line("    }")
+        line()
+        line(
+            "    override val inheritedFeatureNames: Set<String> = " +
+                nodeClass.inheritedFeatureNames.sorted().joinToString(", ", "setOf(", ")") { "\"$it\"" },
+        )
+        line()
+        line("    override val astRoot: Boolean = ${nodeClass.astRoot}")
+        line()
+        val parameters = nodeClass.constructorParameters
+        if (parameters == null) {
+            line("    override val constructorParameters: List<String>? = null")
+            line()
+            line("    override val factory: ((List<Any?>) -> BaseASTNode)? = null")
+        } else {
+            line(
+                "    override val constructorParameters: List<String>? = " +
+                    parameters.joinToString(", ", "listOf(", ")") { "\"${it.first}\"" },
+            )
+            line()
+            line("    override val factory: ((List<Any?>) -> BaseASTNode)? = { arguments ->")
+            line("        $type(")
+            parameters.forEachIndexed { index, (_, parameterType) ->
+                line("            arguments[$index] as $parameterType,")
+            }
+            line("        )")
+            line("    }")
+        }
+        line()
+        line("    override fun forEachChild(")
+        line("        node: BaseASTNode,")
+        line("        action: (BaseASTNode) -> Unit,")
+        line("    ) {")
+        val containments = nodeClass.features.filter { it.propertyType == "CONTAINMENT" && !it.derived }
+        if (containments.isNotEmpty()) {
+            line("        val typedNode = node as $type")
+        }
+        containments.forEach {
+            val property = "typedNode.${render(it.name)}"
+            if (it.multiplicity == "MANY") {
+                line("        $property?.forEach { if (it is BaseASTNode) action(it) }")
+            } else {
+                line("        $property.let { if (it is BaseASTNode) action(it) }")
+            }
+        }
+        line("    }")
+        line("}")
+    }
+
+    private fun line(text: String = "") {
+        code.append(text).append('\n')
+    }
+
+    companion object {
+        private val IMPORTS =
+            listOf(
+                "com.strumenta.kolasu.language.Attribute",
+                "com.strumenta.kolasu.language.Containment",
+                "com.strumenta.kolasu.language.Feature",
+                "com.strumenta.kolasu.language.Reference",
+                "com.strumenta.kolasu.model.BaseASTNode",
+                "com.strumenta.kolasu.model.FeatureAccessor",
+                "com.strumenta.kolasu.model.FeatureMetadata",
+                "com.strumenta.kolasu.model.GeneratedMetamodel",
+                "com.strumenta.kolasu.model.GeneratedNodeDescriptor",
+                "com.strumenta.kolasu.model.Multiplicity",
+                "com.strumenta.kolasu.model.PropertyType",
+                "kotlin.reflect.typeOf",
+            )
+    }
+}
@@ -0,0 +1,152 @@
+package com.strumenta.kolasu.codegen.ksp
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.FeatureMetadata
+import com.strumenta.kolasu.model.GeneratedMetamodel
+import com.strumenta.kolasu.model.GeneratedNodeDescriptor
+import com.strumenta.kolasu.model.nodeProperties
+import com.tschuchort.compiletesting.KotlinCompilation
+import com.tschuchort.compiletesting.SourceFile
+import com.tschuchort.compiletesting.kspProcessorOptions
+import com.tschuchort.compiletesting.kspWithCompilation
+import com.tschuchort.compiletesting.symbolProcessorProviders
+import org.jetbrains.kotlin.compiler.plugin.ExperimentalCompilerApi
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+@OptIn(ExperimentalCompilerApi::class)
+class KolasuMetamodelProcessorTest {
+    private val nodes =
+        SourceFile.kotlin(
+            "Nodes.kt",
+            """
+            package com.example.nodes
+
+            import com.strumenta.kolasu.model.Derived
+            import com.strumenta.kolasu.model.Internal
+            import com.strumenta.kolasu.model.Named
+            import com.strumenta.kolasu.model.Node
+            import com.strumenta.kolasu.model.ReferenceByName
+
+            data class Program(
+                override val name: String,
+                val statements: MutableList<Statement>,
+                val imported: ReferenceByName<Program>?,
+            ) : Node(), Named {
+                @Derived
+                val statementCount: Int
+                    get() = statements.size
+
+                @Derived
+                val statementTypes: List<String>
+                    get() = statements.map { it.javaClass.simpleName }
+
+                @Internal
+                val notAFeature: String = ""
+            }
+
+            abstract class Statement : Node()
+
+            data class Print(
+                val value: Int,
+                val next: Statement?,
+            ) : Statement()
+            """.trimIndent(),
+        )
+
+    private fun generatedMetamodel(options: Map<String, String> = emptyMap()): Map<String, GeneratedNodeDescriptor> {
+        val compilation =
+            KotlinCompilation().apply {
+                sources = listOf(nodes)
+                symbolProcessorProviders = mutableListOf(KolasuMetamodelProcessorProvider())
+                kspProcessorOptions = options.toMutableMap()
+                kspWithCompilation = true
+                inheritClassPath = true
+                languageVersion = "1.9"
+            }
+        val result = compilation.compile()
+        assertEquals(KotlinCompilation.ExitCode.OK, result.exitCode, result.messages)
+        val metamodelClass = options[METAMODEL_CLASS_OPTION] ?: "com.example.nodes.GeneratedKolasuMetamodel"
+        val metamodel =
+            result.classLoader
+                .loadClass(metamodelClass)
+                .getDeclaredConstructor()
+                .newInstance() as GeneratedMetamodel
+        return metamodel.descriptors.associateBy { it.nodeClass.simpleName }
+    }
+
+    private fun assertSameFeatures(
+        expected: List<FeatureMetadata>,
+        actual: List<FeatureMetadata>,
+    ) {
+        assertEquals(expected.map { it.name }.toSet(), actual.map { it.name }.toSet())
+        val actualByName = actual.associateBy { it.name }
+        expected.forEach {
+            val feature = actualByName.getValue(it.name)
+            assertEquals(it.propertyType, feature.propertyType, it.name)
+            assertEquals(it.multiplicity, feature.multiplicity, it.name)
+            assertEquals(it.derived, feature.derived, it.name)
+            assertEquals(it.provideNodes, feature.provideNodes, it.name)
+            assertEquals(it.type.classifier, feature.type.classifier, it.name)
+            assertEquals(it.type.isMarkedNullable, feature.type.isMarkedNullable, it.name)
+        }
+    }
+
+    @Test
+    fun generatedFeaturesMatchTheReflectionBasedOnes() {
+        val descriptors = generatedMetamodel()
+        assertEquals(setOf("Program", "Statement", "Print"), descriptors.keys)
+        descriptors.values.forEach { descriptor ->
+            val reflected = descriptor.nodeClass.kotlin.nodeProperties.map { FeatureMetadata.buildFor(it) }
+            assertSameFeatures(reflected, descriptor.features)
+            assertEquals(
+                descriptor.features.map { it.name } - "statementTypes",
+                descriptor.languageFeatures.map { it.name },
+            )
+        }
+    }
+
+    @Test
+    fun featuresAreInDeclarationOrder() {
+        val descriptors = generatedMetamodel()
+        assertEquals(
+            listOf("name", "statements", "imported", "statementCount", "statementTypes"),
+            descriptors.getValue("Program").features.map { it.name },
+        )
+        assertEquals(listOf("value", "next"), descriptors.getValue("Print").features.map { it.name })
+    }
+
+    @Test
+    fun derivedCollectionsOfAttributesAreNotLanguageFeatures() {
+        val program = generatedMetamodel().getValue("Program")
+        assertEquals(listOf("statements", "imported"), program.declaredFeatures().map { it.name })
+        assertEquals(
+            listOf("statements", "imported", "statementCount"),
+            program.declaredFeatures(includeDerived = true).map { it.name },
+        )
+    }
+
+    @Test
+    fun onlyConcreteClassesCanBeInstantiated() {
+        val descriptors = generatedMetamodel()
+        assertNull(descriptors.getValue("Statement").factory)
+        assertNull(descriptors.getValue("Statement").constructorParameters)
+        val print = descriptors.getValue("Print")
+        assertEquals(listOf("value", "next"), print.constructorParameters)
+        val factory = assertNotNull(print.factory)
+        val inner = factory(listOf(2, null))
+        val outer = factory(listOf(1, inner))
+        assertEquals(1, print.features.first { it.name == "value" }.getValue(outer))
+        val children = mutableListOf<BaseASTNode>()
+        print.forEachChild(outer) { children.add(it) }
+        assertEquals(listOf(inner), children)
+    }
+
+    @Test
+    fun theNameOfTheMetamodelClassCanBeSpecified() {
+        val descriptors = generatedMetamodel(mapOf(METAMODEL_CLASS_OPTION to "com.example.MyMetamodel"))
+        assertEquals(setOf("Program", "Statement", "Print"), descriptors.keys)
+    }
+}
@@ -6,6 +6,7 @@ plugins {
     id("idea")
     id("signing")
     id("org.jetbrains.dokka")
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -22,6 +23,10 @@ dependencies {
     testImplementation(kotlin("test-junit", libs.versions.kotlin.get()))
 }
 
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+}
+
 tasks.named<AntlrTask>("generateTestGrammarSource") {
     maxHeapSize = "64m"
     arguments.addAll(listOf("-package", "com.strumenta.simplelang"))
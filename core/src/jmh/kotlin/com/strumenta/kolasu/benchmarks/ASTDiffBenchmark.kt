@@ -0,0 +1,149 @@
+package com.strumenta.kolasu.benchmarks
+
+import com.strumenta.kolasu.diff.ASTDiff
+import com.strumenta.kolasu.model.Node
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class DiffUnit(
+    val declarations: MutableList<DiffFunction>,
+) : Node()
+
+class DiffFunction(
+    val name: String,
+    val body: MutableList<DiffStatement>,
+) : Node()
+
+class DiffStatement(
+    val target: String,
+    val expression: DiffExpression,
+) : Node()
+
+class DiffExpression(
+    val operator: String,
+    val value: Int,
+    val operands: MutableList<DiffExpression>,
+) : Node()
+
+/**
+ * Measures [ASTDiff] on synthetic compilation units shaped like real code: functions containing statements, each
+ * one assigning a small expression tree. The destination is a copy of the source with some edits spread across the
+ * tree: updated literals, inserted and deleted statements, and functions moved to a different position.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ASTDiffBenchmark {
+    @Param("10000", "100000")
+    var nodes: Int = 0
+
+    @Param("10", "1000")
+    var edits: Int = 0
+
+    private lateinit var source: DiffUnit
+    private lateinit var identicalCopy: DiffUnit
+    private lateinit var destination: DiffUnit
+
+    @Setup
+    fun setup() {
+        source = generate(nodes, Random(SEED))
+        identicalCopy = generate(nodes, Random(SEED))
+        destination = generate(nodes, Random(SEED))
+        edit(destination, edits, Random(SEED + 1))
+    }
+
+    @Benchmark
+    fun diffIdenticalTrees(): Int = ASTDiff.compute(source, identicalCopy).actions.size
+
+    @Benchmark
+    fun diffEditedTrees(): Int = ASTDiff.compute(source, destination).actions.size
+
+    companion object {
+        private const val SEED = 42L
+        private const val STATEMENTS_PER_FUNCTION = 20
+
+        /**
+         * Generates a unit with approximately the given number of nodes.
+         */
+        fun generate(
+            nodes: Int,
+            random: Random,
+        ): DiffUnit {
+            val functions = mutableListOf<DiffFunction>()
+            var count = 1
+            while (count < nodes) {
+                val body = mutableListOf<DiffStatement>()
+                repeat(STATEMENTS_PER_FUNCTION) {
+                    val expression = expression(random, 3)
+                    body.add(DiffStatement("v${random.nextInt(100)}", expression))
+                    count += 1 + size(expression)
+                }
+                functions.add(DiffFunction("f${functions.size}", body))
+                count++
+            }
+            return DiffUnit(functions)
+        }
+
+        private fun expression(
+            random: Random,
+            depth: Int,
+        ): DiffExpression {
+            val operands =
+                if (depth == 0 || random.nextInt(3) == 0) {
+                    mutableListOf()
+                } else {
+                    MutableList(2) { expression(random, depth - 1) }
+                }
+            val operator = if (operands.isEmpty()) "literal" else listOf("+", "-", "*")[random.nextInt(3)]
+            return DiffExpression(operator, random.nextInt(10), operands)
+        }
+
+        private fun size(expression: DiffExpression): Int = 1 + expression.operands.sumOf { size(it) }
+
+        private fun edit(
+            unit: DiffUnit,
+            edits: Int,
+            random: Random,
+        ) {
+            repeat(edits) {
+                val functions = unit.declarations
+                val function = functions[random.nextInt(functions.size)]
+                when (random.nextInt(4)) {
+                    0 -> {
+                        val index = random.nextInt(function.body.size)
+                        val statement = function.body[index]
+                        function.body[index] =
+                            DiffStatement(statement.target, DiffExpression("literal", -1, mutableListOf()))
+                    }
+                    1 -> {
+                        val statement = DiffStatement("new", expression(random, 2))
+                        function.body.add(random.nextInt(function.body.size + 1), statement)
+                    }
+                    2 -> {
+                        if (function.body.size > 1) {
+                            function.body.removeAt(random.nextInt(function.body.size))
+                        }
+                    }
+                    else -> {
+                        functions.remove(function)
+                        functions.add(random.nextInt(functions.size + 1), function)
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.strumenta.kolasu.benchmarks
+
+import com.strumenta.kolasu.model.FeatureAccessor
+import com.strumenta.kolasu.model.FeatureAccessors
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.NodeMetadata
+import com.strumenta.kolasu.model.PropertyDescription
+import com.strumenta.kolasu.model.nodeProperties
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.lang.reflect.Method
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.KProperty1
+
+data class BenchLeaf(
+    val value: Int,
+) : Node()
+
+data class BenchNode(
+    val left: BenchLeaf,
+    val right: BenchLeaf,
+    val name: String,
+) : Node()
+
+/**
+ * Compares the different ways of reading the "left" child of a node: a direct field access, the compiled
+ * [FeatureAccessor], Kotlin reflection (the path used by PropertyDescription.buildFor) and Java reflection
+ * (the path used by JavaNode before the introduction of accessors).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class FeatureAccessBenchmark {
+    private lateinit var node: BenchNode
+    private lateinit var kProperty: KProperty1<BenchNode, *>
+    private lateinit var getter: Method
+    private lateinit var accessor: FeatureAccessor
+
+    @Setup
+    fun setup() {
+        node = BenchNode(BenchLeaf(1), BenchLeaf(2), "n")
+        kProperty = BenchNode::class.nodeProperties.first { it.name == "left" }
+        getter = BenchNode::class.java.getMethod("getLeft")
+        accessor = FeatureAccessors.forGetter(getter)
+    }
+
+    @Benchmark
+    fun directAccess(bh: Blackhole) {
+        bh.consume(node.left)
+    }
+
+    @Benchmark
+    fun featureAccessor(bh: Blackhole) {
+        bh.consume(accessor.get(node))
+    }
+
+    @Benchmark
+    fun nodeMetadataFeature(bh: Blackhole) {
+        bh.consume(NodeMetadata.of(node.javaClass).feature("left")!!.getValue(node))
+    }
+
+    @Benchmark
+    fun kotlinReflection(bh: Blackhole) {
+        bh.consume(kProperty.get(node))
+    }
+
+    @Benchmark
+    fun javaReflection(bh: Blackhole) {
+        bh.consume(getter.invoke(node))
+    }
+
+    @Benchmark
+    fun allPropertiesWithMetadata(bh: Blackhole) {
+        bh.consume(node.properties)
+    }
+
+    @Benchmark
+    fun allPropertiesWithReflection(bh: Blackhole) {
+        bh.consume(node.nodeProperties.map { PropertyDescription.buildFor(it, node) })
+    }
+}
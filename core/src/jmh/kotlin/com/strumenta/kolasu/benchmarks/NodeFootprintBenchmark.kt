@@ -0,0 +1,76 @@
+package com.strumenta.kolasu.benchmarks
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.Destination
+import com.strumenta.kolasu.model.FeatureMetadata
+import com.strumenta.kolasu.model.Origin
+import com.strumenta.kolasu.model.Position
+import com.strumenta.kolasu.model.Source
+import com.strumenta.kolasu.model.SyntheticSource
+import io.lionweb.model.AnnotationInstance
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * A copy of the fields of [BenchLeaf] as they were laid out when every node allocated its annotation list and held
+ * the explicitly set source and the destination in its own fields.
+ */
+@Suppress("unused")
+class PreviousLayoutLeaf(
+    val value: Int,
+) {
+    val annotations = mutableListOf<AnnotationInstance>()
+    var id: String? = null
+    var positionOverride: Position? = null
+    var origin: Origin? = null
+    var parent: BaseASTNode? = null
+
+    @Transient
+    var containmentInParent: FeatureMetadata? = null
+
+    @Transient
+    var indexInContainmentOfParent: Int = -1
+    var explicitlySetSource: Source? = null
+    var destination: Destination? = null
+}
+
+/**
+ * Measures the memory needed by each node. Run it with the GC profiler (`-prof gc`): the `gc.alloc.rate.norm`
+ * metric reports the bytes allocated per operation, i.e., the footprint of a single node.
+ *
+ * [plainLeaf] is the common case, [leafWithExtras] shows the cost paid by the nodes using the rarely needed
+ * information (explicit source and destination). [leafWithPreviousLayout] is the baseline: the same leaf with the
+ * fields nodes had before the rarely needed information was allocated lazily.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class NodeFootprintBenchmark {
+    private val source = SyntheticSource("benchmark")
+    private val destination = BenchLeaf(0)
+
+    @Benchmark
+    fun plainLeaf(): BenchLeaf = BenchLeaf(1)
+
+    @Benchmark
+    fun leafWithPreviousLayout(): PreviousLayoutLeaf = PreviousLayoutLeaf(1)
+
+    @Benchmark
+    fun leafWithExtras(): BenchLeaf {
+        val leaf = BenchLeaf(1)
+        leaf.source = source
+        leaf.destination = destination
+        return leaf
+    }
+}
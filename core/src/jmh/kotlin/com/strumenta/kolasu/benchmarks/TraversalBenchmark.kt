@@ -0,0 +1,153 @@
+package com.strumenta.kolasu.benchmarks
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.traversing.TreeCursor
+import com.strumenta.kolasu.traversing.children
+import com.strumenta.kolasu.traversing.walk
+import com.strumenta.kolasu.traversing.walkLeavesFirst
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+
+class BenchTree(
+    val nodes: List<Node>,
+) : Node()
+
+/**
+ * Compares the ways of traversing a whole tree: the sequences returned by walk and walkLeavesFirst, a reused
+ * [TreeCursor], and the sequences based on generateSequence and boxed stacks used before the introduction of the
+ * cursor. The trees are either deep (a chain of nodes) or wide (a root with many leaves), with the same number of
+ * nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class TraversalBenchmark {
+    @Param("deep", "wide")
+    lateinit var shape: String
+
+    private lateinit var root: BaseASTNode
+    private lateinit var cursor: TreeCursor
+
+    @Setup
+    fun setup() {
+        root =
+            if (shape == "deep") {
+                var current = BenchTree(emptyList())
+                repeat(NODES - 1) { current = BenchTree(listOf(current)) }
+                current
+            } else {
+                BenchTree(List(NODES - 1) { BenchTree(emptyList()) })
+            }
+        cursor = TreeCursor(root)
+    }
+
+    @Benchmark
+    fun walkSequence(): Int = root.walk().count()
+
+    @Benchmark
+    fun walkLeavesFirstSequence(): Int = root.walkLeavesFirst().count()
+
+    @Benchmark
+    fun cursorPreOrder(): Int {
+        var count = 0
+        cursor.forEachPreOrder { count++ }
+        return count
+    }
+
+    @Benchmark
+    fun cursorPostOrder(): Int {
+        var count = 0
+        cursor.forEachPostOrder { count++ }
+        return count
+    }
+
+    @Benchmark
+    fun generateSequenceWalk(): Int = legacyWalk(root).count()
+
+    @Benchmark
+    fun generateSequenceWalkLeavesFirst(): Int = legacyWalkLeavesFirst(root).count()
+
+    companion object {
+        const val NODES = 10_000
+
+        private fun legacyWalk(root: BaseASTNode): Sequence<BaseASTNode> {
+            val stack = ArrayDeque<BaseASTNode>()
+            stack.push(root)
+            return generateSequence {
+                if (stack.isEmpty()) {
+                    null
+                } else {
+                    val next = stack.pop()
+                    next.children.reversed().forEach { stack.push(it) }
+                    next
+                }
+            }
+        }
+
+        private fun legacyWalkLeavesFirst(root: BaseASTNode): Sequence<BaseASTNode> {
+            val nodesStack = ArrayDeque<List<BaseASTNode>>()
+            val cursorStack = ArrayDeque<Int>()
+            var done = false
+
+            fun nextFromLevel(): BaseASTNode {
+                val nodes = nodesStack.peek()
+                val cursor = cursorStack.pop()
+                cursorStack.push(cursor + 1)
+                return nodes[cursor]
+            }
+
+            fun fillStackToLeaf(node: BaseASTNode) {
+                var currentNode = node
+                while (true) {
+                    val childNodes = currentNode.children
+                    if (childNodes.isEmpty()) {
+                        break
+                    }
+                    nodesStack.push(childNodes)
+                    cursorStack.push(0)
+                    currentNode = childNodes[0]
+                }
+            }
+            fillStackToLeaf(root)
+            return generateSequence {
+                if (done) {
+                    null
+                } else if (nodesStack.isEmpty()) {
+                    done = true
+                    root
+                } else {
+                    val nodes = nodesStack.peek()
+                    val cursor = cursorStack.peek()
+                    if (cursor < nodes.size) {
+                        fillStackToLeaf(nodes[cursor])
+                        nextFromLevel()
+                    } else {
+                        nodesStack.pop()
+                        cursorStack.pop()
+                        if (nodesStack.isNotEmpty()) {
+                            nextFromLevel()
+                        } else {
+                            done = true
+                            root
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.strumenta.kolasu.diff
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.PropertyType
+import com.strumenta.kolasu.model.ReferenceByName
+import com.strumenta.kolasu.model.StructuralHash
+import com.strumenta.kolasu.model.StructuralHasher
+import com.strumenta.kolasu.traversing.FrozenAst
+import com.strumenta.kolasu.traversing.IntStack
+
+/**
+ * The differences between two ASTs: a matching between the nodes of the [source] and of the [destination] AST,
+ * and an edit script ([actions]) turning the former into the latter.
+ *
+ * The matching is computed in the style of GumTree, in two phases:
+ * 1. top-down, the subtrees of the two ASTs are considered from the highest to the lowest, and the identical ones,
+ *    having the same [StructuralHash], are matched together with all their nodes. Subtrees lower than `minHeight`
+ *    are left to the next phase. When several identical subtrees are available, they are matched in document order.
+ * 2. bottom-up, each source node not matched yet is matched to a destination node of the same type which is the
+ *    parent of the nodes matched to its children, when the fraction of children matched between the two (their dice
+ *    coefficient) is at least `minDice`. The roots are matched if they have the same type. The unmatched children of
+ *    the nodes matched in this phase are then matched by type, in order, recursively.
+ *
+ * Identical subtrees are found through hash tables and the bottom-up phase only looks at the children of each node,
+ * so the whole computation takes O(n log n) on trees of n nodes, and it does not recurse.
+ *
+ * The edit script contains a [EditAction.Delete] for each unmatched source node, an [EditAction.Insert] for each
+ * unmatched destination node, an [EditAction.Update] for each attribute or reference (compared by name) whose value
+ * differs between matched nodes, and an [EditAction.Move] for each matched node whose parent or containment changes,
+ * or which changes position among the children of its parent, relatively to the other matched children (the
+ * longest subsequence of matched children keeping their order is not moved).
+ */
+class ASTDiff private constructor(
+    val source: BaseASTNode,
+    val destination: BaseASTNode,
+    private val sourceAst: FrozenAst,
+    private val destinationAst: FrozenAst,
+    private val sourceToDestination: IntArray,
+    private val destinationToSource: IntArray,
+    val actions: List<EditAction>,
+) {
+    /**
+     * True when the two ASTs are identical.
+     */
+    val isEmpty: Boolean
+        get() = actions.isEmpty()
+
+    /**
+     * The number of matched pairs of nodes.
+     */
+    val mappingCount: Int
+        get() = sourceToDestination.count { it != -1 }
+
+    /**
+     * @return the destination node matched to [sourceNode], or null if it has been deleted.
+     */
+    fun destinationOf(sourceNode: BaseASTNode): BaseASTNode? {
+        val index = sourceAst.indexOf(sourceNode)
+        require(index != -1) { "The node ${sourceNode.nodeType} is not part of the source AST" }
+        val matched = sourceToDestination[index]
+        return if (matched == -1) null else destinationAst.node(matched)
+    }
+
+    /**
+     * @return the source node matched to [destinationNode], or null if it has been inserted.
+     */
+    fun sourceOf(destinationNode: BaseASTNode): BaseASTNode? {
+        val index = destinationAst.indexOf(destinationNode)
+        require(index != -1) { "The node ${destinationNode.nodeType} is not part of the destination AST" }
+        val matched = destinationToSource[index]
+        return if (matched == -1) null else sourceAst.node(matched)
+    }
+
+    override fun toString(): String = "ASTDiff(mappings=$mappingCount, actions=$actions)"
+
+    companion object {
+        const val DEFAULT_MIN_HEIGHT = 2
+        const val DEFAULT_MIN_DICE = 0.5
+
+        /**
+         * Computes the differences between the ASTs having [source] and [destination] as roots.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun compute(
+            source: BaseASTNode,
+            destination: BaseASTNode,
+            minHeight: Int = DEFAULT_MIN_HEIGHT,
+            minDice: Double = DEFAULT_MIN_DICE,
+        ): ASTDiff {
+            require(minHeight > 0) { "The minimum height should be positive" }
+            val sourceAst = FrozenAst.of(source)
+            val destinationAst = FrozenAst.of(destination)
+            val matcher = Matcher(sourceAst, destinationAst, minHeight, minDice)
+            matcher.match()
+            val actions = EditScriptGenerator(sourceAst, destinationAst, matcher).generate()
+            return ASTDiff(
+                source,
+                destination,
+                sourceAst,
+                destinationAst,
+                matcher.sourceToDestination,
+                matcher.destinationToSource,
+                actions,
+            )
+        }
+    }
+}
+
+/**
+ * @return the differences between this AST and [other]. See [ASTDiff].
+ */
+fun BaseASTNode.diff(other: BaseASTNode): ASTDiff = ASTDiff.compute(this, other)
+
+/**
+ * The arrays describing one of the two ASTs being compared, indexed by the pre-order index of the nodes.
+ */
+private class TreeInfo(
+    val ast: FrozenAst,
+    hasher: StructuralHasher,
+) {
+    val hashes: Array<StructuralHash>
+    val heights = IntArray(ast.size) { 1 }
+    val childCounts = IntArray(ast.size)
+
+    init {
+        hasher.hash(ast.root)
+        // The hasher caches the hashes, so this is a lookup for every node
+        hashes = Array(ast.size) { hasher.hash(ast.node(it)) }
+        for (i in ast.size - 1 downTo 1) {
+            val parent = ast.parentIndex(i)
+            heights[parent] = maxOf(heights[parent], heights[i] + 1)
+            childCounts[parent]++
+        }
+    }
+
+    inline fun forEachChild(
+        index: Int,
+        action: (Int) -> Unit,
+    ) {
+        val end = ast.subtreeEnd(index)
+        var child = index + 1
+        while (child < end) {
+            action(child)
+            child = ast.subtreeEnd(child)
+        }
+    }
+}
+
+/**
+ * The nodes waiting to be considered by the top-down phase, grouped by height.
+ */
+private class HeightQueue(
+    private val info: TreeInfo,
+) {
+    private val buckets = arrayOfNulls<IntStack>(info.heights.maxOrNull()!! + 1)
+    private var top = 0
+
+    fun push(index: Int) {
+        val height = info.heights[index]
+        val bucket = buckets[height] ?: IntStack().also { buckets[height] = it }
+        bucket.push(index)
+        if (height > top) {
+            top = height
+        }
+    }
+
+    fun peekHeight(): Int {
+        while (top > 0 && buckets[top]?.isEmpty() != false) {
+            top--
+        }
+        return top
+    }
+
+    /**
+     * Removes the nodes of the given height, returning them in document order.
+     */
+    fun pop(height: Int): IntArray {
+        val bucket = buckets[height]!!
+        val indexes = bucket.toIntArray()
+        bucket.clear()
+        indexes.sort()
+        return indexes
+    }
+
+    /**
+     * Queues the children of the given node.
+     */
+    fun open(index: Int) {
+        info.forEachChild(index) { push(it) }
+    }
+}
+
+private class Matcher(
+    sourceAst: FrozenAst,
+    destinationAst: FrozenAst,
+    private val minHeight: Int,
+    private val minDice: Double,
+) {
+    private val hasher = StructuralHasher(cacheHashes = true)
+    val source = TreeInfo(sourceAst, hasher)
+    val destination = TreeInfo(destinationAst, hasher)
+    val sourceToDestination = IntArray(sourceAst.size) { -1 }
+    val destinationToSource = IntArray(destinationAst.size) { -1 }
+
+    fun match() {
+        matchTopDown()
+        matchBottomUp()
+    }
+
+    private fun matchTopDown() {
+        val sourceQueue = HeightQueue(source)
+        val destinationQueue = HeightQueue(destination)
+        sourceQueue.push(0)
+        destinationQueue.push(0)
+        while (minOf(sourceQueue.peekHeight(), destinationQueue.peekHeight()) >= minHeight) {
+            val sourceHeight = sourceQueue.peekHeight()
+            val destinationHeight = destinationQueue.peekHeight()
+            if (sourceHeight > destinationHeight) {
+                sourceQueue.pop(sourceHeight).forEach { sourceQueue.open(it) }
+            } else if (destinationHeight > sourceHeight) {
+                destinationQueue.pop(destinationHeight).forEach { destinationQueue.open(it) }
+            } else {
+                val destinationsByHash = HashMap<StructuralHash, ArrayDeque<Int>>()
+                destinationQueue.pop(destinationHeight).forEach {
+                    destinationsByHash.getOrPut(destination.hashes[it]) { ArrayDeque() }.addLast(it)
+                }
+                val sourceNodes = sourceQueue.pop(sourceHeight)
+                for (sourceNode in sourceNodes) {
+                    val candidates = destinationsByHash[source.hashes[sourceNode]]
+                    val destinationNode = candidates?.firstOrNull()
+                    if (destinationNode != null && matchSubtrees(sourceNode, destinationNode)) {
+                        candidates!!.removeFirst()
+                    } else {
+                        sourceQueue.open(sourceNode)
+                    }
+                }
+                destinationsByHash.values.forEach { remaining -> remaining.forEach { destinationQueue.open(it) } }
+            }
+        }
+    }
+
+    /**
+     * Matches all the nodes of two identical subtrees.
+     * @return false, without matching anything, if the subtrees turn out to be different despite their hashes.
+     */
+    private fun matchSubtrees(
+        sourceNode: Int,
+        destinationNode: Int,
+    ): Boolean {
+        val size = source.ast.subtreeEnd(sourceNode) - sourceNode
+        if (destination.ast.subtreeEnd(destinationNode) - destinationNode != size) {
+            return false
+        }
+        for (offset in 0 until size) {
+            if (source.ast.typeId(sourceNode + offset) != destination.ast.typeId(destinationNode + offset)) {
+                return false
+            }
+        }
+        for (offset in 0 until size) {
+            link(sourceNode + offset, destinationNode + offset)
+        }
+        return true
+    }
+
+    private fun link(
+        sourceNode: Int,
+        destinationNode: Int,
+    ) {
+        sourceToDestination[sourceNode] = destinationNode
+        destinationToSource[destinationNode] = sourceNode
+    }
+
+    private fun matchBottomUp() {
+        val commonChildren = HashMap<Int, Int>()
+        // Children come after their parents in pre-order, so they are considered first
+        for (sourceNode in source.ast.size - 1 downTo 0) {
+            if (sourceToDestination[sourceNode] != -1) {
+                continue
+            }
+            commonChildren.clear()
+            source.forEachChild(sourceNode) { child ->
+                val matched = sourceToDestination[child]
+                if (matched != -1) {
+                    val candidate = destination.ast.parentIndex(matched)
+                    if (candidate != -1 &&
+                        destinationToSource[candidate] == -1 &&
+                        destination.ast.typeId(candidate) == source.ast.typeId(sourceNode)
+                    ) {
+                        commonChildren[candidate] = (commonChildren[candidate] ?: 0) + 1
+                    }
+                }
+            }
+            var best = -1
+            var bestDice = minDice
+            commonChildren.forEach { (candidate, common) ->
+                val dice = 2.0 * common / (source.childCounts[sourceNode] + destination.childCounts[candidate])
+                if (dice > bestDice || (dice == bestDice && (best == -1 || candidate < best))) {
+                    best = candidate
+                    bestDice = dice
+                }
+            }
+            if (best != -1) {
+                link(sourceNode, best)
+                recover(sourceNode, best)
+            }
+        }
+        if (sourceToDestination[0] == -1 &&
+            destinationToSource[0] == -1 &&
+            source.ast.typeId(0) == destination.ast.typeId(0)
+        ) {
+            link(0, 0)
+            recover(0, 0)
+        }
+    }
+
+    /**
+     * Matches the unmatched children of two matched nodes having the same type, in order, and then their
+     * descendants in the same way.
+     */
+    private fun recover(
+        sourceNode: Int,
+        destinationNode: Int,
+    ) {
+        val pending = IntStack()
+        pending.push(sourceNode)
+        pending.push(destinationNode)
+        while (!pending.isEmpty()) {
+            val destinationParent = pending.pop()
+            val sourceParent = pending.pop()
+            val unmatchedByType = HashMap<Int, ArrayDeque<Int>>()
+            destination.forEachChild(destinationParent) { child ->
+                if (destinationToSource[child] == -1) {
+                    unmatchedByType.getOrPut(destination.ast.typeId(child)) { ArrayDeque() }.addLast(child)
+                }
+            }
+            if (unmatchedByType.isEmpty()) {
+                continue
+            }
+            source.forEachChild(sourceParent) { child ->
+                if (sourceToDestination[child] == -1) {
+                    val candidate = unmatchedByType[source.ast.typeId(child)]?.removeFirstOrNull()
+                    if (candidate != null) {
+                        link(child, candidate)
+                        pending.push(child)
+                        pending.push(candidate)
+                    }
+                }
+            }
+        }
+    }
+}
+
+private class EditScriptGenerator(
+    private val sourceAst: FrozenAst,
+    private val destinationAst: FrozenAst,
+    private val matcher: Matcher,
+) {
+    private val sourceToDestination = matcher.sourceToDestination
+    private val destinationToSource = matcher.destinationToSource
+    private val sourceContainments = arrayOfNulls<String>(sourceAst.size)
+    private val destinationContainments = arrayOfNulls<String>(destinationAst.size)
+    private val destinationIndexes = IntArray(destinationAst.size) { -1 }
+
+    fun generate(): List<EditAction> {
+        recordContainments(matcher.source, sourceContainments, null)
+        recordContainments(matcher.destination, destinationContainments, destinationIndexes)
+        val actions = ArrayList<EditAction>()
+        for (sourceNode in 0 until sourceAst.size) {
+            if (sourceToDestination[sourceNode] == -1) {
+                actions.add(EditAction.Delete(sourceAst.node(sourceNode)))
+            }
+        }
+        val moved = findMoves()
+        for (destinationNode in 0 until destinationAst.size) {
+            val sourceNode = destinationToSource[destinationNode]
+            val parent = destinationAst.parentIndex(destinationNode)
+            val parentNode = if (parent == -1) null else destinationAst.node(parent)
+            if (sourceNode == -1) {
+                actions.add(
+                    EditAction.Insert(
+                        destinationAst.node(destinationNode),
+                        parentNode,
+                        destinationContainments[destinationNode],
+                        destinationIndexes[destinationNode],
+                    ),
+                )
+                continue
+            }
+            if (matcher.source.hashes[sourceNode] != matcher.destination.hashes[destinationNode]) {
+                addUpdates(sourceAst.node(sourceNode), destinationAst.node(destinationNode), actions)
+            }
+            if (moved[destinationNode]) {
+                actions.add(
+                    EditAction.Move(
+                        sourceAst.node(sourceNode),
+                        destinationAst.node(destinationNode),
+                        parentNode,
+                        destinationContainments[destinationNode],
+                        destinationIndexes[destinationNode],
+                    ),
+                )
+            }
+        }
+        return actions
+    }
+
+    /**
+     * Records the name of the containment holding each node, and optionally its index in the containment.
+     */
+    private fun recordContainments(
+        info: TreeInfo,
+        names: Array<String?>,
+        indexes: IntArray?,
+    ) {
+        val ast = info.ast
+        for (parent in 0 until ast.size) {
+            var child = parent + 1
+            val end = ast.subtreeEnd(parent)
+            ast.node(parent).forEachChildInContainment { childNode, containment, index ->
+                // The children are visited in the same order as in the snapshot
+                val childIndex = if (child < end && ast.node(child) === childNode) child else ast.indexOf(childNode)
+                if (childIndex != -1) {
+                    names[childIndex] = containment?.name
+                    indexes?.set(childIndex, index)
+                    if (childIndex == child) {
+                        child = ast.subtreeEnd(child)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return for each destination node, whether its matched source node has been moved.
+     */
+    private fun findMoves(): BooleanArray {
+        val moved = BooleanArray(destinationAst.size)
+        val sameParent = IntStack()
+        for (destinationParent in 0 until destinationAst.size) {
+            val sourceParent = destinationToSource[destinationParent]
+            sameParent.clear()
+            matcher.destination.forEachChild(destinationParent) { child ->
+                val sourceNode = destinationToSource[child]
+                if (sourceNode != -1) {
+                    if (sourceParent == -1 ||
+                        sourceAst.parentIndex(sourceNode) != sourceParent ||
+                        sourceContainments[sourceNode] != destinationContainments[child]
+                    ) {
+                        moved[child] = true
+                    } else {
+                        sameParent.push(child)
+                    }
+                }
+            }
+            // Among the children staying in the same parent, the ones out of order have been moved
+            val children = sameParent.toIntArray()
+            val keep = longestIncreasingSubsequence(IntArray(children.size) { destinationToSource[children[it]] })
+            children.forEachIndexed { i, child -> if (!keep[i]) moved[child] = true }
+        }
+        if (destinationToSource[0] > 0) {
+            moved[0] = true
+        }
+        return moved
+    }
+
+    private fun addUpdates(
+        sourceNode: BaseASTNode,
+        destinationNode: BaseASTNode,
+        actions: MutableList<EditAction>,
+    ) {
+        val sourceValues = LinkedHashMap<String, Any?>()
+        forEachAttribute(sourceNode) { name, value -> sourceValues[name] = value }
+        forEachAttribute(destinationNode) { name, value ->
+            val oldValue = sourceValues[name]
+            if (comparable(oldValue) != comparable(value)) {
+                actions.add(EditAction.Update(sourceNode, destinationNode, name, oldValue, value))
+            }
+        }
+    }
+
+    private inline fun forEachAttribute(
+        node: BaseASTNode,
+        action: (String, Any?) -> Unit,
+    ) {
+        val metadata = node.nodeMetadata
+        if (metadata.customProperties) {
+            node.originalProperties.forEach {
+                if (it.propertyType != PropertyType.CONTAINMENT) {
+                    action(it.name, it.value)
+                }
+            }
+        } else {
+            metadata.originalFeatures.forEach {
+                if (!it.isContainment) {
+                    action(it.name, it.getValue(node))
+                }
+            }
+        }
+    }
+
+    /**
+     * References are compared by name, as in the structural hashes.
+     */
+    private fun comparable(value: Any?): Any? =
+        when (value) {
+            is ReferenceByName<*> -> ReferenceName(value.name)
+            is Collection<*> -> value.map { comparable(it) }
+            else -> value
+        }
+
+    private data class ReferenceName(
+        val name: String,
+    )
+
+    companion object {
+        /**
+         * @return which elements of [values] are part of a longest strictly increasing subsequence.
+         */
+        fun longestIncreasingSubsequence(values: IntArray): BooleanArray {
+            val result = BooleanArray(values.size)
+            if (values.isEmpty()) {
+                return result
+            }
+            // tails[k] is the index of the smallest last element of an increasing subsequence of length k + 1
+            val tails = IntArray(values.size)
+            val previous = IntArray(values.size)
+            var length = 0
+            for (i in values.indices) {
+                var low = 0
+                var high = length
+                while (low < high) {
+                    val middle = (low + high) ushr 1
+                    if (values[tails[middle]] < values[i]) {
+                        low = middle + 1
+                    } else {
+                        high = middle
+                    }
+                }
+                previous[i] = if (low > 0) tails[low - 1] else -1
+                tails[low] = i
+                if (low == length) {
+                    length++
+                }
+            }
+            var i = tails[length - 1]
+            while (i != -1) {
+                result[i] = true
+                i = previous[i]
+            }
+            return result
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.strumenta.kolasu.diff
+
+import com.strumenta.kolasu.model.BaseASTNode
+
+/**
+ * An action of the edit script computed by [ASTDiff], turning the source AST into the destination AST. Each action
+ * concerns a single node: inserting or deleting a whole subtree produces an action for each of its nodes.
+ */
+sealed class EditAction {
+    /**
+     * [node], which is part of the destination AST only, is inserted at [index] of the [containment] of [parent].
+     */
+    class Insert(
+        val node: BaseASTNode,
+        val parent: BaseASTNode?,
+        val containment: String?,
+        val index: Int,
+    ) : EditAction() {
+        override fun toString(): String = "Insert(${node.nodeType} in ${parent?.nodeType}.$containment[$index])"
+    }
+
+    /**
+     * [node], which is part of the source AST only, is removed.
+     */
+    class Delete(
+        val node: BaseASTNode,
+    ) : EditAction() {
+        override fun toString(): String = "Delete(${node.nodeType})"
+    }
+
+    /**
+     * The value of the attribute or reference named [feature] changes from [oldValue], in [source], to [newValue],
+     * in [destination], the node matched to [source].
+     */
+    class Update(
+        val source: BaseASTNode,
+        val destination: BaseASTNode,
+        val feature: String,
+        val oldValue: Any?,
+        val newValue: Any?,
+    ) : EditAction() {
+        override fun toString(): String = "Update(${source.nodeType}.$feature: $oldValue -> $newValue)"
+    }
+
+    /**
+     * [source] is moved to the place of [destination], the node matched to it: [index] of the [containment] of
+     * [parent], in the destination AST. The parent is null when [source] becomes the root.
+     */
+    class Move(
+        val source: BaseASTNode,
+        val destination: BaseASTNode,
+        val parent: BaseASTNode?,
+        val containment: String?,
+        val index: Int,
+    ) : EditAction() {
+        override fun toString(): String = "Move(${source.nodeType} to ${parent?.nodeType}.$containment[$index])"
+    }
+}
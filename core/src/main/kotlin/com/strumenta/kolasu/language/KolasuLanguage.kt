@@ -1,6 +1,8 @@
 package com.strumenta.kolasu.language
 
 import com.strumenta.kolasu.model.CommonElement
+import com.strumenta.kolasu.model.GeneratedMetamodels
+import com.strumenta.kolasu.model.GeneratedNodeDescriptor
 import com.strumenta.kolasu.model.Named
 import com.strumenta.kolasu.model.Node
 import com.strumenta.kolasu.model.PossiblyNamed
@@ -145,6 +147,11 @@ class KolasuLanguage(
                     tentativeAddClass(it, exceptions)
                 }
             }
+            val descriptor = GeneratedMetamodels.descriptorFor(kClass.java)
+            if (descriptor != null) {
+                addClassesUsedByFeatures(kClass, descriptor, exceptions)
+                return Attempt(true, exceptions)
+            }
             kClass.nodeProperties.forEach { nodeProperty ->
                 if (nodeProperty.isContainment()) {
                     tentativeAddClass(nodeProperty.containedType(), exceptions)
@@ -176,6 +183,36 @@ class KolasuLanguage(
         }
     }
 
+    private fun addClassesUsedByFeatures(
+        kClass: KClass<*>,
+        descriptor: GeneratedNodeDescriptor,
+        exceptions: MutableList<Exception>,
+    ) {
+        val features =
+            try {
+                descriptor.languageFeatures
+            } catch (e: Exception) {
+                exceptions.add(RuntimeException("Issue while examining the features of kotlin class $kClass", e))
+                return
+            }
+        features.forEach { feature ->
+            when (feature) {
+                is Containment -> tentativeAddClass(feature.type as KClass<out Node>, exceptions)
+                is Reference -> tentativeAddClass(feature.type as KClass<out Node>, exceptions)
+                is Attribute -> {
+                    val attributeKClass = feature.type.classifier as? KClass<*>
+                    if (attributeKClass != null) {
+                        if (attributeKClass.java.isEnum) {
+                            addEnumClass(attributeKClass as KClass<out Enum<*>>)
+                        } else {
+                            addPrimitiveClass(attributeKClass)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     fun findASTClass(name: String): KClass<*>? = astClasses.find { it.simpleName == name }
 
     fun findEnumClass(name: String): KClass<out Enum<*>>? = enumClasses.find { it.simpleName == name }
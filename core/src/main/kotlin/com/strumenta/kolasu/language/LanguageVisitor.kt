@@ -0,0 +1,158 @@
+package com.strumenta.kolasu.language
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.NodeTypeDescriptor
+import com.strumenta.kolasu.traversing.FrozenAst
+import java.lang.reflect.Modifier
+import kotlin.reflect.KClass
+
+/**
+ * Dispatches the nodes of a language to a handler registered for their class or for one of its supertypes,
+ * returning the result of the handler.
+ *
+ * When the visitor is built, the handler of each concrete AST class of the [KolasuLanguage] is resolved and stored in
+ * a table indexed by the [NodeTypeDescriptor.id] of the class, so visiting a node only takes an array lookup, instead
+ * of a chain of instanceof checks. The handler of a class is the one registered for the nearest supertype: the class
+ * itself, then its direct superclass and interfaces, and so on, the superclass coming first at the same distance.
+ * When no supertype has a handler, the one given to [Builder.otherwise] is used.
+ *
+ * Nodes of classes not part of the language are still dispatched correctly, resolving their handler the first time
+ * they are met.
+ */
+class LanguageVisitor<R> private constructor(
+    private val handlers: Map<Class<*>, (Node) -> R>,
+    private val fallback: (Node) -> R,
+    nodeClasses: Collection<Class<*>>,
+) {
+    private class Entry<R>(
+        val nodeClass: Class<*>,
+        val handler: (Node) -> R,
+    )
+
+    private val table: Array<Entry<R>?>
+
+    private val resolved =
+        object : ClassValue<(Node) -> R>() {
+            override fun computeValue(type: Class<*>): (Node) -> R = resolve(type)
+        }
+
+    init {
+        val concreteClasses =
+            nodeClasses.filter { !it.isInterface && !Modifier.isAbstract(it.modifiers) }
+        val ids = concreteClasses.map { NodeTypeDescriptor.of(it).id }
+        @Suppress("UNCHECKED_CAST")
+        val table = arrayOfNulls<Entry<*>>((ids.maxOrNull() ?: -1) + 1) as Array<Entry<R>?>
+        concreteClasses.forEachIndexed { i, nodeClass ->
+            table[ids[i]] = Entry(nodeClass, resolve(nodeClass))
+        }
+        this.table = table
+    }
+
+    /**
+     * @return the result of the handler for the class of [node].
+     */
+    fun visit(node: Node): R = handlerFor(node.javaClass, node.nodeTypeId)(node)
+
+    /**
+     * @return the result of the handler for the node with the given index in [ast], using the type id recorded in
+     * the snapshot.
+     */
+    fun visit(
+        ast: FrozenAst,
+        index: Int,
+    ): R {
+        val node = ast.node(index)
+        return handlerFor(node.javaClass, ast.typeId(index))(node)
+    }
+
+    /**
+     * @return the results of the handlers for all the nodes of [ast], in the order of the snapshot.
+     */
+    fun visitAll(ast: FrozenAst): List<R> = List(ast.size) { visit(ast, it) }
+
+    /**
+     * @return the handler that would be used for the nodes of [nodeClass].
+     */
+    fun handlerFor(nodeClass: Class<*>): (Node) -> R = resolved.get(nodeClass)
+
+    private fun handlerFor(
+        nodeClass: Class<*>,
+        typeId: Int,
+    ): (Node) -> R {
+        // The id may also belong to a class not in the language, or to a custom node type
+        val entry = if (typeId < table.size) table[typeId] else null
+        return if (entry != null && entry.nodeClass === nodeClass) entry.handler else resolved.get(nodeClass)
+    }
+
+    private fun resolve(nodeClass: Class<*>): (Node) -> R {
+        val visited = HashSet<Class<*>>()
+        val toVisit = ArrayDeque<Class<*>>()
+        toVisit.add(nodeClass)
+        while (toVisit.isNotEmpty()) {
+            val current = toVisit.removeFirst()
+            if (visited.add(current)) {
+                handlers[current]?.let { return it }
+                current.superclass?.let { toVisit.add(it) }
+                toVisit.addAll(current.interfaces)
+            }
+        }
+        return fallback
+    }
+
+    /**
+     * Registers the handlers of a [LanguageVisitor]. The table of the visitor is built for the AST classes of
+     * [language], if given, and for the classes with a handler.
+     */
+    class Builder<R>
+        @JvmOverloads
+        constructor(
+            private val language: KolasuLanguage? = null,
+        ) {
+            private val handlers = LinkedHashMap<Class<*>, (Node) -> R>()
+            private var fallback: (Node) -> R = { node ->
+                throw UnsupportedOperationException("No handler for nodes of type ${node.nodeType}")
+            }
+
+            /**
+             * Registers the handler for the nodes of [nodeClass] and of its subclasses, unless they have a handler
+             * of their own or a nearer supertype has one.
+             */
+            @Suppress("UNCHECKED_CAST")
+            fun <N : Any> on(
+                nodeClass: Class<N>,
+                handler: (N) -> R,
+            ): Builder<R> {
+                handlers[nodeClass] = handler as (Node) -> R
+                return this
+            }
+
+            fun <N : Any> on(
+                nodeClass: KClass<N>,
+                handler: (N) -> R,
+            ): Builder<R> = on(nodeClass.java, handler)
+
+            inline fun <reified N : Any> on(noinline handler: (N) -> R): Builder<R> = on(N::class.java, handler)
+
+            /**
+             * Sets the handler for the nodes whose class has no supertype with a handler. By default, an
+             * [UnsupportedOperationException] is thrown.
+             */
+            fun otherwise(handler: (Node) -> R): Builder<R> {
+                fallback = handler
+                return this
+            }
+
+            fun build(): LanguageVisitor<R> {
+                val nodeClasses = LinkedHashSet<Class<*>>()
+                language?.astClasses?.forEach { nodeClasses.add(it.java) }
+                nodeClasses.addAll(handlers.keys)
+                return LanguageVisitor(LinkedHashMap(handlers), fallback, nodeClasses)
+            }
+        }
+}
+
+/**
+ * Builds a [LanguageVisitor] for the AST classes of this language.
+ */
+fun <R> KolasuLanguage.visitor(init: LanguageVisitor.Builder<R>.() -> Unit): LanguageVisitor<R> =
+    LanguageVisitor.Builder<R>(this).apply(init).build()
@@ -3,6 +3,7 @@ package com.strumenta.kolasu.model
 import com.strumenta.kolasu.language.Attribute
 import com.strumenta.kolasu.language.Containment
 import com.strumenta.kolasu.language.Reference
+import com.strumenta.kolasu.traversing.NodeTypeIndex
 import com.strumenta.kolasu.traversing.walk
 import io.lionweb.model.AnnotationInstance
 import java.io.Serializable
@@ -23,8 +24,12 @@ open class BaseASTNode() :
     Serializable,
     HasID,
     ASTNode {
+    /**
+     * The annotations attached to this node. The list holding them is allocated when the first annotation is added.
+     */
     @Internal
-    val annotations = mutableListOf<AnnotationInstance>()
+    val annotations: MutableList<AnnotationInstance>
+        get() = extras?.annotations ?: AnnotationsView()
 
     @Internal
     override var id: String? = null
@@ -44,11 +49,34 @@ open class BaseASTNode() :
 
     @Internal
     open val nodeType: String
-        get() = this::class.qualifiedName!!
+        get() = NodeTypeDescriptor.of(this.javaClass).qualifiedName
 
     @Internal
     open val simpleNodeType: String
-        get() = nodeType.split(".").last()
+        get() = nodeTypeDescriptor.simpleName
+
+    /**
+     * The descriptor of the type of this node, holding its qualified name, its simple name, and an integer id
+     * which can be used as a cheap key for the type.
+     */
+    @property:Internal
+    val nodeTypeDescriptor: NodeTypeDescriptor
+        get() = NodeTypeDescriptor.of(this)
+
+    /**
+     * The id of the type of this node. See [NodeTypeDescriptor.id].
+     */
+    @property:Internal
+    val nodeTypeId: Int
+        get() = nodeTypeDescriptor.id
+
+    /**
+     * The metadata describing the features of this node. It is computed once per class and shared by all
+     * the nodes of that class. Subclasses which compute their features in a different way can override it.
+     */
+    @property:Internal
+    open val nodeMetadata: NodeMetadata
+        get() = NodeMetadata.of(this.javaClass)
 
     /**
      * The properties of this AST nodes, including attributes, children, and references.
@@ -57,7 +85,7 @@ open class BaseASTNode() :
     open val properties: List<PropertyDescription>
         get() =
             try {
-                nodeProperties.map { PropertyDescription.buildFor(it, this) }
+                nodeMetadata.features.map { it.describe(this) }
             } catch (e: Throwable) {
                 throw RuntimeException("Issue while getting properties of node ${this::class.qualifiedName}", e)
             }
@@ -70,11 +98,161 @@ open class BaseASTNode() :
     open val originalProperties: List<PropertyDescription>
         get() =
             try {
-                properties.filter { !it.derived }
+                val metadata = nodeMetadata
+                if (metadata.customProperties) {
+                    properties.filter { !it.derived }
+                } else {
+                    metadata.originalFeatures.map { it.describe(this) }
+                }
             } catch (e: Throwable) {
                 throw RuntimeException("Issue while getting properties of node ${this::class.qualifiedName}", e)
             }
 
+    /**
+     * Invokes [action] on each direct child of this node, in the same order as [children]. The children are
+     * read straight from the containments of the node, and from the attributes which may hold nodes (see
+     * [NodeMetadata.childFeatures]): no [PropertyDescription] and no intermediate list are built, so this is the
+     * preferred way to traverse large ASTs.
+     */
+    fun forEachChild(action: (BaseASTNode) -> Unit) {
+        val metadata = nodeMetadata
+        if (metadata.customProperties) {
+            originalProperties.forEach { forEachNodeIn(it.value, action) }
+            return
+        }
+        val descriptor = metadata.descriptor
+        if (descriptor != null && metadata.childrenInContainmentsOnly) {
+            descriptor.forEachChild(this, action)
+            return
+        }
+        val childFeatures = metadata.childFeatures
+        for (i in childFeatures.indices) {
+            forEachNodeIn(childFeatures[i].getValue(this), action)
+        }
+    }
+
+    /**
+     * The number of direct children of this node.
+     */
+    @property:Internal
+    val childCount: Int
+        get() {
+            var count = 0
+            forEachChild { count++ }
+            return count
+        }
+
+    /**
+     * @return the direct child of this node at the given [index], considering the children in the same order as
+     * [forEachChild].
+     * @throws IndexOutOfBoundsException if there is no such child.
+     */
+    fun childAt(index: Int): BaseASTNode {
+        if (index < 0) {
+            throw IndexOutOfBoundsException("Index $index is negative")
+        }
+        var remaining = index
+        var result: BaseASTNode? = null
+        val metadata = nodeMetadata
+        if (metadata.customProperties || (metadata.descriptor != null && metadata.childrenInContainmentsOnly)) {
+            forEachChild {
+                if (remaining == 0) {
+                    result = it
+                }
+                remaining--
+            }
+        } else {
+            val childFeatures = metadata.childFeatures
+            for (i in childFeatures.indices) {
+                val value = childFeatures[i].getValue(this)
+                when {
+                    value is BaseASTNode -> {
+                        if (remaining == 0) {
+                            return value
+                        }
+                        remaining--
+                    }
+
+                    value is List<*> && value is RandomAccess -> {
+                        for (j in value.indices) {
+                            val element = value[j]
+                            if (element is BaseASTNode) {
+                                if (remaining == 0) {
+                                    return element
+                                }
+                                remaining--
+                            }
+                        }
+                    }
+
+                    value is Collection<*> -> {
+                        for (element in value) {
+                            if (element is BaseASTNode) {
+                                if (remaining == 0) {
+                                    return element
+                                }
+                                remaining--
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result ?: throw IndexOutOfBoundsException("Node ${this.nodeType} has no child at index $index")
+    }
+
+    /**
+     * Like [forEachChild], but also passes to [action] the containment holding each child and the index of the
+     * child in it. The containment is null when it cannot be determined cheaply, e.g., for children held in sets or
+     * for classes computing their own properties.
+     */
+    internal fun forEachChildInContainment(
+        action: (child: BaseASTNode, containment: FeatureMetadata?, index: Int) -> Unit,
+    ) {
+        val metadata = nodeMetadata
+        if (metadata.customProperties) {
+            forEachChild { action(it, null, -1) }
+            return
+        }
+        val childFeatures = metadata.childFeatures
+        for (i in childFeatures.indices) {
+            val containment = childFeatures[i]
+            val value = containment.getValue(this)
+            when {
+                value is BaseASTNode -> action(value, containment, 0)
+                value is List<*> && value is RandomAccess -> {
+                    for (j in value.indices) {
+                        val element = value[j]
+                        if (element is BaseASTNode) {
+                            action(element, containment, j)
+                        }
+                    }
+                }
+
+                value is Collection<*> -> value.forEach { if (it is BaseASTNode) action(it, null, -1) }
+            }
+        }
+    }
+
+    private fun forEachNodeIn(
+        value: Any?,
+        action: (BaseASTNode) -> Unit,
+    ) {
+        when {
+            value is BaseASTNode -> action(value)
+            value is List<*> && value is RandomAccess -> {
+                for (j in value.indices) {
+                    val element = value[j]
+                    if (element is BaseASTNode) {
+                        action(element)
+                    }
+                }
+            }
+
+            value is Collection<*> -> value.forEach { if (it is BaseASTNode) action(it) }
+        }
+    }
+
     /**
      * The node from which this AST Node has been generated, if any.
      */
@@ -86,6 +264,36 @@ open class BaseASTNode() :
      */
     @property:Internal
     var parent: BaseASTNode? = null
+        set(value) {
+            if (value !== field) {
+                containmentInParent = null
+                indexInContainmentOfParent = -1
+            }
+            field = value
+        }
+
+    /**
+     * The containment of the parent holding this node, and the index of this node in it. They are recorded by
+     * assignParents and by the functions modifying the tree, so that this node can be located in its parent in
+     * constant time. They are reset whenever the parent changes.
+     */
+    @Transient
+    private var containmentInParent: FeatureMetadata? = null
+
+    @Transient
+    private var indexInContainmentOfParent: Int = -1
+
+    internal fun recordContainment(
+        containment: FeatureMetadata?,
+        index: Int,
+    ) {
+        containmentInParent = containment
+        indexInContainmentOfParent = if (containment == null) -1 else index
+    }
+
+    internal fun recordedContainment(): FeatureMetadata? = containmentInParent
+
+    internal fun recordedIndexInContainment(): Int = indexInContainmentOfParent
 
     /**
      * The position of this node in the source text.
@@ -99,13 +307,29 @@ open class BaseASTNode() :
             this.positionOverride = position
         }
 
-    private var explicitlySetSource: Source? = null
+    /**
+     * The information which most nodes do not need: it is allocated only when some of it is set, to reduce
+     * the memory used by large ASTs.
+     */
+    private var extras: NodeExtras? = null
+
+    private fun extras(): NodeExtras = extras ?: NodeExtras().also { extras = it }
+
+    internal fun attachedNodeTypeIndex(): NodeTypeIndex? = extras?.nodeTypeIndex
+
+    internal fun attachNodeTypeIndex(index: NodeTypeIndex?) {
+        if (index != null || extras != null) {
+            extras().nodeTypeIndex = index
+        }
+    }
 
     @property:Internal
     override var source: Source?
-        get() = explicitlySetSource ?: (position?.source ?: origin?.source)
+        get() = extras?.explicitlySetSource ?: (position?.source ?: origin?.source)
         set(value) {
-            explicitlySetSource = value
+            if (value != null || extras != null) {
+                extras().explicitlySetSource = value
+            }
             if (value == null) {
                 require(this.source == null)
             } else {
@@ -165,7 +389,13 @@ open class BaseASTNode() :
         get() = origin?.sourceText
 
     @Internal
-    var destination: Destination? = null
+    var destination: Destination?
+        get() = extras?.destination
+        set(value) {
+            if (value != null || extras != null) {
+                extras().destination = value
+            }
+        }
 
     /**
      * This must be final because otherwise data classes extending this will automatically generate
@@ -185,16 +415,26 @@ open class BaseASTNode() :
         includeDerived: Boolean = false,
     ): List<Node> {
         checkFeatureName(propertyName)
-        val property =
-            (if (includeDerived) properties else originalProperties)
-                .find { it.name == propertyName }
-        require(property != null) {
-            "Property $propertyName not found in node of type ${this.nodeType} " +
-                "(considering derived properties? $includeDerived)"
-        }
-        return when (
-            val rawValue = property!!.value
-        ) {
+        val metadata = nodeMetadata
+        val rawValue =
+            if (metadata.customProperties) {
+                val property =
+                    (if (includeDerived) properties else originalProperties)
+                        .find { it.name == propertyName }
+                require(property != null) {
+                    "Property $propertyName not found in node of type ${this.nodeType} " +
+                        "(considering derived properties? $includeDerived)"
+                }
+                property!!.value
+            } else {
+                val feature = metadata.feature(propertyName)?.takeIf { includeDerived || !it.derived }
+                require(feature != null) {
+                    "Property $propertyName not found in node of type ${this.nodeType} " +
+                        "(considering derived properties? $includeDerived)"
+                }
+                feature!!.getValue(this)
+            }
+        return when (rawValue) {
             null -> {
                 emptyList()
             }
@@ -212,7 +452,7 @@ open class BaseASTNode() :
     fun getReference(reference: Reference): ReferenceByName<*>? = getReference(reference.name)
 
     fun getReference(name: String): ReferenceByName<*>? {
-        val rawValue = properties.find { it.name == name }!!.value
+        val rawValue = featureValue(name)
         if (rawValue == null) {
             return null
         }
@@ -234,13 +474,70 @@ open class BaseASTNode() :
         return value
     }
 
-    fun getAttributeValue(name: String): Any? = properties.find { it.name == name }!!.value
+    fun getAttributeValue(name: String): Any? = featureValue(name)
+
+    private fun featureValue(name: String): Any? {
+        val metadata = nodeMetadata
+        return if (metadata.customProperties) {
+            properties.find { it.name == name }!!.value
+        } else {
+            metadata.feature(name)!!.getValue(this)
+        }
+    }
 
     fun addAnnotation(instance: AnnotationInstance): Boolean {
         if (this.annotations.contains(instance)) {
             return false
         }
-        this.annotations.add(instance)
+        annotationList().add(instance)
         return true
     }
+
+    fun removeAnnotation(instance: AnnotationInstance): Boolean = extras?.annotations?.remove(instance) ?: false
+
+    private fun annotationList(): MutableList<AnnotationInstance> {
+        val extras = extras()
+        return extras.annotations ?: mutableListOf<AnnotationInstance>().also { extras.annotations = it }
+    }
+
+    /**
+     * The annotations of a node which has none yet: the list holding them is allocated by the first addition.
+     */
+    private inner class AnnotationsView : AbstractMutableList<AnnotationInstance>() {
+        private val list: MutableList<AnnotationInstance>?
+            get() = extras?.annotations
+
+        override val size: Int
+            get() = list?.size ?: 0
+
+        override fun get(index: Int): AnnotationInstance = list?.get(index) ?: throw outOfBounds(index)
+
+        override fun add(
+            index: Int,
+            element: AnnotationInstance,
+        ) {
+            annotationList().add(index, element)
+        }
+
+        override fun removeAt(index: Int): AnnotationInstance = list?.removeAt(index) ?: throw outOfBounds(index)
+
+        override fun set(
+            index: Int,
+            element: AnnotationInstance,
+        ): AnnotationInstance = list?.set(index, element) ?: throw outOfBounds(index)
+
+        private fun outOfBounds(index: Int) = IndexOutOfBoundsException("Index: $index, Size: $size")
+    }
+}
+
+/**
+ * The rarely used information of a [BaseASTNode].
+ */
+private class NodeExtras : Serializable {
+    var annotations: MutableList<AnnotationInstance>? = null
+    var explicitlySetSource: Source? = null
+    var destination: Destination? = null
+
+    @Transient
+    var nodeTypeIndex: NodeTypeIndex? = null
 }
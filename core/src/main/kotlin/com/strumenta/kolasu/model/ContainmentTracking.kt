@@ -0,0 +1,157 @@
+package com.strumenta.kolasu.model
+
+/**
+ * [Node.assignParents] and the functions modifying the tree (e.g., [Node.replaceWith], [Node.removeFromList])
+ * record, for each node, the containment of the parent holding it and its index in that containment. This permits
+ * to answer [Node.containingProperty], [Node.indexInContainingProperty], [Node.nextSibling] and similar questions
+ * in constant time.
+ *
+ * When the tree is modified directly, without going through those functions, the recorded slots may become stale.
+ * Stale slots are always detected through a constant-time check: by default the position of the node is then
+ * recomputed by scanning the parent. In validation mode, instead, an [IllegalStateException] is thrown, so that
+ * untracked modifications can be spotted.
+ */
+object ContainmentTracking {
+    @JvmStatic
+    @Volatile
+    var validationMode: Boolean = false
+}
+
+/**
+ * @return the nodes in this subtree (including this node) whose recorded containment does not correspond to their
+ * actual position in the parent anymore. Nodes without a recorded containment are not considered.
+ */
+fun Node.staleContainmentSlots(): List<Node> {
+    val stale = mutableListOf<Node>()
+    val stack = mutableListOf(this)
+    while (stack.isNotEmpty()) {
+        val node = stack.removeAt(stack.size - 1)
+        val parent = node.parent
+        val containment = node.recordedContainment()
+        if (parent != null &&
+            containment != null &&
+            !node.isAt(parent, containment, node.recordedIndexInContainment())
+        ) {
+            stale.add(node)
+        }
+        node.forEachChild { stack.add(it) }
+    }
+    return stale
+}
+
+/**
+ * @return the recorded containment of this node, if it is still accurate, or null if there is none.
+ * @throws IllegalStateException in validation mode, if the recorded containment is stale.
+ */
+internal fun Node.validContainmentSlot(): FeatureMetadata? {
+    val parent = this.parent ?: return null
+    val containment = recordedContainment() ?: return null
+    if (isAt(parent, containment, recordedIndexInContainment())) {
+        return containment
+    }
+    if (ContainmentTracking.validationMode) {
+        throw IllegalStateException(
+            "The recorded containment of ${this.nodeType} is stale: the tree has been modified without " +
+                "going through the tree-mutation functions. Call assignParents() to record it again.",
+        )
+    }
+    return null
+}
+
+/**
+ * @return the containment of the parent holding this node, recording it together with the index of this node.
+ * Null is returned when the containment cannot be found among the features holding the children of the parent
+ * or the node is held in a collection which is not a list.
+ */
+internal fun Node.locateInParent(): FeatureMetadata? {
+    val parent = this.parent ?: return null
+    var found: FeatureMetadata? = null
+    var foundIndex = -1
+    parent.forEachChildInContainment { child, containment, index ->
+        if (found == null && child === this && containment != null) {
+            found = containment
+            foundIndex = index
+        }
+    }
+    recordContainment(found, foundIndex)
+    return found
+}
+
+/**
+ * @return the containment of the parent holding this node, using the recorded one when it is still accurate.
+ */
+internal fun Node.containmentInParent(): FeatureMetadata? = validContainmentSlot() ?: locateInParent()
+
+private fun Node.isAt(
+    parent: Node,
+    containment: FeatureMetadata,
+    index: Int,
+): Boolean =
+    when (val value = containment.getValue(parent)) {
+        is List<*> -> index >= 0 && index < value.size && value[index] === this
+        else -> index == 0 && value === this
+    }
+
+/**
+ * @return the first node held by [containment] in [parent] at position [from] or after it. Following containments
+ * are considered when needed.
+ */
+internal fun firstChildFrom(
+    parent: Node,
+    containment: FeatureMetadata,
+    from: Int,
+): Node? {
+    val containments = parent.nodeMetadata.childFeatures
+    val first = containments.indexOf(containment)
+    require(first != -1) { "${containment.name} does not hold children of ${parent.nodeType}" }
+    var start = from
+    for (i in first until containments.size) {
+        when (val value = containments[i].getValue(parent)) {
+            is Node -> if (start == 0) return value
+            is List<*> -> {
+                for (j in start until value.size) {
+                    val element = value[j]
+                    if (element is Node) {
+                        return element
+                    }
+                }
+            }
+
+            is Collection<*> -> value.firstOrNull { it is Node }?.let { return it as Node }
+        }
+        start = 0
+    }
+    return null
+}
+
+/**
+ * @return the last node held by [containment] in [parent] before position [before]. Preceding containments
+ * are considered when needed.
+ */
+internal fun lastChildBefore(
+    parent: Node,
+    containment: FeatureMetadata,
+    before: Int,
+): Node? {
+    val containments = parent.nodeMetadata.childFeatures
+    val last = containments.indexOf(containment)
+    require(last != -1) { "${containment.name} does not hold children of ${parent.nodeType}" }
+    var end = before
+    for (i in last downTo 0) {
+        when (val value = containments[i].getValue(parent)) {
+            is Node -> if (end > 0) return value
+            is List<*> -> {
+                for (j in minOf(end, value.size) - 1 downTo 0) {
+                    val element = value[j]
+                    if (element is Node) {
+                        return element
+                    }
+                }
+            }
+
+            is Collection<*> -> value.lastOrNull { it is Node }?.let { return it as Node }
+        }
+        end = Int.MAX_VALUE
+    }
+    return null
+}
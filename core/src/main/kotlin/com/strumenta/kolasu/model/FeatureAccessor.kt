@@ -0,0 +1,108 @@
+package com.strumenta.kolasu.model
+
+import java.lang.invoke.LambdaMetafactory
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import kotlin.reflect.KProperty1
+import kotlin.reflect.jvm.javaField
+import kotlin.reflect.jvm.javaGetter
+
+/**
+ * Reads the value of a feature from a node.
+ *
+ * Accessors are bound once per feature (see [FeatureAccessors]) so that reading a value does not go through
+ * Kotlin or Java reflection.
+ */
+fun interface FeatureAccessor {
+    fun get(node: Any): Any?
+}
+
+/**
+ * Builds [FeatureAccessor]s for getters and fields.
+ *
+ * When possible, we spin a class implementing [FeatureAccessor] through [LambdaMetafactory], so that reading
+ * a feature costs as much as calling the getter directly. When that is not possible (e.g., because the
+ * class is not accessible from here) we fall back to a [MethodHandle] and, as a last resort, to reflection.
+ */
+object FeatureAccessors {
+    private val lookup = MethodHandles.lookup()
+    private val accessorType = MethodType.methodType(Any::class.java, Any::class.java)
+
+    @JvmStatic
+    fun forProperty(property: KProperty1<*, *>): FeatureAccessor {
+        val getter = property.javaGetter
+        if (getter != null) {
+            return forGetter(getter)
+        }
+        val field = property.javaField
+        if (field != null && !Modifier.isStatic(field.modifiers)) {
+            return forField(field)
+        }
+        @Suppress("UNCHECKED_CAST")
+        val anyProperty = property as KProperty1<Any, *>
+        return FeatureAccessor { node -> anyProperty.get(node) }
+    }
+
+    @JvmStatic
+    fun forGetter(getter: Method): FeatureAccessor {
+        require(getter.parameterCount == 0 && !Modifier.isStatic(getter.modifiers)) {
+            "$getter is not a getter"
+        }
+        return try {
+            val ownerLookup = MethodHandles.privateLookupIn(getter.declaringClass, lookup)
+            val handle = ownerLookup.unreflect(getter)
+            try {
+                lambdaAccessor(ownerLookup, handle, getter.declaringClass, getter.returnType)
+            } catch (e: Throwable) {
+                MethodHandleAccessor(handle)
+            }
+        } catch (e: IllegalAccessException) {
+            reflectiveAccessor(getter)
+        }
+    }
+
+    @JvmStatic
+    fun forField(field: Field): FeatureAccessor =
+        try {
+            val ownerLookup = MethodHandles.privateLookupIn(field.declaringClass, lookup)
+            MethodHandleAccessor(ownerLookup.unreflectGetter(field))
+        } catch (e: IllegalAccessException) {
+            field.isAccessible = true
+            FeatureAccessor { node -> field.get(node) }
+        }
+
+    private fun lambdaAccessor(
+        ownerLookup: MethodHandles.Lookup,
+        handle: MethodHandle,
+        owner: Class<*>,
+        returnType: Class<*>,
+    ): FeatureAccessor {
+        val callSite =
+            LambdaMetafactory.metafactory(
+                ownerLookup,
+                "get",
+                MethodType.methodType(FeatureAccessor::class.java),
+                accessorType,
+                handle,
+                MethodType.methodType(MethodType.methodType(returnType).wrap().returnType(), owner),
+            )
+        return callSite.target.invoke() as FeatureAccessor
+    }
+
+    private fun reflectiveAccessor(getter: Method): FeatureAccessor {
+        getter.isAccessible = true
+        return FeatureAccessor { node -> getter.invoke(node) }
+    }
+
+    private class MethodHandleAccessor(
+        handle: MethodHandle,
+    ) : FeatureAccessor {
+        private val handle = handle.asType(accessorType)
+
+        override fun get(node: Any): Any? = handle.invoke(node)
+    }
+}
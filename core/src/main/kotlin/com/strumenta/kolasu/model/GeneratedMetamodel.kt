@@ -0,0 +1,111 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.language.Feature
+import java.util.ServiceLoader
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A metamodel generated at build time for the node classes of a module, typically by the
+ * codegen-ksp symbol processor.
+ *
+ * Generated metamodels are discovered through [ServiceLoader] or registered explicitly through
+ * [GeneratedMetamodels.register]. When the metamodel of a class is available, Kolasu uses it instead of
+ * computing the features of that class through reflection.
+ */
+interface GeneratedMetamodel {
+    val descriptors: List<GeneratedNodeDescriptor>
+}
+
+/**
+ * The static description of a node class, generated at build time.
+ */
+interface GeneratedNodeDescriptor {
+    val nodeClass: Class<*>
+
+    /**
+     * All the features of the class, including inherited and derived ones, in declaration order: the properties
+     * declared by the class come first, followed by the inherited ones.
+     */
+    val features: List<FeatureMetadata>
+
+    /**
+     * The features of the class, expressed as [Feature]s. They include inherited and derived features, except for
+     * the derived properties which cannot be expressed as features, such as collections of attributes.
+     */
+    val languageFeatures: List<Feature>
+
+    /**
+     * The names of the features inherited from supertypes which are nodes.
+     */
+    val inheritedFeatureNames: Set<String>
+
+    /**
+     * Whether the class is annotated with [ASTRoot].
+     */
+    val astRoot: Boolean
+
+    /**
+     * The names of the parameters of the primary constructor, or null if the class cannot be
+     * instantiated through [factory].
+     */
+    val constructorParameters: List<String>?
+
+    /**
+     * Invokes the primary constructor, passing the arguments in the order of [constructorParameters]; null if the
+     * class cannot be instantiated, e.g., because it is abstract or its constructor is not accessible.
+     */
+    val factory: ((arguments: List<Any?>) -> BaseASTNode)?
+
+    /**
+     * Invokes [action] on each child of [node] contained in a non-derived containment.
+     */
+    fun forEachChild(
+        node: BaseASTNode,
+        action: (BaseASTNode) -> Unit,
+    )
+
+    /**
+     * @return the features declared by the class, i.e., not inherited from its supertypes.
+     */
+    fun declaredFeatures(includeDerived: Boolean = false): List<Feature> {
+        val derived = features.filter { it.derived }.map { it.name }.toSet()
+        return languageFeatures.filter {
+            it.name !in inheritedFeatureNames && (includeDerived || it.name !in derived)
+        }
+    }
+}
+
+/**
+ * The registry of the generated metamodels.
+ */
+object GeneratedMetamodels {
+    private val descriptors = ConcurrentHashMap<Class<*>, GeneratedNodeDescriptor>()
+    private val scannedClassLoaders = WeakHashMap<ClassLoader, Boolean>()
+
+    /**
+     * Registers all the descriptors of the given metamodel, replacing any existing descriptor for the same classes.
+     */
+    @JvmStatic
+    fun register(metamodel: GeneratedMetamodel) {
+        metamodel.descriptors.forEach { descriptors[it.nodeClass] = it }
+    }
+
+    /**
+     * @return the generated descriptor for [nodeClass], or null if none is available.
+     */
+    @JvmStatic
+    fun descriptorFor(nodeClass: Class<*>): GeneratedNodeDescriptor? {
+        val classLoader = nodeClass.classLoader ?: return null
+        scan(classLoader)
+        return descriptors[nodeClass]
+    }
+
+    private fun scan(classLoader: ClassLoader) {
+        synchronized(scannedClassLoaders) {
+            if (scannedClassLoaders.put(classLoader, true) == null) {
+                ServiceLoader.load(GeneratedMetamodel::class.java, classLoader).forEach { register(it) }
+            }
+        }
+    }
+}
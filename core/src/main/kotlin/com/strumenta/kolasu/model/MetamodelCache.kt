@@ -0,0 +1,95 @@
+package com.strumenta.kolasu.model
+
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.atomic.LongAdder
+import kotlin.reflect.KClass
+
+/**
+ * The information about a class which is computed through reflection and kept in the [MetamodelCache].
+ */
+enum class MetamodelInformation {
+    DECLARED_FEATURES,
+    DECLARED_FEATURES_INCLUDING_DERIVED,
+    ALL_FEATURES,
+    INHERITED_FEATURE_NAMES,
+    IS_A_NODE,
+    IS_MARKED_AS_NODE_TYPE,
+}
+
+data class MetamodelCacheStatistics(
+    val hits: Long,
+    val misses: Long,
+) {
+    val requests: Long
+        get() = hits + misses
+
+    val hitRate: Double
+        get() = if (requests == 0L) 0.0 else hits.toDouble() / requests
+}
+
+/**
+ * Caches the information computed through reflection by [declaredFeatures], [allFeatures], [isInherited], [isANode]
+ * and [isMarkedAsNodeType].
+ *
+ * The entries are attached to the classes through a [ClassValue], so the cache does not prevent classes from being
+ * unloaded, and it can be used from multiple threads. When the same information is requested concurrently it may be
+ * computed more than once, but all threads get the same value.
+ */
+object MetamodelCache {
+    private val informationCount = MetamodelInformation.entries.size
+
+    private val entries =
+        object : ClassValue<AtomicReferenceArray<Any>>() {
+            override fun computeValue(type: Class<*>): AtomicReferenceArray<Any> =
+                AtomicReferenceArray(informationCount)
+        }
+
+    private val hits = Array(informationCount) { LongAdder() }
+    private val misses = Array(informationCount) { LongAdder() }
+
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T : Any> get(
+        kClass: KClass<*>,
+        information: MetamodelInformation,
+        compute: () -> T,
+    ): T {
+        val values = entries.get(kClass.java)
+        val index = information.ordinal
+        val cached = values.get(index)
+        if (cached != null) {
+            hits[index].increment()
+            return cached as T
+        }
+        misses[index].increment()
+        val computed = compute()
+        return if (values.compareAndSet(index, null, computed)) computed else values.get(index) as T
+    }
+
+    /**
+     * Discards the information cached for the given class.
+     */
+    @JvmStatic
+    fun invalidate(kClass: KClass<*>) {
+        entries.remove(kClass.java)
+    }
+
+    /**
+     * @return the number of hits and misses, considering all kinds of information.
+     */
+    @JvmStatic
+    fun statistics(): MetamodelCacheStatistics =
+        MetamodelCacheStatistics(hits.sumOf { it.sum() }, misses.sumOf { it.sum() })
+
+    /**
+     * @return the number of hits and misses for the given kind of information.
+     */
+    @JvmStatic
+    fun statistics(information: MetamodelInformation): MetamodelCacheStatistics =
+        MetamodelCacheStatistics(hits[information.ordinal].sum(), misses[information.ordinal].sum())
+
+    @JvmStatic
+    fun resetStatistics() {
+        hits.forEach { it.reset() }
+        misses.forEach { it.reset() }
+    }
+}
@@ -0,0 +1,203 @@
+package com.strumenta.kolasu.model
+
+import kotlin.reflect.KClass
+import kotlin.reflect.KProperty1
+import kotlin.reflect.KType
+import kotlin.reflect.full.findAnnotation
+
+/**
+ * The description of a single feature (attribute, containment, or reference) of a node class.
+ * Everything but the value is computed once per class, while the value is obtained from a specific node
+ * through [getValue], using an [accessor] bound once to the getter of the feature.
+ */
+class FeatureMetadata(
+    val name: String,
+    val propertyType: PropertyType,
+    val multiplicity: Multiplicity,
+    val derived: Boolean,
+    val provideNodes: Boolean,
+    val accessor: FeatureAccessor,
+    typeProvider: () -> KType,
+) {
+    constructor(
+        name: String,
+        propertyType: PropertyType,
+        multiplicity: Multiplicity,
+        derived: Boolean,
+        type: KType,
+        provideNodes: Boolean,
+        accessor: FeatureAccessor,
+    ) : this(name, propertyType, multiplicity, derived, provideNodes, accessor, { type })
+
+    /**
+     * The type of the feature. It is computed lazily, as building a KType may require loading Kotlin
+     * reflection metadata, which is not needed to navigate the AST.
+     */
+    val type: KType by lazy(typeProvider)
+
+    val isAttribute: Boolean
+        get() = propertyType == PropertyType.ATTRIBUTE
+
+    val isContainment: Boolean
+        get() = propertyType == PropertyType.CONTAINMENT
+
+    val isReference: Boolean
+        get() = propertyType == PropertyType.REFERENCE
+
+    val multiple: Boolean
+        get() = multiplicity == Multiplicity.MANY
+
+    fun getValue(node: BaseASTNode): Any? = accessor.get(node)
+
+    fun describe(node: BaseASTNode): PropertyDescription =
+        PropertyDescription(
+            name = name,
+            provideNodes = provideNodes,
+            multiplicity = multiplicity,
+            value = getValue(node),
+            propertyType = propertyType,
+            derived = derived,
+            type = type,
+        )
+
+    override fun toString(): String = "FeatureMetadata($name, $propertyType, $multiplicity, derived=$derived)"
+
+    companion object {
+        /**
+         * Builds the metadata of a Kotlin property, considered as a feature of a node class.
+         */
+        fun buildFor(property: KProperty1<*, *>): FeatureMetadata {
+            @Suppress("UNCHECKED_CAST")
+            val nodeProperty = property as KProperty1<BaseASTNode, *>
+            val provideNodes = PropertyDescription.providesNodes(nodeProperty)
+            val isReference = nodeProperty.isReference()
+            return FeatureMetadata(
+                name = property.name,
+                propertyType =
+                    when {
+                        isReference -> PropertyType.REFERENCE
+                        provideNodes -> PropertyType.CONTAINMENT
+                        else -> PropertyType.ATTRIBUTE
+                    },
+                multiplicity = PropertyDescription.multiplicity(nodeProperty),
+                derived = property.findAnnotation<Derived>() != null,
+                type =
+                    if (isReference) {
+                        property.returnType.arguments[0].type!!
+                    } else {
+                        property.returnType
+                    },
+                provideNodes = provideNodes,
+                accessor = FeatureAccessors.forProperty(property),
+            )
+        }
+    }
+}
+
+/**
+ * The immutable description of the features of a node class: its attributes, containments, and references.
+ *
+ * The metadata is computed the first time it is requested for a given class and then shared by all the nodes of
+ * that class, from any thread. It is taken from the [GeneratedMetamodel] of the class, when one is available, or
+ * computed through reflection otherwise. Use [NodeMetadata.of] to obtain it, or [BaseASTNode.nodeMetadata]
+ * for a specific node.
+ */
+class NodeMetadata(
+    val nodeClass: Class<*>,
+    val features: List<FeatureMetadata>,
+    /**
+     * True when the node class overrides [BaseASTNode.properties] or [BaseASTNode.originalProperties] to
+     * compute its own set of features. In that case the features are not known at the class level, [features]
+     * is empty, and the properties of each node should be used instead.
+     */
+    val customProperties: Boolean = false,
+    /**
+     * The descriptor generated at build time for the node class, if any.
+     */
+    val descriptor: GeneratedNodeDescriptor? = null,
+) {
+    val originalFeatures: List<FeatureMetadata> = features.filter { !it.derived }
+    val derivedFeatures: List<FeatureMetadata> = features.filter { it.derived }
+    val attributes: List<FeatureMetadata> = features.filter { it.isAttribute }
+    val containments: List<FeatureMetadata> = features.filter { it.isContainment }
+    val references: List<FeatureMetadata> = features.filter { it.isReference }
+    val originalContainments: List<FeatureMetadata> = containments.filter { !it.derived }
+
+    /**
+     * The non-derived features whose values may hold the children of a node, in the order of [features]: the
+     * containments, and the attributes whose type does not exclude nodes, such as `Any` or `List<Any>`. The nodes
+     * held by such attributes are considered children, like the ones held by containments.
+     */
+    val childFeatures: List<FeatureMetadata> by lazy {
+        originalFeatures.filter { it.isContainment || (it.isAttribute && mayHoldNodes(it.type)) }
+    }
+
+    /**
+     * True when the children of a node are only held by its containments, i.e., [childFeatures] contains no
+     * attributes.
+     */
+    val childrenInContainmentsOnly: Boolean
+        get() = childFeatures.size == originalContainments.size
+
+    private val featuresByName: Map<String, FeatureMetadata> = features.associateBy { it.name }
+
+    /**
+     * @return the feature with the given name, or null if there is no such feature.
+     */
+    fun feature(name: String): FeatureMetadata? = featuresByName[name]
+
+    override fun toString(): String = "NodeMetadata(${nodeClass.name}, features=$features)"
+
+    companion object {
+        private val registry =
+            object : ClassValue<NodeMetadata>() {
+                override fun computeValue(type: Class<*>): NodeMetadata = buildFor(type)
+            }
+
+        /**
+         * @return the metadata for the given class, computing it if this is the first request for that class.
+         */
+        @JvmStatic
+        fun of(nodeClass: Class<*>): NodeMetadata = registry.get(nodeClass)
+
+        /**
+         * @return the metadata for the given class, computing it if this is the first request for that class.
+         */
+        fun of(nodeClass: KClass<*>): NodeMetadata = of(nodeClass.java)
+
+        private fun buildFor(nodeClass: Class<*>): NodeMetadata {
+            if (hasCustomProperties(nodeClass)) {
+                return NodeMetadata(nodeClass, emptyList(), customProperties = true)
+            }
+            val descriptor = GeneratedMetamodels.descriptorFor(nodeClass)
+            return if (descriptor != null) {
+                NodeMetadata(nodeClass, descriptor.features, descriptor = descriptor)
+            } else {
+                NodeMetadata(nodeClass, nodeClass.kotlin.nodeProperties.map { FeatureMetadata.buildFor(it) })
+            }
+        }
+
+        private fun mayHoldNodes(type: KType): Boolean {
+            val classifier = type.classifier as? KClass<*> ?: return true
+            return when {
+                classifier.java.isAssignableFrom(BaseASTNode::class.java) -> true
+                Collection::class.java.isAssignableFrom(classifier.java) -> {
+                    val elementClassifier = type.arguments.firstOrNull()?.type?.classifier
+                    elementClassifier !is KClass<*> || elementClassifier.java.isAssignableFrom(BaseASTNode::class.java)
+                }
+                else -> false
+            }
+        }
+
+        /**
+         * @return true if the given class overrides [BaseASTNode.properties] or [BaseASTNode.originalProperties].
+         */
+        @JvmStatic
+        fun hasCustomProperties(nodeClass: Class<*>): Boolean =
+            BaseASTNode::class.java.isAssignableFrom(nodeClass) &&
+                (
+                    nodeClass.getMethod("getProperties").declaringClass != BaseASTNode::class.java ||
+                        nodeClass.getMethod("getOriginalProperties").declaringClass != BaseASTNode::class.java
+                )
+    }
+}
@@ -0,0 +1,97 @@
+package com.strumenta.kolasu.model
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.reflect.KClass
+
+/**
+ * The name of a node type, together with a small integer identifying it.
+ *
+ * There is a single descriptor for each qualified name, so descriptors can be compared by identity, and their
+ * names are interned. The [id]s are assigned in the order in which types are first seen, starting from zero, and they
+ * are valid only within the current JVM: they should be used as keys in memory, e.g., in indexes or lookup tables,
+ * but never persisted.
+ */
+class NodeTypeDescriptor private constructor(
+    val qualifiedName: String,
+    val simpleName: String,
+    val id: Int,
+) {
+    override fun toString(): String = "NodeTypeDescriptor($qualifiedName, id=$id)"
+
+    companion object {
+        private val descriptorsByName = ConcurrentHashMap<String, NodeTypeDescriptor>()
+        private val descriptorsById = CopyOnWriteArrayList<NodeTypeDescriptor>()
+
+        private class ClassEntry(
+            val descriptor: NodeTypeDescriptor,
+            /**
+             * True when the class overrides [BaseASTNode.nodeType], so that the type of its nodes must be obtained
+             * from each node.
+             */
+            val customNodeType: Boolean,
+        )
+
+        private val byClass =
+            object : ClassValue<ClassEntry>() {
+                override fun computeValue(type: Class<*>): ClassEntry =
+                    ClassEntry(
+                        named(type.kotlin.qualifiedName ?: type.name),
+                        BaseASTNode::class.java.isAssignableFrom(type) &&
+                            type.getMethod("getNodeType").declaringClass != BaseASTNode::class.java,
+                    )
+            }
+
+        /**
+         * @return the descriptor for the given qualified name, registering it if this is the first request for it.
+         */
+        @JvmStatic
+        fun named(qualifiedName: String): NodeTypeDescriptor =
+            descriptorsByName[qualifiedName] ?: synchronized(descriptorsById) {
+                descriptorsByName.getOrPut(qualifiedName) {
+                    val descriptor =
+                        NodeTypeDescriptor(
+                            qualifiedName.intern(),
+                            qualifiedName.substringAfterLast('.').intern(),
+                            descriptorsById.size,
+                        )
+                    descriptorsById.add(descriptor)
+                    descriptor
+                }
+            }
+
+        /**
+         * @return the descriptor for the given class.
+         */
+        @JvmStatic
+        fun of(nodeClass: Class<*>): NodeTypeDescriptor = byClass.get(nodeClass).descriptor
+
+        /**
+         * @return the descriptor for the given class.
+         */
+        fun of(nodeClass: KClass<*>): NodeTypeDescriptor = of(nodeClass.java)
+
+        /**
+         * @return the descriptor for the type of the given node, which is usually the one of its class, unless
+         * the class overrides [BaseASTNode.nodeType].
+         */
+        @JvmStatic
+        fun of(node: BaseASTNode): NodeTypeDescriptor {
+            val entry = byClass.get(node.javaClass)
+            return if (entry.customNodeType) named(node.nodeType) else entry.descriptor
+        }
+
+        /**
+         * @return the descriptor with the given id, or null if no type has been registered with that id.
+         */
+        @JvmStatic
+        fun byId(id: Int): NodeTypeDescriptor? = descriptorsById.getOrNull(id)
+
+        /**
+         * The number of descriptors registered so far. All ids are lower than this number.
+         */
+        @JvmStatic
+        val count: Int
+            get() = descriptorsById.size
+    }
+}
@@ -0,0 +1,162 @@
+package com.strumenta.kolasu.model
+
+import java.util.ArrayDeque
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveTask
+
+/**
+ * The default number of nodes a task visits before handing part of its pending subtrees to other tasks.
+ */
+const val DEFAULT_PARALLEL_PROCESSING_THRESHOLD = 4096
+
+/**
+ * A visit of all the nodes of an AST, executed concurrently on independent subtrees using fork/join.
+ *
+ * Each task visits its subtrees with an explicit stack, accumulating the results in its own accumulator, created
+ * by [createAccumulator]. After having visited [threshold] nodes, when it has more than one pending subtree, a task
+ * forks half of them to a new task. When the forked tasks are joined, their accumulators are combined with [merge],
+ * always passing first the accumulator of the nodes coming first in pre-order: [merge] must therefore be
+ * associative, but it need not be commutative.
+ *
+ * The nodes are visited concurrently, so [visit] should not modify the tree nor depend on the order of the visit.
+ */
+abstract class ParallelVisitor<A>
+    @JvmOverloads
+    constructor(
+        val threshold: Int = DEFAULT_PARALLEL_PROCESSING_THRESHOLD,
+        val pool: ForkJoinPool = ForkJoinPool.commonPool(),
+    ) {
+        init {
+            require(threshold > 0) { "The threshold should be positive" }
+        }
+
+        abstract fun createAccumulator(): A
+
+        /**
+         * Visits a single node, returning the updated accumulator.
+         */
+        abstract fun visit(
+            node: Node,
+            accumulator: A,
+        ): A
+
+        /**
+         * Combines the accumulators of two consecutive groups of nodes.
+         */
+        abstract fun merge(
+            first: A,
+            second: A,
+        ): A
+
+        /**
+         * Visits [root] and all its descendants, returning the combination of the accumulators of all the tasks.
+         */
+        fun visitTree(root: Node): A = pool.invoke(ParallelVisitTask(listOf(root), this))
+    }
+
+/**
+ * Recursively executes [operation] on this node and all nodes below it, like [processNodes], processing independent
+ * subtrees concurrently. See [ParallelVisitor].
+ */
+@JvmOverloads
+fun Node.parallelProcessNodes(
+    operation: (Node) -> Unit,
+    threshold: Int = DEFAULT_PARALLEL_PROCESSING_THRESHOLD,
+    pool: ForkJoinPool = ForkJoinPool.commonPool(),
+) {
+    object : ParallelVisitor<Unit>(threshold, pool) {
+        override fun createAccumulator() = Unit
+
+        override fun visit(
+            node: Node,
+            accumulator: Unit,
+        ) = operation(node)
+
+        override fun merge(
+            first: Unit,
+            second: Unit,
+        ) = Unit
+    }.visitTree(this)
+}
+
+/**
+ * Recursively executes [operation] on this node and all nodes below it that extend [klass], like
+ * [processNodesOfType], processing independent subtrees concurrently. See [ParallelVisitor].
+ */
+@JvmOverloads
+fun <T> Node.parallelProcessNodesOfType(
+    klass: Class<T>,
+    operation: (T) -> Unit,
+    threshold: Int = DEFAULT_PARALLEL_PROCESSING_THRESHOLD,
+    pool: ForkJoinPool = ForkJoinPool.commonPool(),
+) {
+    parallelProcessNodes({ if (klass.isInstance(it)) operation(klass.cast(it)) }, threshold, pool)
+}
+
+/**
+ * Collects the results of [operation] on this node and all nodes below it, in pre-order, processing
+ * independent subtrees concurrently. Nodes for which [operation] returns null are skipped. See [ParallelVisitor].
+ */
+@JvmOverloads
+fun <R : Any> Node.parallelCollect(
+    operation: (Node) -> R?,
+    threshold: Int = DEFAULT_PARALLEL_PROCESSING_THRESHOLD,
+    pool: ForkJoinPool = ForkJoinPool.commonPool(),
+): List<R> =
+    object : ParallelVisitor<MutableList<R>>(threshold, pool) {
+        override fun createAccumulator(): MutableList<R> = mutableListOf()
+
+        override fun visit(
+            node: Node,
+            accumulator: MutableList<R>,
+        ): MutableList<R> {
+            operation(node)?.let { accumulator.add(it) }
+            return accumulator
+        }
+
+        override fun merge(
+            first: MutableList<R>,
+            second: MutableList<R>,
+        ): MutableList<R> {
+            first.addAll(second)
+            return first
+        }
+    }.visitTree(this)
+
+private class ParallelVisitTask<A>(
+    private val roots: List<Node>,
+    private val visitor: ParallelVisitor<A>,
+) : RecursiveTask<A>() {
+    override fun compute(): A {
+        val stack = ArrayDeque<Node>(roots)
+        val forked = mutableListOf<ForkJoinTask<A>>()
+        val childNodes = ArrayList<Node>()
+        var accumulator = visitor.createAccumulator()
+        var processed = 0
+        while (stack.isNotEmpty()) {
+            if (processed >= visitor.threshold && stack.size > 1) {
+                // The nodes at the bottom of the stack come last in pre-order, and they are likely to have
+                // the largest subtrees
+                val handedOver = ArrayList<Node>(stack.size / 2)
+                repeat(stack.size / 2) { handedOver.add(stack.removeLast()) }
+                handedOver.reverse()
+                forked.add(ParallelVisitTask(handedOver, visitor).fork())
+                processed = 0
+            }
+            val node = stack.pop()
+            accumulator = visitor.visit(node, accumulator)
+            node.forEachChild { childNodes.add(it) }
+            for (i in childNodes.size - 1 downTo 0) {
+                stack.push(childNodes[i])
+            }
+            childNodes.clear()
+            processed++
+        }
+        // Each task is forked from what remains of the stack, so it precedes the tasks forked before it
+        for (i in forked.size - 1 downTo 0) {
+            accumulator = visitor.merge(accumulator, forked[i].join())
+        }
+        return accumulator
+    }
+}
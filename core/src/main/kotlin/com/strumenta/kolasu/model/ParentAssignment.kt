@@ -0,0 +1,89 @@
+package com.strumenta.kolasu.model
+
+import java.util.ArrayDeque
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+
+/**
+ * The default number of nodes a task processes before handing part of its pending subtrees to other tasks.
+ */
+const val DEFAULT_PARALLEL_ASSIGNMENT_THRESHOLD = 4096
+
+/**
+ * Assigns the parents of all the nodes of an AST (see [Node.assignParents]).
+ */
+fun interface ParentAssigner {
+    fun assignParents(root: Node)
+}
+
+/**
+ * Assigns the parents visiting the tree on the current thread.
+ */
+object SequentialParentAssigner : ParentAssigner {
+    override fun assignParents(root: Node) {
+        root.assignParents()
+    }
+}
+
+/**
+ * Assigns the parents processing independent subtrees concurrently, on the given [pool].
+ * See [Node.assignParentsInParallel].
+ */
+class ParallelParentAssigner
+    @JvmOverloads
+    constructor(
+        val threshold: Int = DEFAULT_PARALLEL_ASSIGNMENT_THRESHOLD,
+        val pool: ForkJoinPool = ForkJoinPool.commonPool(),
+    ) : ParentAssigner {
+        init {
+            require(threshold > 0) { "The threshold should be positive" }
+        }
+
+        override fun assignParents(root: Node) {
+            root.assignParentsInParallel(threshold, pool)
+        }
+    }
+
+/**
+ * Sets or corrects the parent of all AST nodes, like [assignParents], processing independent subtrees
+ * concurrently using fork/join.
+ *
+ * Each task visits its subtrees with an explicit stack. After having processed [threshold] nodes, when it has more
+ * than one pending subtree, a task forks half of them to a new task. Small trees are therefore processed by
+ * a single task, without any synchronization overhead.
+ *
+ * No other thread should modify the tree while parents are being assigned.
+ */
+@JvmOverloads
+fun Node.assignParentsInParallel(
+    threshold: Int = DEFAULT_PARALLEL_ASSIGNMENT_THRESHOLD,
+    pool: ForkJoinPool = ForkJoinPool.commonPool(),
+) {
+    require(threshold > 0) { "The threshold should be positive" }
+    pool.invoke(AssignParentsTask(listOf(this), threshold))
+}
+
+private class AssignParentsTask(
+    private val roots: List<Node>,
+    private val threshold: Int,
+) : RecursiveAction() {
+    override fun compute() {
+        val stack = ArrayDeque<Node>(roots)
+        val forked = mutableListOf<ForkJoinTask<Void>>()
+        var processed = 0
+        while (stack.isNotEmpty()) {
+            if (processed >= threshold && stack.size > 1) {
+                // The nodes at the bottom of the stack are the closest to the root of this task, so they
+                // are likely to have the largest subtrees
+                val handedOver = ArrayList<Node>(stack.size / 2)
+                repeat(stack.size / 2) { handedOver.add(stack.removeLast()) }
+                forked.add(AssignParentsTask(handedOver, threshold).fork())
+                processed = 0
+            }
+            stack.pop().assignParentToChildren { stack.push(it) }
+            processed++
+        }
+        forked.forEach { it.join() }
+    }
+}
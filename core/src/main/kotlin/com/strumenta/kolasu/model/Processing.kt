@@ -2,10 +2,12 @@
 
 package com.strumenta.kolasu.model
 
+import com.strumenta.kolasu.traversing.Stack
 import com.strumenta.kolasu.traversing.children
+import com.strumenta.kolasu.traversing.invalidateNodeTypeIndexes
+import com.strumenta.kolasu.traversing.mutableStackOf
 import com.strumenta.kolasu.traversing.searchByType
 import com.strumenta.kolasu.traversing.walk
-import com.strumenta.kolasu.traversing.walkChildren
 import java.util.IdentityHashMap
 import kotlin.reflect.KFunction1
 import kotlin.reflect.KMutableProperty
@@ -15,17 +17,33 @@ import kotlin.reflect.full.memberProperties
 import kotlin.reflect.full.primaryConstructor
 
 /**
- * Sets or corrects the parent of all AST nodes.
+ * Sets or corrects the parent of all AST nodes, recording also the containment holding each node
+ * (see [ContainmentTracking]).
  * Kolasu does not see set/add/delete operations on the AST nodes,
  * so this function should be called manually after modifying the AST.
+ *
+ * The tree is visited using an explicit stack, so arbitrarily deep trees are supported. See
+ * [assignParentsInParallel] for a variant processing independent subtrees concurrently.
  */
 fun Node.assignParents() {
-    this.walkChildren().forEach {
-        if (it == this) {
-            throw java.lang.IllegalStateException("A node cannot be parent of itself: $this")
+    val stack: Stack<Node> = mutableStackOf(this)
+    while (stack.isNotEmpty()) {
+        stack.pop().assignParentToChildren { stack.push(it) }
+    }
+}
+
+/**
+ * Sets the parent of the direct children of this node, invoking [onChild] on each of them.
+ */
+internal fun Node.assignParentToChildren(onChild: (Node) -> Unit) {
+    val node = this
+    forEachChildInContainment { child, containment, index ->
+        if (child === node) {
+            throw java.lang.IllegalStateException("A node cannot be parent of itself: $node")
         }
-        it.parent = this
-        it.assignParents()
+        child.parent = node
+        child.recordContainment(containment, index)
+        onChild(child)
     }
 }
 
@@ -164,13 +182,7 @@ fun Node.processConsideringDirectParent(
 val Node.children: List<Node>
     get() {
         val children = mutableListOf<Node>()
-        this.originalProperties.forEach { p ->
-            val v = p.value
-            when (v) {
-                is Node -> children.add(v)
-                is Collection<*> -> v.forEach { if (it is Node) children.add(it) }
-            }
-        }
+        forEachChild { children.add(it) }
         return children
     }
 
@@ -180,6 +192,11 @@ val Node.children: List<Node>
  */
 val Node.nextSibling: Node?
     get() {
+        val parent = this.parent
+        val containment = containmentInParent()
+        if (parent != null && containment != null) {
+            return firstChildFrom(parent, containment, recordedIndexInContainment() + 1)
+        }
         if (this.parent != null) {
             val siblings = this.parent!!.children
             val index = siblings.indexOf(this)
@@ -194,6 +211,11 @@ val Node.nextSibling: Node?
  */
 val Node.previousSibling: Node?
     get() {
+        val parent = this.parent
+        val containment = containmentInParent()
+        if (parent != null && containment != null) {
+            return lastChildBefore(parent, containment, recordedIndexInContainment())
+        }
         if (this.parent != null) {
             val siblings = this.parent!!.children
             val index = siblings.indexOf(this)
@@ -207,6 +229,12 @@ val Node.previousSibling: Node?
  */
 val Node.nextSamePropertySibling: Node?
     get() {
+        val parent = this.parent
+        val containment = containmentInParent()
+        if (parent != null && containment != null) {
+            val siblings = containment.getValue(parent) as? List<*> ?: return null
+            return siblings.getOrNull(recordedIndexInContainment() + 1) as Node?
+        }
         if (this.parent != null) {
             val siblings =
                 this.parent!!
@@ -230,6 +258,12 @@ val Node.nextSamePropertySibling: Node?
  */
 val Node.previousSamePropertySibling: Node?
     get() {
+        val parent = this.parent
+        val containment = containmentInParent()
+        if (parent != null && containment != null) {
+            val siblings = containment.getValue(parent) as? List<*> ?: return null
+            return siblings.getOrNull(recordedIndexInContainment() - 1) as Node?
+        }
         if (this.parent != null) {
             val siblings =
                 this.parent!!
@@ -255,6 +289,10 @@ fun Node.containingProperty(): PropertyDescription? {
     if (this.parent == null) {
         return null
     }
+    val containment = containmentInParent()
+    if (containment != null) {
+        return containment.describe(this.parent!!)
+    }
     return this.parent!!.properties.find { p ->
         val v = p.value
         when {
@@ -270,6 +308,9 @@ fun Node.containingProperty(): PropertyDescription? {
  * The index is always 0 for Nodes in singular containment properties.
  */
 fun Node.indexInContainingProperty(): Int? {
+    if (this.parent != null && containmentInParent() != null) {
+        return recordedIndexInContainment()
+    }
     val p = this.containingProperty()
     return if (p == null) {
         null
@@ -361,6 +402,8 @@ fun Node.transformChildren(operation: (Node) -> Node) {
                     if (property is KMutableProperty<*>) {
                         property.setter.call(this, newValue)
                         newValue.parent = this
+                        recordContainmentOf(newValue, property.name, 0)
+                        invalidateNodeTypeIndexes()
                     } else {
                         throw ImmutablePropertyException(property, this)
                     }
@@ -377,6 +420,8 @@ fun Node.transformChildren(operation: (Node) -> Node) {
                                 if (value is MutableList<*>) {
                                     (value as MutableList<Node>)[i] = newValue
                                     newValue.parent = this
+                                    recordContainmentOf(newValue, property.name, i)
+                                    invalidateNodeTypeIndexes()
                                 } else {
                                     throw ImmutablePropertyException(property, element)
                                 }
@@ -454,10 +499,12 @@ fun Node.replaceWithSeveral(
     oldNode: Node,
     newNodes: List<Node>,
 ) {
-    findMutableListContainingChild(oldNode) { nodeList, index ->
+    findMutableListContainingChild(oldNode) { nodeList, propertyName, index ->
         nodeList.replaceWithSeveral(index, newNodes)
         oldNode.parent = null
         newNodes.forEach { node -> node.parent = this }
+        recordContainmentsOf(nodeList, propertyName, index)
+        invalidateNodeTypeIndexes()
     }
 }
 
@@ -467,9 +514,11 @@ fun Node.replaceWithSeveral(
  * When not found, an [IllegalStateException] is thrown.
  */
 fun Node.removeFromList(targetNode: Node) {
-    findMutableListContainingChild(targetNode) { nodeList, index ->
+    findMutableListContainingChild(targetNode) { nodeList, propertyName, index ->
         nodeList.removeAt(index)
         targetNode.parent = null
+        recordContainmentsOf(nodeList, propertyName, index)
+        invalidateNodeTypeIndexes()
     }
 }
 
@@ -482,9 +531,11 @@ fun Node.addSeveralBefore(
     targetNode: Node,
     newNodes: List<Node>,
 ) {
-    findMutableListContainingChild(targetNode) { nodeList, index ->
+    findMutableListContainingChild(targetNode) { nodeList, propertyName, index ->
         nodeList.addSeveralBefore(index, newNodes)
         newNodes.forEach { node -> node.parent = this }
+        recordContainmentsOf(nodeList, propertyName, index)
+        invalidateNodeTypeIndexes()
     }
 }
 
@@ -497,9 +548,11 @@ fun Node.addSeveralAfter(
     targetNode: Node,
     newNodes: List<Node>,
 ) {
-    findMutableListContainingChild(targetNode) { nodeList, index ->
+    findMutableListContainingChild(targetNode) { nodeList, propertyName, index ->
         nodeList.addSeveralAfter(index, newNodes)
         newNodes.forEach { node -> node.parent = this }
+        recordContainmentsOf(nodeList, propertyName, index + 1)
+        invalidateNodeTypeIndexes()
     }
 }
 
@@ -509,15 +562,23 @@ fun Node.addSeveralAfter(
 @Suppress("UNCHECKED_CAST") // assumption: a MutableList with a Node in it is a MutableList<Node>
 private fun Node.findMutableListContainingChild(
     targetNode: Node,
-    whenFoundDo: (nodeList: MutableList<Node>, index: Int) -> Unit,
+    whenFoundDo: (nodeList: MutableList<Node>, propertyName: String, index: Int) -> Unit,
 ) {
+    if (targetNode.parent === this) {
+        val containment = targetNode.validContainmentSlot()
+        val value = containment?.getValue(this)
+        if (containment != null && value is MutableList<*>) {
+            whenFoundDo(value as MutableList<Node>, containment.name, targetNode.recordedIndexInContainment())
+            return
+        }
+    }
     relevantMemberProperties().forEach { property ->
         when (val value = property.get(this)) {
             is MutableList<*> -> {
                 for (i in 0 until value.size) {
                     // We want to find a particular child, not just one which is equal to it
                     if (value[i] === targetNode) {
-                        whenFoundDo(value as MutableList<Node>, i)
+                        whenFoundDo(value as MutableList<Node>, property.name, i)
                         return
                     }
                 }
@@ -527,6 +588,34 @@ private fun Node.findMutableListContainingChild(
     throw IllegalStateException("Did not find $targetNode in any MutableList in $this.")
 }
 
+/**
+ * Records the containment of [child], held by the property named [propertyName] of [this] node, at [index].
+ */
+private fun Node.recordContainmentOf(
+    child: Node,
+    propertyName: String,
+    index: Int,
+) {
+    child.recordContainment(nodeMetadata.feature(propertyName)?.takeIf { it.isContainment && !it.derived }, index)
+}
+
+/**
+ * Records the containment of the children of [this] node in [nodeList], starting at [from], as their indexes
+ * may have changed.
+ */
+private fun Node.recordContainmentsOf(
+    nodeList: List<Node>,
+    propertyName: String,
+    from: Int,
+) {
+    for (i in from until nodeList.size) {
+        val child = nodeList[i]
+        if (child.parent === this) {
+            recordContainmentOf(child, propertyName, i)
+        }
+    }
+}
+
 /**
  * Replaces [this] node with any amount of other nodes if it is in a [MutableList].
  * <p/>Looks for [this] in the lists of nodes in the parent node.
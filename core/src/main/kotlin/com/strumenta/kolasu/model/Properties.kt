@@ -6,35 +6,55 @@ import kotlin.reflect.KVisibility
 import kotlin.reflect.full.findAnnotation
 import kotlin.reflect.full.memberProperties
 
+/**
+ * The node properties of a class, split between original and derived ones.
+ * They are computed through reflection only once per class.
+ */
+private class ClassNodeProperties(
+    val all: List<KProperty1<*, *>>,
+) {
+    val original: List<KProperty1<*, *>> = all.filter { it.findAnnotation<Derived>() == null }
+    val derived: List<KProperty1<*, *>> = all.filter { it.findAnnotation<Derived>() != null }
+}
+
+private val classNodeProperties =
+    object : ClassValue<ClassNodeProperties>() {
+        override fun computeValue(type: Class<*>): ClassNodeProperties {
+            val kClass = type.kotlin
+            return ClassNodeProperties(
+                kClass.memberProperties
+                    .asSequence()
+                    .filter { it.visibility == KVisibility.PUBLIC }
+                    .filter { it.findAnnotation<Internal>() == null }
+                    .filter { it.findAnnotation<Link>() == null }
+                    .map {
+                        require(it.name !in RESERVED_FEATURE_NAMES) {
+                            "Property ${it.name} in ${kClass.qualifiedName} should be marked as internal"
+                        }
+                        it
+                    }.toList(),
+            )
+        }
+    }
+
 val <T : Any> Class<T>.nodeProperties: Collection<KProperty1<T, *>>
     get() = this.kotlin.nodeProperties
 val <T : Any> Class<T>.nodeOriginalProperties: Collection<KProperty1<T, *>>
     get() = this.kotlin.nodeOriginalProperties
 val <T : Any> Class<T>.nodeDerivedProperties: Collection<KProperty1<T, *>>
     get() = this.kotlin.nodeDerivedProperties
+
+@Suppress("UNCHECKED_CAST")
 val <T : Any> KClass<T>.nodeProperties: Collection<KProperty1<T, *>>
-    get() =
-        memberProperties
-            .asSequence()
-            .filter { it.visibility == KVisibility.PUBLIC }
-            .filter { it.findAnnotation<Internal>() == null }
-            .filter { it.findAnnotation<Link>() == null }
-            .map {
-                require(it.name !in RESERVED_FEATURE_NAMES) {
-                    "Property ${it.name} in ${this.qualifiedName} should be marked as internal"
-                }
-                it
-            }.toList()
+    get() = classNodeProperties.get(this.java).all as Collection<KProperty1<T, *>>
 
+@Suppress("UNCHECKED_CAST")
 val <T : Any> KClass<T>.nodeOriginalProperties: Collection<KProperty1<T, *>>
-    get() =
-        nodeProperties
-            .filter { it.findAnnotation<Derived>() == null }
+    get() = classNodeProperties.get(this.java).original as Collection<KProperty1<T, *>>
 
+@Suppress("UNCHECKED_CAST")
 val <T : Any> KClass<T>.nodeDerivedProperties: Collection<KProperty1<T, *>>
-    get() =
-        nodeProperties
-            .filter { it.findAnnotation<Derived>() != null }
+    get() = classNodeProperties.get(this.java).derived as Collection<KProperty1<T, *>>
 
 /**
  * @return all properties of this node that are considered AST properties.
@@ -180,7 +180,10 @@ fun providesNodes(kclass: KClass<*>?): Boolean = kclass?.isANode() ?: false
 /**
  * @return can [this] class be considered an AST node?
  */
-fun KClass<*>.isANode(): Boolean = this.isSubclassOf(BaseASTNode::class) || this.isMarkedAsNodeType()
+fun KClass<*>.isANode(): Boolean =
+    MetamodelCache.get(this, MetamodelInformation.IS_A_NODE) {
+        this.isSubclassOf(BaseASTNode::class) || this.isMarkedAsNodeType()
+    }
 
 val KClass<*>.isConcept: Boolean
     get() = isANode() && !this.java.isInterface
@@ -192,8 +195,10 @@ val KClass<*>.isConceptInterface: Boolean
  * @return is [this] class annotated with NodeType?
  */
 fun KClass<*>.isMarkedAsNodeType(): Boolean =
-    this.annotations.any { it.annotationClass == NodeType::class } ||
-        this.superclasses.any { it.isMarkedAsNodeType() }
+    MetamodelCache.get(this, MetamodelInformation.IS_MARKED_AS_NODE_TYPE) {
+        this.annotations.any { it.annotationClass == NodeType::class } ||
+            this.superclasses.any { it.isMarkedAsNodeType() }
+    }
 
 data class PropertyTypeDescription(
     val name: String,
@@ -334,57 +339,72 @@ fun <N : Any> KProperty1<N, *>.asAttribute(): Attribute {
     return Attribute(this.name, optional, this.returnType.withNullability(false))
 }
 
-private val featuresCache = mutableMapOf<KClass<*>, List<Feature>>()
-
-fun <N : Any> KClass<N>.allFeatures(): List<Feature> {
-    val res = mutableListOf<Feature>()
-    res.addAll(declaredFeatures())
-    supertypes.mapNotNull { (it.classifier as? KClass<*>) }.forEach { supertype ->
-        res.addAll(supertype.allFeatures())
+/**
+ * The direct supertypes of this class, computed through Java reflection, so that we do not need to load Kotlin
+ * reflection metadata.
+ */
+private val KClass<*>.directSupertypes: List<KClass<*>>
+    get() = (listOfNotNull(this.java.superclass) + this.java.interfaces).map { it.kotlin }
+
+fun <N : Any> KClass<N>.allFeatures(): List<Feature> =
+    MetamodelCache.get(this, MetamodelInformation.ALL_FEATURES) {
+        val res = mutableListOf<Feature>()
+        res.addAll(declaredFeatures())
+        directSupertypes.forEach { supertype ->
+            res.addAll(supertype.allFeatures())
+        }
+        res.toList()
     }
-    return res
-}
 
-fun <N : Any> KClass<N>.isInherited(feature: Feature): Boolean {
-    this.supertypes.map { it.classifier as KClass<*> }.any { supertype ->
-        supertype.allFeatures().any { f -> f.name == feature.name }
-    }
-    return false
-}
+/**
+ * @return true if a feature with the same name is defined by one of the supertypes of this class.
+ */
+fun <N : Any> KClass<N>.isInherited(feature: Feature): Boolean =
+    feature.name in
+        MetamodelCache.get(this, MetamodelInformation.INHERITED_FEATURE_NAMES) {
+            directSupertypes.flatMap { supertype -> supertype.allFeatures().map { it.name } }.toSet()
+        }
 
-fun <N : Any> KClass<N>.declaredFeatures(includeDerived: Boolean = false): List<Feature> {
-    if (!featuresCache.containsKey(this)) {
+fun <N : Any> KClass<N>.declaredFeatures(includeDerived: Boolean = false): List<Feature> =
+    MetamodelCache.get(
+        this,
+        if (includeDerived) {
+            MetamodelInformation.DECLARED_FEATURES_INCLUDING_DERIVED
+        } else {
+            MetamodelInformation.DECLARED_FEATURES
+        },
+    ) {
+        val descriptor = GeneratedMetamodels.descriptorFor(this.java)
         // Named can be used also for things which are not Node, so we treat it as a special case
-        featuresCache[this] =
-            if (!isANode() && this != Named::class) {
-                emptyList()
-            } else {
-                val inheritedNamed =
-                    supertypes
-                        .map { (it.classifier as? KClass<*>)?.allFeatures()?.map { it.name } ?: emptyList() }
-                        .flatten()
-                        .toSet()
-                val notInheritedProps =
-                    (if (includeDerived) nodeProperties else nodeOriginalProperties)
-                        .filter { it.name !in inheritedNamed }
-                notInheritedProps.map {
-                    when {
-                        it.isAttribute() -> {
-                            it.asAttribute()
-                        }
-
-                        it.isReference() -> {
-                            it.asReference()
-                        }
-
-                        it.isContainment() -> {
-                            it.asContainment()
-                        }
-
-                        else -> throw IllegalStateException()
+        if (descriptor != null) {
+            descriptor.declaredFeatures(includeDerived)
+        } else if (!isANode() && this != Named::class) {
+            emptyList()
+        } else {
+            val inheritedNamed =
+                directSupertypes
+                    .map { it.allFeatures().map { it.name } }
+                    .flatten()
+                    .toSet()
+            val notInheritedProps =
+                (if (includeDerived) nodeProperties else nodeOriginalProperties)
+                    .filter { it.name !in inheritedNamed }
+            notInheritedProps.map {
+                when {
+                    it.isAttribute() -> {
+                        it.asAttribute()
+                    }
+
+                    it.isReference() -> {
+                        it.asReference()
+                    }
+
+                    it.isContainment() -> {
+                        it.asContainment()
                     }
+
+                    else -> throw IllegalStateException()
                 }
             }
+        }
     }
-    return featuresCache[this]!!
-}
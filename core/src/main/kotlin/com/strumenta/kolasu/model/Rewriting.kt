@@ -0,0 +1,366 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.traversing.NodeTypeIndex
+import com.strumenta.kolasu.traversing.invalidateNodeTypeIndexes
+import com.strumenta.kolasu.traversing.nodeTypeIndex
+import java.util.Collections
+import java.util.IdentityHashMap
+import kotlin.reflect.KClass
+import kotlin.reflect.KMutableProperty1
+import kotlin.reflect.KProperty1
+
+/**
+ * The default maximum number of rewrites performed by a [RewriteEngine] before assuming that its rules do not
+ * terminate.
+ */
+const val DEFAULT_MAX_REWRITES = 1_000_000
+
+/**
+ * A rule of a [RewriteEngine], applied to the nodes which are instances of [nodeClass].
+ *
+ * The rule returns null when it does not apply to a node. Otherwise, it returns either a different node, which
+ * replaces the given one in the tree, or the given node itself, to indicate that it has been modified in place.
+ */
+class RewriteRule<N : Any>(
+    val name: String,
+    val nodeClass: Class<N>,
+    private val rewrite: (N) -> Node?,
+) {
+    internal fun apply(node: Node): Node? = rewrite(nodeClass.cast(node))
+
+    override fun toString(): String = "RewriteRule($name, ${nodeClass.simpleName})"
+}
+
+/**
+ * How many times a rule has been tried and has fired during a rewrite, and the total time spent in it.
+ */
+data class RuleStatistics(
+    val name: String,
+    val attempts: Long,
+    val firings: Long,
+    val timeNanos: Long,
+)
+
+/**
+ * The outcome of [RewriteEngine.rewrite]: the root of the rewritten tree, which is different from the original one
+ * when the root itself has been replaced, together with the statistics of each rule, in the order of the rules.
+ */
+class RewriteResult(
+    val root: Node,
+    val rewrites: Int,
+    val ruleStatistics: List<RuleStatistics>,
+) {
+    override fun toString(): String = "RewriteResult(rewrites=$rewrites, ruleStatistics=$ruleStatistics)"
+}
+
+/**
+ * Rewrites an AST with a set of rules until none of them applies anymore.
+ *
+ * Instead of re-walking the whole tree until a fixpoint is reached, the engine keeps a worklist of the nodes to which
+ * some rule may apply. The worklist is seeded with the nodes of the types handled by the rules, taken from the
+ * [NodeTypeIndex] of the root (an index is built for the occasion when none is attached). Whenever a rule fires, only
+ * the affected nodes are enqueued again: the resulting node, its parent, its previous and next siblings, and the new
+ * nodes it contains. Parents and containment slots (see [ContainmentTracking]) are repaired only for the modified
+ * parts of the tree, and the indexes attached to the tree are invalidated.
+ *
+ * Nodes are taken from the end of the worklist, so the initial nodes are rewritten from the last to the first one in
+ * document order, i.e., children before their parents. When several rules apply to the same node, the one registered
+ * first fires. The rules are expected to terminate: after [maxRewrites] rewrites an [IllegalStateException] is thrown.
+ *
+ * An engine can be reused for any number of trees, also concurrently, as long as its rules do not keep state.
+ */
+class RewriteEngine private constructor(
+    val rules: List<RewriteRule<*>>,
+    val maxRewrites: Int,
+) {
+    /**
+     * The indexes of the rules applying to each node class.
+     */
+    private val rulesByClass =
+        object : ClassValue<IntArray>() {
+            override fun computeValue(type: Class<*>): IntArray =
+                rules.indices.filter { rules[it].nodeClass.isAssignableFrom(type) }.toIntArray()
+        }
+
+    /**
+     * Rewrites the tree of [root], assigning its parents first.
+     */
+    fun rewrite(root: Node): RewriteResult = Rewriting(root).execute()
+
+    private inner class Rewriting(
+        private var root: Node,
+    ) {
+        private val attempts = LongArray(rules.size)
+        private val firings = LongArray(rules.size)
+        private val times = LongArray(rules.size)
+        private val worklist = ArrayDeque<Node>()
+        private val queued: MutableSet<Node> = Collections.newSetFromMap(IdentityHashMap())
+        private val detached: MutableSet<Node> = Collections.newSetFromMap(IdentityHashMap())
+        private var rewrites = 0
+
+        fun execute(): RewriteResult {
+            root.assignParents()
+            val index = root.nodeTypeIndex ?: NodeTypeIndex(root)
+            rules.map { it.nodeClass }.distinct().forEach { nodeClass ->
+                index.nodesOfType(nodeClass).forEach { enqueue(it as Node) }
+            }
+            while (worklist.isNotEmpty()) {
+                val node = worklist.removeLast()
+                queued.remove(node)
+                if (node !in detached) {
+                    applyRules(node)
+                }
+            }
+            val statistics = rules.indices.map { RuleStatistics(rules[it].name, attempts[it], firings[it], times[it]) }
+            return RewriteResult(root, rewrites, statistics)
+        }
+
+        private fun enqueue(node: Node) {
+            if (rulesByClass.get(node.javaClass).isNotEmpty() && queued.add(node)) {
+                worklist.addLast(node)
+            }
+        }
+
+        private fun applyRules(node: Node) {
+            // Rules modifying the node in place may remove some of its children, which must then be detached
+            val previousChildren = node.children
+            for (i in rulesByClass.get(node.javaClass)) {
+                attempts[i]++
+                val start = System.nanoTime()
+                val result = rules[i].apply(node)
+                times[i] += System.nanoTime() - start
+                if (result != null) {
+                    firings[i]++
+                    rewrites++
+                    if (rewrites > maxRewrites) {
+                        throw IllegalStateException(
+                            "More than $maxRewrites rewrites have been performed: the rules may not terminate",
+                        )
+                    }
+                    rewritten(node, result, previousChildren)
+                    return
+                }
+            }
+        }
+
+        private fun rewritten(
+            node: Node,
+            result: Node,
+            previousChildren: List<Node>,
+        ) {
+            val parent = node.parent
+            val removed =
+                if (result !== node) {
+                    if (parent == null) {
+                        root = result
+                        result.parent = null
+                    } else {
+                        replaceChildByIdentity(parent, node, result)
+                    }
+                    if (node.parent === parent) {
+                        node.parent = null
+                    }
+                    listOf(node)
+                } else {
+                    detachRemovedChildren(node, previousChildren)
+                }
+            repairChildren(result)
+            // The removed nodes which have not been moved into the new subtree have left the tree
+            removed.forEach { if (it.parent == null) markDetached(it) }
+            enqueue(result)
+            if (parent != null) {
+                enqueue(parent)
+                result.previousSibling?.let { enqueue(it) }
+                result.nextSibling?.let { enqueue(it) }
+            }
+            result.invalidateNodeTypeIndexes()
+        }
+
+        /**
+         * Detaches the children that [node] held before being modified in place and does not hold anymore, so that
+         * they're not considered part of the tree and their stale containment slots are not used.
+         *
+         * @return the detached children.
+         */
+        private fun detachRemovedChildren(
+            node: Node,
+            previousChildren: List<Node>,
+        ): List<Node> {
+            if (previousChildren.isEmpty()) {
+                return emptyList()
+            }
+            val currentChildren: MutableSet<BaseASTNode> = Collections.newSetFromMap(IdentityHashMap())
+            node.forEachChild { currentChildren.add(it) }
+            val removed = ArrayList<Node>()
+            previousChildren.forEach { child ->
+                if (child !in currentChildren && child.parent === node) {
+                    child.parent = null
+                    child.recordContainment(null, -1)
+                    removed.add(child)
+                }
+            }
+            return removed
+        }
+
+        /**
+         * Marks the nodes of the subtree of [node], which has left the tree, so that they are skipped when taken from
+         * the worklist. The descendants which have been moved elsewhere, and so have a different parent, are not
+         * marked. Each node is marked once, however many times it is found in the worklist.
+         */
+        private fun markDetached(node: Node) {
+            val toMark = ArrayList<Node>()
+            toMark.add(node)
+            while (toMark.isNotEmpty()) {
+                val current = toMark.removeAt(toMark.size - 1)
+                if (detached.add(current)) {
+                    current.forEachChild { child ->
+                        if (child.parent === current) {
+                            toMark.add(child)
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes the mark of the nodes of a subtree previously detached and inserted again by a rule.
+         */
+        private fun unmarkDetached(node: Node) {
+            val toUnmark = ArrayList<Node>()
+            toUnmark.add(node)
+            while (toUnmark.isNotEmpty()) {
+                val current = toUnmark.removeAt(toUnmark.size - 1)
+                if (detached.remove(current)) {
+                    current.forEachChild { toUnmark.add(it) }
+                }
+            }
+        }
+
+        /**
+         * Sets the parent and the containment slot of the children of [node] where they are not accurate. New nodes,
+         * which have no parent yet, are visited in turn, and enqueued; subtrees moved from elsewhere in the tree
+         * already have accurate parents inside.
+         */
+        private fun repairChildren(node: Node) {
+            val toRepair = ArrayList<Node>()
+            toRepair.add(node)
+            while (toRepair.isNotEmpty()) {
+                val current = toRepair.removeAt(toRepair.size - 1)
+                current.forEachChildInContainment { child, containment, index ->
+                    val previousParent = child.parent
+                    if (previousParent !== current ||
+                        child.recordedContainment() !== containment ||
+                        child.recordedIndexInContainment() != index
+                    ) {
+                        child.parent = current
+                        child.recordContainment(containment, index)
+                    }
+                    if (child in detached) {
+                        unmarkDetached(child)
+                    }
+                    if (previousParent == null) {
+                        toRepair.add(child)
+                        enqueue(child)
+                    } else if (previousParent !== current) {
+                        enqueue(child)
+                    }
+                }
+            }
+        }
+    }
+
+    class Builder {
+        private val rules = mutableListOf<RewriteRule<*>>()
+        private var maxRewrites = DEFAULT_MAX_REWRITES
+
+        fun rule(rule: RewriteRule<*>): Builder {
+            rules.add(rule)
+            return this
+        }
+
+        fun <N : Any> rule(
+            nodeClass: Class<N>,
+            name: String = nodeClass.simpleName,
+            rewrite: (N) -> Node?,
+        ): Builder = rule(RewriteRule(name, nodeClass, rewrite))
+
+        fun <N : Any> rule(
+            nodeClass: KClass<N>,
+            name: String = nodeClass.java.simpleName,
+            rewrite: (N) -> Node?,
+        ): Builder = rule(nodeClass.java, name, rewrite)
+
+        inline fun <reified N : Any> rule(
+            name: String = N::class.java.simpleName,
+            noinline rewrite: (N) -> Node?,
+        ): Builder = rule(N::class.java, name, rewrite)
+
+        fun maxRewrites(maxRewrites: Int): Builder {
+            require(maxRewrites > 0) { "The maximum number of rewrites should be positive" }
+            this.maxRewrites = maxRewrites
+            return this
+        }
+
+        fun build(): RewriteEngine = RewriteEngine(rules.toList(), maxRewrites)
+    }
+}
+
+/**
+ * Replaces [node] with [replacement] in [parent], setting the parent and the containment slot of [replacement]. The
+ * replacement is done by identity, also when the two nodes are equal.
+ */
+@Suppress("UNCHECKED_CAST")
+internal fun replaceChildByIdentity(
+    parent: Node,
+    node: Node,
+    replacement: Node,
+) {
+    val containment = node.containmentInParent()
+    if (containment != null) {
+        val index = node.recordedIndexInContainment()
+        when (val value = containment.getValue(parent)) {
+            is MutableList<*> -> (value as MutableList<Node>)[index] = replacement
+            else -> {
+                val property = parent.nodeProperties.first { it.name == containment.name }
+                setProperty(parent, property, replacement)
+            }
+        }
+        replacement.parent = parent
+        replacement.recordContainment(containment, index)
+        return
+    }
+    // Nodes with custom properties need to go through all the properties
+    for (property in parent.nodeProperties) {
+        val value = property.get(parent)
+        if (value === node) {
+            setProperty(parent, property, replacement)
+            replacement.parent = parent
+            return
+        }
+        if (value is MutableList<*>) {
+            val index = value.indexOfFirst { it === node }
+            if (index != -1) {
+                (value as MutableList<Node>)[index] = replacement
+                replacement.parent = parent
+                return
+            }
+        }
+    }
+    throw IllegalStateException("${node.nodeType} is not held by any property of ${parent.nodeType}")
+}
+
+@Suppress("UNCHECKED_CAST")
+private fun setProperty(
+    parent: Node,
+    property: KProperty1<Node, *>,
+    value: Node,
+) {
+    (property as? KMutableProperty1<Node, Any?>)?.set(parent, value)
+        ?: throw ImmutablePropertyException(property, parent)
+}
+
+/**
+ * Rewrites the tree of this node with the rules registered in [init]. See [RewriteEngine].
+ */
+fun Node.rewrite(init: RewriteEngine.Builder.() -> Unit): RewriteResult =
+    RewriteEngine.Builder().apply(init).build().rewrite(this)
@@ -0,0 +1,277 @@
+package com.strumenta.kolasu.model
+
+import java.util.IdentityHashMap
+
+/**
+ * A 128-bit hash of an AST subtree, computed by a [StructuralHasher].
+ */
+data class StructuralHash(
+    val high: Long,
+    val low: Long,
+) {
+    /**
+     * A 64-bit version of this hash.
+     */
+    fun toLong(): Long = high xor low
+
+    override fun toString(): String = "%016x%016x".format(high, low)
+}
+
+/**
+ * Computes Merkle-style hashes of AST subtrees: the hash of a node combines its type, the values of its attributes,
+ * the hashes of its children and the names of its references, so two subtrees having the same structure and content
+ * have the same hash. Derived features and the parents are not considered; the positions of the nodes are only
+ * considered if [includePositions] is true.
+ *
+ * Attribute values of the usual types (strings, numbers, booleans, enums, and collections of them) are hashed by
+ * content, while for other types their own hashCode is used. References are hashed by name, regardless of the node
+ * they refer to, so hashing does not follow references and never recurses outside of the subtree.
+ *
+ * Equal hashes indicate equal subtrees with a very high probability, so they can be used for deduplication, as keys
+ * for caches, or to quickly tell apart different subtrees before comparing them.
+ *
+ * The tree is visited with an explicit stack, so arbitrarily deep trees are supported. When [cacheHashes] is true,
+ * the hash of each node is kept, so that hashing again a node or a tree containing it only visits the nodes not
+ * hashed yet; after modifying a subtree, call [invalidate] on the modified node. A hasher caching hashes must not be
+ * used by more than one thread at a time.
+ */
+class StructuralHasher
+    @JvmOverloads
+    constructor(
+        val includePositions: Boolean = false,
+        val cacheHashes: Boolean = false,
+    ) {
+        private val cache = IdentityHashMap<BaseASTNode, StructuralHash>()
+
+        /**
+         * @return the hash of the subtree of [node].
+         */
+        fun hash(node: BaseASTNode): StructuralHash {
+            cache[node]?.let { return it }
+            val hashes = if (cacheHashes) cache else IdentityHashMap()
+            val stack = ArrayList<BaseASTNode>()
+            val expanded = ArrayList<Boolean>()
+            stack.add(node)
+            expanded.add(false)
+            while (stack.isNotEmpty()) {
+                val last = stack.size - 1
+                val current = stack[last]
+                if (expanded[last]) {
+                    stack.removeAt(last)
+                    expanded.removeAt(last)
+                    hashes[current] = hashNode(current, hashes)
+                } else if (hashes.containsKey(current)) {
+                    stack.removeAt(last)
+                    expanded.removeAt(last)
+                } else {
+                    expanded[last] = true
+                    current.forEachChild { child ->
+                        if (!hashes.containsKey(child)) {
+                            stack.add(child)
+                            expanded.add(false)
+                        }
+                    }
+                }
+            }
+            return hashes[node]!!
+        }
+
+        /**
+         * @return a 64-bit version of the hash of the subtree of [node].
+         */
+        fun hash64(node: BaseASTNode): Long = hash(node).toLong()
+
+        /**
+         * @return true if the two subtrees have the same hash, which means that they are equal with a very high
+         * probability.
+         */
+        fun haveSameHash(
+            first: BaseASTNode,
+            second: BaseASTNode,
+        ): Boolean = hash(first) == hash(second)
+
+        /**
+         * Removes from the cache the hashes of [node] and of its ancestors, after the subtree of [node] has been
+         * modified. This requires the parents to be assigned.
+         */
+        fun invalidate(node: BaseASTNode) {
+            var current: BaseASTNode? = node
+            while (current != null) {
+                cache.remove(current)
+                current = current.parent
+            }
+        }
+
+        fun clearCache() {
+            cache.clear()
+        }
+
+        /**
+         * Computes the hash of [node], given the hashes of its children.
+         */
+        private fun hashNode(
+            node: BaseASTNode,
+            hashes: Map<BaseASTNode, StructuralHash>,
+        ): StructuralHash {
+            val accumulator = Accumulator()
+            accumulator.add(node.nodeType)
+            if (includePositions) {
+                val position = node.position
+                if (position == null) {
+                    accumulator.add(NULL_TAG)
+                } else {
+                    accumulator.add(position.start.line.toLong())
+                    accumulator.add(position.start.column.toLong())
+                    accumulator.add(position.end.line.toLong())
+                    accumulator.add(position.end.column.toLong())
+                }
+            }
+            val metadata = node.nodeMetadata
+            if (metadata.customProperties) {
+                node.originalProperties.forEach { property ->
+                    addFeature(accumulator, property.name, property.propertyType, property.value, hashes)
+                }
+            } else {
+                metadata.originalFeatures.forEach { feature ->
+                    addFeature(accumulator, feature.name, feature.propertyType, feature.getValue(node), hashes)
+                }
+            }
+            return accumulator.finish()
+        }
+
+        private fun addFeature(
+            accumulator: Accumulator,
+            name: String,
+            propertyType: PropertyType,
+            value: Any?,
+            hashes: Map<BaseASTNode, StructuralHash>,
+        ) {
+            accumulator.add(name)
+            when (propertyType) {
+                PropertyType.CONTAINMENT -> addChildren(accumulator, value, hashes)
+                PropertyType.REFERENCE -> addReferences(accumulator, value)
+                PropertyType.ATTRIBUTE -> addValue(accumulator, value)
+            }
+        }
+
+        private fun addChildren(
+            accumulator: Accumulator,
+            value: Any?,
+            hashes: Map<BaseASTNode, StructuralHash>,
+        ) {
+            when (value) {
+                is BaseASTNode -> accumulator.add(hashes[value]!!)
+                is Collection<*> -> {
+                    accumulator.add(value.size.toLong())
+                    value.forEach {
+                        if (it is BaseASTNode) accumulator.add(hashes[it]!!) else addValue(accumulator, it)
+                    }
+                }
+                else -> addValue(accumulator, value)
+            }
+        }
+
+        private fun addReferences(
+            accumulator: Accumulator,
+            value: Any?,
+        ) {
+            when (value) {
+                is ReferenceByName<*> -> accumulator.add(value.name)
+                is Collection<*> -> {
+                    accumulator.add(value.size.toLong())
+                    value.forEach { addReferences(accumulator, it) }
+                }
+                else -> addValue(accumulator, value)
+            }
+        }
+
+        private fun addValue(
+            accumulator: Accumulator,
+            value: Any?,
+        ) {
+            when (value) {
+                null -> accumulator.add(NULL_TAG)
+                is String -> accumulator.add(value)
+                is Boolean -> accumulator.add(if (value) 1L else 0L)
+                is Char -> accumulator.add(value.code.toLong())
+                is Double -> accumulator.add(java.lang.Double.doubleToLongBits(value))
+                is Float -> accumulator.add(java.lang.Float.floatToIntBits(value).toLong())
+                is Number -> accumulator.add(value.toLong())
+                is Enum<*> -> {
+                    accumulator.add(value.declaringJavaClass.name)
+                    accumulator.add(value.name)
+                }
+                is ReferenceByName<*> -> accumulator.add(value.name)
+                is Collection<*> -> {
+                    accumulator.add(value.size.toLong())
+                    value.forEach { addValue(accumulator, it) }
+                }
+                else -> accumulator.add(value.hashCode().toLong())
+            }
+        }
+
+        /**
+         * Combines values into a 128-bit hash, using two 64-bit lanes mixed with the finalizer of MurmurHash3.
+         */
+        private class Accumulator {
+            private var h1 = SEED_1
+            private var h2 = SEED_2
+
+            fun add(value: Long) {
+                val k = mix(value)
+                h1 = java.lang.Long.rotateLeft(h1 xor k, 27) * MULTIPLIER_1 + h2
+                h2 = java.lang.Long.rotateLeft(h2 xor mix(k + MULTIPLIER_2), 31) * MULTIPLIER_2 + h1
+            }
+
+            fun add(value: String) {
+                add(value.length.toLong())
+                var i = 0
+                // Four characters at a time
+                while (i + 4 <= value.length) {
+                    add(
+                        value[i].code.toLong() or
+                            (value[i + 1].code.toLong() shl 16) or
+                            (value[i + 2].code.toLong() shl 32) or
+                            (value[i + 3].code.toLong() shl 48),
+                    )
+                    i += 4
+                }
+                while (i < value.length) {
+                    add(value[i].code.toLong())
+                    i++
+                }
+            }
+
+            fun add(hash: StructuralHash) {
+                add(hash.high)
+                add(hash.low)
+            }
+
+            fun finish(): StructuralHash = StructuralHash(mix(h1 + h2), mix(h2 + 2 * h1))
+
+            private fun mix(value: Long): Long {
+                var k = value
+                k = k xor (k ushr 33)
+                k *= -0xae502812aa7333L
+                k = k xor (k ushr 33)
+                k *= -0x3b314601e57a13adL
+                k = k xor (k ushr 33)
+                return k
+            }
+        }
+
+        private companion object {
+            const val NULL_TAG = 0x6e756c6cL
+            const val SEED_1 = 0x3c6ef372fe94f82bL
+            const val SEED_2 = -0x5ab00ac5a4b2a3c1L
+            const val MULTIPLIER_1 = -0x783c846eeebdac2bL
+            const val MULTIPLIER_2 = 0x4cf5ad432745937fL
+        }
+    }
+
+/**
+ * @return the structural hash of the subtree of this node. See [StructuralHasher].
+ */
+@JvmOverloads
+fun BaseASTNode.structuralHash(includePositions: Boolean = false): StructuralHash =
+    StructuralHasher(includePositions).hash(this)
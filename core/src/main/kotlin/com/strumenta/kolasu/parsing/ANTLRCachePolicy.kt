@@ -0,0 +1,164 @@
+package com.strumenta.kolasu.parsing
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryNotificationInfo
+import java.lang.management.MemoryType
+import java.time.Duration
+import javax.management.Notification
+import javax.management.NotificationEmitter
+import javax.management.NotificationListener
+
+/**
+ * Decides when a [KolasuParser] replaces its [ANTLRCaches] with empty ones. Large caches make parsing faster but use
+ * memory, and after replacing them parsing is slower until the new ones warm up, so each policy strikes a different
+ * balance between the two.
+ *
+ * The policy is consulted at the start of each first-stage parsing operation, possibly by several threads at the same
+ * time; for any given caches, only one of the threads replaces them.
+ */
+fun interface ANTLRCachePolicy {
+    /**
+     * @param caches the caches currently in use.
+     * @param cycleCompleted true if the parser has completed a cycle of [KolasuParser.cacheCycleSize] executions.
+     * @return true if the caches should be replaced.
+     */
+    fun shouldClear(
+        caches: ANTLRCaches,
+        cycleCompleted: Boolean,
+    ): Boolean
+
+    companion object {
+        /**
+         * Clears the caches every [KolasuParser.cacheCycleSize] executions, regardless of their size. This is the
+         * default.
+         */
+        @JvmField
+        val EXECUTION_CYCLE = ANTLRCachePolicy { _, cycleCompleted -> cycleCompleted }
+
+        /**
+         * Never clears the caches automatically. This is appropriate for grammars whose DFA stays small, and in
+         * general when the memory used by the caches is not a concern.
+         */
+        @JvmField
+        val NEVER = ANTLRCachePolicy { _, _ -> false }
+
+        /**
+         * Clears the caches when the estimated number of DFA states, or of cached prediction contexts, exceeds the
+         * given maximum.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun maxSize(
+            maxDFAStates: Int,
+            maxPredictionContexts: Int = Int.MAX_VALUE,
+        ): ANTLRCachePolicy {
+            require(maxDFAStates > 0) { "maxDFAStates should be positive" }
+            require(maxPredictionContexts > 0) { "maxPredictionContexts should be positive" }
+            return ANTLRCachePolicy { caches, _ ->
+                caches.dfaStateCount > maxDFAStates || caches.predictionContextCount > maxPredictionContexts
+            }
+        }
+
+        /**
+         * Clears the caches when they're older than [maxAge].
+         */
+        @JvmStatic
+        fun maxAge(maxAge: Duration): ANTLRCachePolicy {
+            require(!maxAge.isNegative && !maxAge.isZero) { "maxAge should be positive" }
+            val maxAgeNanos = maxAge.toNanos()
+            return ANTLRCachePolicy { caches, _ -> System.nanoTime() - caches.createdAt > maxAgeNanos }
+        }
+
+        /**
+         * Clears the caches when the heap is under pressure. See [HeapPressureCachePolicy].
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun heapPressure(usageThreshold: Double = HeapPressureCachePolicy.DEFAULT_USAGE_THRESHOLD) =
+            HeapPressureCachePolicy(usageThreshold)
+    }
+}
+
+/**
+ * @return a policy clearing the caches when either this policy or [other] would.
+ */
+infix fun ANTLRCachePolicy.or(other: ANTLRCachePolicy): ANTLRCachePolicy =
+    ANTLRCachePolicy { caches, cycleCompleted ->
+        shouldClear(caches, cycleCompleted) || other.shouldClear(caches, cycleCompleted)
+    }
+
+/**
+ * Clears the caches when, after a garbage collection, the usage of a heap memory pool is above [usageThreshold] (a
+ * fraction of the maximum size of the pool). This relies on the collection usage thresholds of the
+ * [java.lang.management.MemoryPoolMXBean]s, which are set by this policy and are global to the JVM: when several
+ * policies are active, the lowest threshold set is the effective one.
+ *
+ * When the heap is found under pressure, all the caches created before are cleared, so the same policy can be shared
+ * by several parsers. The policy listens to notifications from the JVM until it's closed; closing it restores the
+ * thresholds it changed.
+ */
+class HeapPressureCachePolicy(
+    val usageThreshold: Double = DEFAULT_USAGE_THRESHOLD,
+) : ANTLRCachePolicy,
+    AutoCloseable {
+    @Volatile
+    private var lastPressure: Long? = null
+
+    private val previousThresholds = mutableMapOf<MemoryPoolMXBean, Pair<Long, Long>>()
+
+    private val listener =
+        NotificationListener { notification: Notification, _: Any? -> handleNotification(notification) }
+
+    init {
+        require(usageThreshold > 0.0 && usageThreshold < 1.0) { "usageThreshold should be between 0 and 1" }
+        ManagementFactory.getMemoryPoolMXBeans().forEach { pool ->
+            val max = pool.usage?.max ?: -1
+            if (pool.type == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported && max > 0) {
+                val threshold = (max * usageThreshold).toLong()
+                val previous = pool.collectionUsageThreshold
+                if (previous == 0L || previous > threshold) {
+                    pool.collectionUsageThreshold = threshold
+                    previousThresholds[pool] = previous to threshold
+                }
+            }
+        }
+        (ManagementFactory.getMemoryMXBean() as NotificationEmitter).addNotificationListener(listener, null, null)
+    }
+
+    /**
+     * When the heap was last found under pressure, as given by [System.nanoTime], or null if it never was.
+     */
+    val lastPressureAt: Long?
+        get() = lastPressure
+
+    internal fun handleNotification(notification: Notification) {
+        if (notification.type == MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED) {
+            lastPressure = System.nanoTime()
+        }
+    }
+
+    override fun shouldClear(
+        caches: ANTLRCaches,
+        cycleCompleted: Boolean,
+    ): Boolean {
+        val pressure = lastPressure ?: return false
+        return pressure - caches.createdAt > 0
+    }
+
+    override fun close() {
+        (ManagementFactory.getMemoryMXBean() as NotificationEmitter).removeNotificationListener(listener)
+        previousThresholds.forEach { (pool, thresholds) ->
+            val (previous, set) = thresholds
+            // Another policy may have lowered the threshold in the meantime
+            if (pool.collectionUsageThreshold == set) {
+                pool.collectionUsageThreshold = previous
+            }
+        }
+        previousThresholds.clear()
+    }
+
+    companion object {
+        const val DEFAULT_USAGE_THRESHOLD = 0.8
+    }
+}
@@ -0,0 +1,114 @@
+package com.strumenta.kolasu.parsing
+
+import org.antlr.v4.runtime.atn.ATN
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.dfa.DFA
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The caches that ANTLR builds while parsing, shared by all the parsing operations of a [KolasuParser]: the DFA of
+ * each lexer and parser decision, and the cache of prediction contexts.
+ *
+ * A set of caches is never emptied while in use. When a [KolasuParser] clears its caches, it replaces the current
+ * instance with a new one, with a higher [epoch]: parsing operations already running keep using the instance they
+ * started with, while new operations use the new one. The old instance is garbage collected when the last operation
+ * using it completes.
+ *
+ * The DFA may be extended concurrently by several threads; ANTLR synchronizes the additions of states and edges.
+ *
+ * The statistics exposed by this class are read without locking while the caches are in use, so they are estimates.
+ * They are meant for monitoring, and for the [ANTLRCachePolicy] deciding when to replace the caches.
+ */
+class ANTLRCaches internal constructor(
+    val epoch: Long,
+    val lexerDecisionToDFA: Array<DFA>,
+    val parserDecisionToDFA: Array<DFA>,
+    val predictionContextCache: PredictionContextCache,
+) {
+    internal constructor(
+        epoch: Long,
+        lexerATN: ATN,
+        parserATN: ATN,
+    ) : this(epoch, emptyDFA(lexerATN), emptyDFA(parserATN), PredictionContextCache())
+
+    private val executionCounter = AtomicLong()
+    private val parsingTime = AtomicLong()
+    private val warmUpTime = AtomicLong()
+    private val cleared = AtomicBoolean()
+
+    /**
+     * When these caches were created, as given by [System.nanoTime].
+     */
+    val createdAt: Long = System.nanoTime()
+
+    /**
+     * The number of first-stage parsing operations completed using these caches.
+     */
+    val executions: Long
+        get() = executionCounter.get()
+
+    /**
+     * The total time spent in the first-stage parsing operations using these caches, in nanoseconds.
+     */
+    val parsingTimeNanos: Long
+        get() = parsingTime.get()
+
+    /**
+     * The time spent in the first [WARM_UP_EXECUTIONS] parsing operations, when the DFA is still being built.
+     */
+    val warmUpTimeNanos: Long
+        get() = warmUpTime.get()
+
+    /**
+     * An estimate of the extra time spent warming up these caches, i.e., the time spent in the first
+     * [WARM_UP_EXECUTIONS] parsing operations in excess of what the same operations would have taken with warm caches,
+     * in nanoseconds. It is null until the parsing operations after the warm-up are enough to compute the steady-state
+     * parsing time.
+     */
+    val estimatedWarmUpCostNanos: Long?
+        get() {
+            val executions = executions
+            if (executions < 2 * WARM_UP_EXECUTIONS) {
+                return null
+            }
+            val warmUpTime = warmUpTimeNanos
+            val steadyStateTime = (parsingTimeNanos - warmUpTime) / (executions - WARM_UP_EXECUTIONS)
+            return (warmUpTime - WARM_UP_EXECUTIONS * steadyStateTime).coerceAtLeast(0)
+        }
+
+    val lexerDFAStateCount: Int
+        get() = lexerDecisionToDFA.sumOf { it.states.size }
+
+    val parserDFAStateCount: Int
+        get() = parserDecisionToDFA.sumOf { it.states.size }
+
+    val dfaStateCount: Int
+        get() = lexerDFAStateCount + parserDFAStateCount
+
+    val predictionContextCount: Int
+        get() = predictionContextCache.size()
+
+    internal fun recordExecution(nanos: Long) {
+        if (executionCounter.incrementAndGet() <= WARM_UP_EXECUTIONS) {
+            warmUpTime.addAndGet(nanos)
+        }
+        parsingTime.addAndGet(nanos)
+    }
+
+    /**
+     * Marks these caches as being replaced; returns true only the first time, so that they're replaced only once.
+     */
+    internal fun markCleared(): Boolean = cleared.compareAndSet(false, true)
+
+    override fun toString(): String =
+        "ANTLRCaches(epoch=$epoch, executions=$executions, dfaStates=$dfaStateCount, " +
+            "predictionContexts=$predictionContextCount)"
+
+    companion object {
+        const val WARM_UP_EXECUTIONS = 50
+
+        private fun emptyDFA(atn: ATN): Array<DFA> =
+            Array(atn.numberOfDecisions) { DFA(atn.getDecisionState(it), it) }
+    }
+}
@@ -0,0 +1,524 @@
+package com.strumenta.kolasu.parsing
+
+import org.antlr.v4.runtime.RuntimeMetaData
+import org.antlr.v4.runtime.atn.ATN
+import org.antlr.v4.runtime.atn.ATNConfig
+import org.antlr.v4.runtime.atn.ATNConfigSet
+import org.antlr.v4.runtime.atn.ATNSerializer
+import org.antlr.v4.runtime.atn.ATNSimulator
+import org.antlr.v4.runtime.atn.ATNState
+import org.antlr.v4.runtime.atn.ArrayPredictionContext
+import org.antlr.v4.runtime.atn.DecisionState
+import org.antlr.v4.runtime.atn.LexerATNConfig
+import org.antlr.v4.runtime.atn.LexerAction
+import org.antlr.v4.runtime.atn.LexerActionExecutor
+import org.antlr.v4.runtime.atn.LexerActionType
+import org.antlr.v4.runtime.atn.LexerChannelAction
+import org.antlr.v4.runtime.atn.LexerCustomAction
+import org.antlr.v4.runtime.atn.LexerIndexedCustomAction
+import org.antlr.v4.runtime.atn.LexerModeAction
+import org.antlr.v4.runtime.atn.LexerMoreAction
+import org.antlr.v4.runtime.atn.LexerPopModeAction
+import org.antlr.v4.runtime.atn.LexerPushModeAction
+import org.antlr.v4.runtime.atn.LexerSkipAction
+import org.antlr.v4.runtime.atn.LexerTypeAction
+import org.antlr.v4.runtime.atn.OrderedATNConfigSet
+import org.antlr.v4.runtime.atn.PredictionContext
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.atn.SemanticContext
+import org.antlr.v4.runtime.atn.SingletonPredictionContext
+import org.antlr.v4.runtime.dfa.DFA
+import org.antlr.v4.runtime.dfa.DFAState
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.BitSet
+import java.util.IdentityHashMap
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Reads and writes snapshots of [ANTLRCaches], i.e., the DFA built by ANTLR for a lexer and a parser, so that a
+ * parser can start with caches that are already warm.
+ *
+ * A snapshot is a gzipped binary file, starting with a header that identifies the format version, the ANTLR runtime
+ * version and the grammar, the latter by means of a digest of the serialized ATN of the lexer and of the parser. A
+ * snapshot is only loaded if its header matches, otherwise it's ignored.
+ */
+internal object DFASnapshots {
+    private const val MAGIC = 0x4b444641 // KDFA
+    private const val FORMAT_VERSION = 1
+
+    private const val NULL = 0
+    private const val EMPTY = 1
+    private const val REFERENCE = 2
+    private const val SINGLETON = 3
+    private const val ARRAY = 4
+
+    private const val NO_STATE = -1
+    private const val ERROR_STATE = -2
+
+    private const val SEMANTIC_NONE = 0
+    private const val SEMANTIC_PREDICATE = 1
+    private const val SEMANTIC_PRECEDENCE = 2
+    private const val SEMANTIC_AND = 3
+    private const val SEMANTIC_OR = 4
+
+    private const val INDEXED_ACTION = -1
+
+    /**
+     * The set of conflicting alternatives of a configuration set is only accessible within the ANTLR runtime, but it
+     * is part of the state of the DFA, used to report ambiguities.
+     */
+    private val conflictingAlts =
+        ATNConfigSet::class.java.getDeclaredField("conflictingAlts").apply { isAccessible = true }
+
+    fun grammarKey(
+        lexerATN: ATN,
+        parserATN: ATN,
+    ): ByteArray {
+        val digest = MessageDigest.getInstance("SHA-256")
+        listOf(lexerATN, parserATN).forEach { atn ->
+            val serialized = ATNSerializer.getSerialized(atn).toArray()
+            val buffer = ByteBuffer.allocate((serialized.size + 1) * Int.SIZE_BYTES)
+            buffer.putInt(serialized.size)
+            serialized.forEach { buffer.putInt(it) }
+            digest.update(buffer.array())
+        }
+        return digest.digest()
+    }
+
+    fun write(
+        caches: ANTLRCaches,
+        lexerATN: ATN,
+        parserATN: ATN,
+        output: OutputStream,
+    ) {
+        val gzip = GZIPOutputStream(output)
+        val out = DataOutputStream(gzip.buffered())
+        out.writeInt(MAGIC)
+        out.writeInt(FORMAT_VERSION)
+        out.writeUTF(RuntimeMetaData.VERSION)
+        val key = grammarKey(lexerATN, parserATN)
+        out.writeInt(key.size)
+        out.write(key)
+        val writer = Writer(out)
+        writer.writeDFAs(caches.lexerDecisionToDFA)
+        writer.writeDFAs(caches.parserDecisionToDFA)
+        out.flush()
+        gzip.finish()
+    }
+
+    /**
+     * @return the caches read from the snapshot, or null if the snapshot is not compatible with the given ATNs or with
+     * the ANTLR runtime.
+     */
+    fun read(
+        input: InputStream,
+        lexerATN: ATN,
+        parserATN: ATN,
+        epoch: Long,
+    ): ANTLRCaches? {
+        val data = DataInputStream(GZIPInputStream(input).buffered())
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION || data.readUTF() != RuntimeMetaData.VERSION) {
+            return null
+        }
+        val key = ByteArray(data.readInt())
+        data.readFully(key)
+        if (!key.contentEquals(grammarKey(lexerATN, parserATN))) {
+            return null
+        }
+        val predictionContextCache = PredictionContextCache()
+        val reader = Reader(data, predictionContextCache)
+        val lexerDFA = reader.readDFAs(lexerATN)
+        val parserDFA = reader.readDFAs(parserATN)
+        return ANTLRCaches(epoch, lexerDFA, parserDFA, predictionContextCache)
+    }
+
+    private class Writer(
+        private val out: DataOutputStream,
+    ) {
+        private val contexts = IdentityHashMap<PredictionContext, Int>()
+
+        fun writeDFAs(decisionToDFA: Array<DFA>) {
+            out.writeInt(decisionToDFA.size)
+            decisionToDFA.forEach { writeDFA(it) }
+        }
+
+        private fun writeDFA(dfa: DFA) {
+            val s0 = dfa.s0
+            // The start state of a precedence DFA is not an actual state: its edges lead to the start state for each
+            // precedence level
+            val states = collectStates(dfa.states.values + listOfNotNull(s0?.takeIf { !dfa.isPrecedenceDfa }))
+            val indexes = IdentityHashMap<DFAState, Int>()
+            states.forEachIndexed { index, state -> indexes[state] = index }
+            out.writeInt(states.size)
+            states.forEach { writeState(it) }
+            states.forEach { state ->
+                val edges = state.edges
+                if (edges == null) {
+                    out.writeInt(-1)
+                } else {
+                    out.writeInt(edges.size)
+                    edges.forEach { writeStateReference(it, indexes) }
+                }
+            }
+            if (dfa.isPrecedenceDfa) {
+                val edges = s0?.edges ?: emptyArray()
+                out.writeInt(edges.size)
+                edges.forEach { writeStateReference(it, indexes) }
+            } else {
+                writeStateReference(s0, indexes)
+            }
+        }
+
+        /**
+         * Collects the given states and all the states reachable through their edges.
+         */
+        private fun collectStates(roots: Collection<DFAState>): List<DFAState> {
+            val collected = IdentityHashMap<DFAState, Boolean>()
+            val states = mutableListOf<DFAState>()
+            val pending = ArrayDeque(roots)
+            while (pending.isNotEmpty()) {
+                val state = pending.removeFirst()
+                if (state !== ATNSimulator.ERROR && collected.put(state, true) == null) {
+                    states.add(state)
+                    state.edges?.forEach { if (it != null) pending.add(it) }
+                }
+            }
+            return states
+        }
+
+        private fun writeStateReference(
+            state: DFAState?,
+            indexes: Map<DFAState, Int>,
+        ) {
+            out.writeInt(
+                when {
+                    state == null -> NO_STATE
+                    state === ATNSimulator.ERROR -> ERROR_STATE
+                    else -> indexes.getValue(state)
+                },
+            )
+        }
+
+        private fun writeState(state: DFAState) {
+            out.writeInt(state.stateNumber)
+            writeConfigs(state.configs)
+            out.writeBoolean(state.isAcceptState)
+            out.writeInt(state.prediction)
+            out.writeBoolean(state.requiresFullContext)
+            writeLexerActionExecutor(state.lexerActionExecutor)
+            val predicates = state.predicates
+            if (predicates == null) {
+                out.writeInt(-1)
+            } else {
+                out.writeInt(predicates.size)
+                predicates.forEach {
+                    writeSemanticContext(it.pred)
+                    out.writeInt(it.alt)
+                }
+            }
+        }
+
+        private fun writeConfigs(configs: ATNConfigSet) {
+            out.writeBoolean(configs is OrderedATNConfigSet)
+            out.writeBoolean(configs.fullCtx)
+            out.writeInt(configs.uniqueAlt)
+            out.writeBoolean(configs.hasSemanticContext)
+            out.writeBoolean(configs.dipsIntoOuterContext)
+            val alts = conflictingAlts.get(configs) as BitSet?
+            if (alts == null) {
+                out.writeInt(-1)
+            } else {
+                val words = alts.toLongArray()
+                out.writeInt(words.size)
+                words.forEach { out.writeLong(it) }
+            }
+            out.writeInt(configs.size())
+            configs.forEach { config ->
+                out.writeInt(config.state.stateNumber)
+                out.writeInt(config.alt)
+                writeContext(config.context)
+                out.writeInt(config.reachesIntoOuterContext)
+                if (config is LexerATNConfig) {
+                    out.writeBoolean(true)
+                    out.writeBoolean(config.hasPassedThroughNonGreedyDecision())
+                    writeLexerActionExecutor(config.lexerActionExecutor)
+                } else {
+                    out.writeBoolean(false)
+                    writeSemanticContext(config.semanticContext)
+                }
+            }
+        }
+
+        /**
+         * Prediction contexts form a graph, so each one is written once, after its parents; any further occurrence is
+         * written as a reference to the first one.
+         */
+        private fun writeContext(context: PredictionContext?) {
+            when {
+                context == null -> out.writeInt(NULL)
+                context.isEmpty -> out.writeInt(EMPTY)
+                contexts.containsKey(context) -> {
+                    out.writeInt(REFERENCE)
+                    out.writeInt(contexts.getValue(context))
+                }
+                context is ArrayPredictionContext -> {
+                    out.writeInt(ARRAY)
+                    out.writeInt(context.size())
+                    for (i in 0 until context.size()) {
+                        writeContext(context.getParent(i))
+                        out.writeInt(context.getReturnState(i))
+                    }
+                    contexts[context] = contexts.size
+                }
+                else -> {
+                    out.writeInt(SINGLETON)
+                    writeContext(context.getParent(0))
+                    out.writeInt(context.getReturnState(0))
+                    contexts[context] = contexts.size
+                }
+            }
+        }
+
+        private fun writeSemanticContext(context: SemanticContext) {
+            when (context) {
+                is SemanticContext.Predicate -> {
+                    out.writeInt(SEMANTIC_PREDICATE)
+                    out.writeInt(context.ruleIndex)
+                    out.writeInt(context.predIndex)
+                    out.writeBoolean(context.isCtxDependent)
+                }
+                is SemanticContext.PrecedencePredicate -> {
+                    out.writeInt(SEMANTIC_PRECEDENCE)
+                    out.writeInt(context.precedence)
+                }
+                is SemanticContext.AND -> {
+                    out.writeInt(SEMANTIC_AND)
+                    out.writeInt(context.operands.size)
+                    context.operands.forEach { writeSemanticContext(it) }
+                }
+                is SemanticContext.OR -> {
+                    out.writeInt(SEMANTIC_OR)
+                    out.writeInt(context.operands.size)
+                    context.operands.forEach { writeSemanticContext(it) }
+                }
+                else -> out.writeInt(SEMANTIC_NONE)
+            }
+        }
+
+        private fun writeLexerActionExecutor(executor: LexerActionExecutor?) {
+            if (executor == null) {
+                out.writeInt(-1)
+            } else {
+                out.writeInt(executor.lexerActions.size)
+                executor.lexerActions.forEach { writeLexerAction(it) }
+            }
+        }
+
+        private fun writeLexerAction(action: LexerAction) {
+            if (action is LexerIndexedCustomAction) {
+                out.writeInt(INDEXED_ACTION)
+                out.writeInt(action.offset)
+                writeLexerAction(action.action)
+                return
+            }
+            out.writeInt(action.actionType.ordinal)
+            when (action) {
+                is LexerChannelAction -> out.writeInt(action.channel)
+                is LexerCustomAction -> {
+                    out.writeInt(action.ruleIndex)
+                    out.writeInt(action.actionIndex)
+                }
+                is LexerModeAction -> out.writeInt(action.mode)
+                is LexerPushModeAction -> out.writeInt(action.mode)
+                is LexerTypeAction -> out.writeInt(action.type)
+                else -> Unit
+            }
+        }
+    }
+
+    private class Reader(
+        private val data: DataInputStream,
+        private val predictionContextCache: PredictionContextCache,
+    ) {
+        private val contexts = mutableListOf<PredictionContext>()
+        private lateinit var atn: ATN
+
+        fun readDFAs(atn: ATN): Array<DFA> {
+            this.atn = atn
+            val decisions = data.readInt()
+            if (decisions != atn.numberOfDecisions) {
+                throw IOException("Expected ${atn.numberOfDecisions} decisions, found $decisions")
+            }
+            return Array(decisions) { readDFA(DFA(atn.getDecisionState(it), it)) }
+        }
+
+        private fun readDFA(dfa: DFA): DFA {
+            val states = Array(data.readInt()) { readState() }
+            states.forEach { state ->
+                val edges = data.readInt()
+                state.edges = if (edges < 0) null else Array(edges) { readStateReference(states) }
+            }
+            states.forEach { dfa.states[it] = it }
+            if (dfa.isPrecedenceDfa) {
+                repeat(data.readInt()) { precedence ->
+                    readStateReference(states)?.let { dfa.setPrecedenceStartState(precedence, it) }
+                }
+            } else {
+                dfa.s0 = readStateReference(states)
+            }
+            return dfa
+        }
+
+        private fun readStateReference(states: Array<DFAState>): DFAState? =
+            when (val index = data.readInt()) {
+                NO_STATE -> null
+                ERROR_STATE -> ATNSimulator.ERROR
+                else -> states[index]
+            }
+
+        private fun readState(): DFAState {
+            val stateNumber = data.readInt()
+            val state = DFAState(readConfigs())
+            state.stateNumber = stateNumber
+            state.isAcceptState = data.readBoolean()
+            state.prediction = data.readInt()
+            state.requiresFullContext = data.readBoolean()
+            state.lexerActionExecutor = readLexerActionExecutor()
+            val predicates = data.readInt()
+            if (predicates >= 0) {
+                state.predicates = Array(predicates) { DFAState.PredPrediction(readSemanticContext(), data.readInt()) }
+            }
+            return state
+        }
+
+        private fun readConfigs(): ATNConfigSet {
+            val ordered = data.readBoolean()
+            val fullContext = data.readBoolean()
+            // Lexer configurations are kept in the order they were added, which determines their priority
+            val configs = if (ordered) OrderedATNConfigSet() else ATNConfigSet(fullContext)
+            val uniqueAlt = data.readInt()
+            val hasSemanticContext = data.readBoolean()
+            val dipsIntoOuterContext = data.readBoolean()
+            val words = data.readInt()
+            val alts = if (words < 0) null else BitSet.valueOf(LongArray(words) { data.readLong() })
+            repeat(data.readInt()) {
+                configs.add(readConfig())
+            }
+            configs.uniqueAlt = uniqueAlt
+            configs.hasSemanticContext = hasSemanticContext
+            configs.dipsIntoOuterContext = dipsIntoOuterContext
+            conflictingAlts.set(configs, alts)
+            configs.isReadonly = true
+            return configs
+        }
+
+        private fun readConfig(): ATNConfig {
+            val state = atn.states[data.readInt()]
+            val alt = data.readInt()
+            val context = readContext()
+            val reachesIntoOuterContext = data.readInt()
+            val config =
+                if (data.readBoolean()) {
+                    val passedThroughNonGreedyDecision = data.readBoolean()
+                    val executor = readLexerActionExecutor()
+                    if (passedThroughNonGreedyDecision) {
+                        lexerConfigThroughNonGreedyDecision(state, alt, context, executor)
+                    } else {
+                        LexerATNConfig(state, alt, context, executor)
+                    }
+                } else {
+                    ATNConfig(state, alt, context, readSemanticContext())
+                }
+            config.reachesIntoOuterContext = reachesIntoOuterContext
+            return config
+        }
+
+        /**
+         * The flag of a lexer configuration telling that it passed through a non-greedy decision can only be set by
+         * deriving the configuration from one in a non-greedy decision state, as the lexer does.
+         */
+        private fun lexerConfigThroughNonGreedyDecision(
+            state: ATNState,
+            alt: Int,
+            context: PredictionContext?,
+            executor: LexerActionExecutor?,
+        ): LexerATNConfig {
+            val nonGreedyState =
+                atn.states.firstOrNull { it is DecisionState && it.nonGreedy }
+                    ?: throw IOException("Lexer configuration passed through a non-greedy decision that does not exist")
+            val nonGreedy = LexerATNConfig(LexerATNConfig(nonGreedyState, alt, context), nonGreedyState)
+            return LexerATNConfig(nonGreedy, state, executor)
+        }
+
+        private fun readContext(): PredictionContext? =
+            when (val tag = data.readInt()) {
+                NULL -> null
+                EMPTY -> SingletonPredictionContext.create(null, PredictionContext.EMPTY_RETURN_STATE)
+                REFERENCE -> contexts[data.readInt()]
+                SINGLETON -> {
+                    val parent = readContext()
+                    register(SingletonPredictionContext.create(parent, data.readInt()))
+                }
+                ARRAY -> {
+                    val size = data.readInt()
+                    val parents = arrayOfNulls<PredictionContext>(size)
+                    val returnStates = IntArray(size)
+                    for (i in 0 until size) {
+                        parents[i] = readContext()
+                        returnStates[i] = data.readInt()
+                    }
+                    register(ArrayPredictionContext(parents, returnStates))
+                }
+                else -> throw IOException("Unknown prediction context tag $tag")
+            }
+
+        private fun register(context: PredictionContext): PredictionContext {
+            contexts.add(context)
+            predictionContextCache.add(context)
+            return context
+        }
+
+        private fun readSemanticContext(): SemanticContext =
+            when (val tag = data.readInt()) {
+                SEMANTIC_NONE -> SemanticContext.Empty.Instance
+                SEMANTIC_PREDICATE ->
+                    SemanticContext.Predicate(data.readInt(), data.readInt(), data.readBoolean())
+                SEMANTIC_PRECEDENCE -> SemanticContext.PrecedencePredicate(data.readInt())
+                SEMANTIC_AND ->
+                    List(data.readInt()) { readSemanticContext() }.reduce { a, b -> SemanticContext.AND(a, b) }
+                SEMANTIC_OR ->
+                    List(data.readInt()) { readSemanticContext() }.reduce { a, b -> SemanticContext.OR(a, b) }
+                else -> throw IOException("Unknown semantic context tag $tag")
+            }
+
+        private fun readLexerActionExecutor(): LexerActionExecutor? {
+            val size = data.readInt()
+            return if (size < 0) null else LexerActionExecutor(Array(size) { readLexerAction() })
+        }
+
+        private fun readLexerAction(): LexerAction {
+            val type = data.readInt()
+            if (type == INDEXED_ACTION) {
+                val offset = data.readInt()
+                return LexerIndexedCustomAction(offset, readLexerAction())
+            }
+            return when (LexerActionType.values()[type]) {
+                LexerActionType.CHANNEL -> LexerChannelAction(data.readInt())
+                LexerActionType.CUSTOM -> LexerCustomAction(data.readInt(), data.readInt())
+                LexerActionType.MODE -> LexerModeAction(data.readInt())
+                LexerActionType.MORE -> LexerMoreAction.INSTANCE
+                LexerActionType.POP_MODE -> LexerPopModeAction.INSTANCE
+                LexerActionType.PUSH_MODE -> LexerPushModeAction(data.readInt())
+                LexerActionType.SKIP -> LexerSkipAction.INSTANCE
+                LexerActionType.TYPE -> LexerTypeAction(data.readInt())
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.strumenta.kolasu.parsing
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.Point
+import com.strumenta.kolasu.validation.Issue
+import org.antlr.v4.runtime.CharStream
+import org.antlr.v4.runtime.CommonToken
+import org.antlr.v4.runtime.Parser
+import org.antlr.v4.runtime.ParserRuleContext
+import org.antlr.v4.runtime.Token
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.TerminalNode
+import org.antlr.v4.runtime.tree.TerminalNodeImpl
+import java.util.IdentityHashMap
+import org.antlr.v4.runtime.misc.Pair as ANTLRPair
+
+/**
+ * A change to a text: the characters from [start] (inclusive) to [end] (exclusive) are replaced by [replacement].
+ * Offsets are expressed as indexes of Unicode code points, as in ANTLR character streams; they're the same as the
+ * indexes of the characters of the string unless the text contains supplementary characters.
+ */
+data class TextEdit(
+    val start: Int,
+    val end: Int,
+    val replacement: String,
+) {
+    init {
+        require(start in 0..end) { "Invalid range: $start-$end" }
+    }
+}
+
+/**
+ * A grammar rule from which [KolasuParser.parseIncrementally] can restart parsing. This is usually a rule matching
+ * self-contained constructs, such as statements or declarations, that can be parsed in isolation: lexing must be able
+ * to start at the beginning of the rule in the default lexer mode, and the token boundaries at the beginning and at
+ * the end of the rule must not depend on the surrounding text.
+ *
+ * @param ruleIndex the index of the rule in the parser, e.g., `MyParser.RULE_statement`.
+ * @param invoke invokes the rule on the given parser, e.g., `{ it.statement() }`.
+ * @param toAst transforms the parse tree of the rule into an AST node, as the second stage of parsing would do. The
+ * node should have the parse tree as its origin (see [withParseTreeNode]), so that it can be replaced in turn by
+ * subsequent incremental parsing operations.
+ */
+class RestartableRule<P : Parser>(
+    val ruleIndex: Int,
+    val invoke: (P) -> ParserRuleContext,
+    val toAst: (ParserRuleContext, MutableList<Issue>) -> Node?,
+)
+
+/**
+ * Applies the edits to [code]. The edits are expressed in terms of the original code, so they must not overlap.
+ */
+internal fun applyEdits(
+    code: String,
+    edits: List<TextEdit>,
+): String {
+    val sorted = edits.sortedBy { it.start }
+    sorted.zipWithNext().forEach { (first, second) ->
+        require(first.end <= second.start) { "Overlapping edits: $first, $second" }
+    }
+    val codePoints = code.codePointCount(0, code.length)
+    require(sorted.isEmpty() || sorted.last().end <= codePoints) { "Edit outside of the code: ${sorted.last()}" }
+    val charIndex: (Int) -> Int =
+        if (codePoints == code.length) { index -> index } else { index -> code.offsetByCodePoints(0, index) }
+    val result = StringBuilder(code.length)
+    var copied = 0
+    sorted.forEach { edit ->
+        result.append(code, copied, charIndex(edit.start))
+        result.append(edit.replacement)
+        copied = charIndex(edit.end)
+    }
+    result.append(code, copied, code.length)
+    return result.toString()
+}
+
+/**
+ * @return the rule contexts containing the characters from [start] to [end] (exclusive), without including their
+ * first nor their last character, from the outermost to the innermost one.
+ */
+internal fun enclosingContexts(
+    root: ParserRuleContext,
+    start: Int,
+    end: Int,
+): List<ParserRuleContext> {
+    fun encloses(context: ParserRuleContext): Boolean {
+        val first = context.start ?: return false
+        val last = context.stop ?: return false
+        return context.exception == null && first.type != Token.EOF && first.startIndex < start &&
+            end <= last.stopIndex
+    }
+    val contexts = mutableListOf<ParserRuleContext>()
+    var current: ParserRuleContext? = root.takeIf { encloses(it) }
+    while (current != null) {
+        contexts.add(current)
+        current = current.children?.firstOrNull { it is ParserRuleContext && encloses(it) } as ParserRuleContext?
+    }
+    return contexts
+}
+
+/**
+ * @return the tokens of the terminals in this parse tree, in order.
+ */
+internal fun ParserRuleContext.terminals(): List<Token> {
+    val tokens = mutableListOf<Token>()
+    val stack = ArrayList<ParseTree>()
+    stack.add(this)
+    while (stack.isNotEmpty()) {
+        when (val tree = stack.removeAt(stack.size - 1)) {
+            is ParserRuleContext -> tree.children?.asReversed()?.let { stack.addAll(it) }
+            is TerminalNode -> tokens.add(tree.symbol)
+        }
+    }
+    return tokens
+}
+
+/**
+ * After replacing a region of the text and the corresponding part of the parse tree, updates the tokens following the
+ * region, so that they refer to the new text, with the offsets, the positions and the indexes they have in it. The
+ * tokens preceding the region are left as they are, since the text before the region has not changed.
+ *
+ * @param tokenIndexDelta the difference between the number of tokens in the new region and in the old one.
+ * @param replaced maps the tokens of the replaced part of the parse tree, that are still referenced outside of it, to
+ * the corresponding new tokens.
+ */
+internal class TokenRebinder(
+    private val charStream: CharStream,
+    private val oldRegionEnd: Int,
+    private val delta: Int,
+    private val tokenIndexDelta: Int,
+    private val oldRegionEndPoint: Point,
+    private val newRegionEndPoint: Point,
+    replaced: Map<Token, Token>,
+) {
+    private val rebound = IdentityHashMap<Token, Token>(replaced)
+
+    /**
+     * Updates the boundaries of the rule contexts enclosing [region], which has already replaced the old region in the
+     * parse tree, and the tokens of the subtrees following it. The rest of the parse tree is not visited.
+     */
+    fun rebind(region: ParserRuleContext) {
+        var child: ParserRuleContext = region
+        var parent = region.parent as ParserRuleContext?
+        while (parent != null) {
+            // The text of a context is read from the stream of its first token, which must then be the new one
+            parent.start = parent.start?.let { rebound[it] ?: copy(it, 0, it.startPoint, it.tokenIndex) }
+            parent.stop = parent.stop?.let { token(it) }
+            val children = parent.children
+            for (i in children.indexOfFirst { it === child } + 1 until children.size) {
+                rebindSubtree(children[i])
+            }
+            child = parent
+            parent = parent.parent as ParserRuleContext?
+        }
+    }
+
+    private fun rebindSubtree(subtree: ParseTree) {
+        val stack = ArrayList<ParseTree>()
+        stack.add(subtree)
+        while (stack.isNotEmpty()) {
+            when (val tree = stack.removeAt(stack.size - 1)) {
+                is ParserRuleContext -> {
+                    tree.start = tree.start?.let { token(it) }
+                    tree.stop = tree.stop?.let { token(it) }
+                    tree.children?.let { stack.addAll(it) }
+                }
+                is TerminalNodeImpl -> tree.symbol = token(tree.symbol)
+            }
+        }
+    }
+
+    fun shift(point: Point): Point =
+        when {
+            point < oldRegionEndPoint -> point
+            point.line == oldRegionEndPoint.line ->
+                Point(newRegionEndPoint.line, point.column - oldRegionEndPoint.column + newRegionEndPoint.column)
+            else -> Point(point.line - oldRegionEndPoint.line + newRegionEndPoint.line, point.column)
+        }
+
+    private fun token(token: Token): Token =
+        if (token.startIndex < oldRegionEnd) {
+            rebound[token] ?: token
+        } else {
+            rebound.getOrPut(token) {
+                copy(token, delta, shift(token.startPoint), token.tokenIndex + tokenIndexDelta)
+            }
+        }
+
+    private fun copy(
+        token: Token,
+        offset: Int,
+        point: Point,
+        tokenIndex: Int,
+    ): Token {
+        val newToken =
+            CommonToken(
+                ANTLRPair(token.tokenSource, charStream),
+                token.type,
+                token.channel,
+                token.startIndex + offset,
+                token.stopIndex + offset,
+            )
+        newToken.line = point.line
+        newToken.charPositionInLine = point.column
+        newToken.tokenIndex = tokenIndex
+        return newToken
+    }
+}
@@ -2,32 +2,54 @@ package com.strumenta.kolasu.parsing
 
 import com.strumenta.kolasu.model.FileSource
 import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.ParallelParentAssigner
+import com.strumenta.kolasu.model.ParentAssigner
+import com.strumenta.kolasu.model.Point
+import com.strumenta.kolasu.model.Position
 import com.strumenta.kolasu.model.PropertyDescription
+import com.strumenta.kolasu.model.SequentialParentAssigner
 import com.strumenta.kolasu.model.Source
 import com.strumenta.kolasu.model.assignParents
+import com.strumenta.kolasu.model.children
 import com.strumenta.kolasu.model.processProperties
+import com.strumenta.kolasu.model.replaceChildByIdentity
+import com.strumenta.kolasu.traversing.invalidateNodeTypeIndexes
 import com.strumenta.kolasu.traversing.walk
 import com.strumenta.kolasu.validation.Issue
 import com.strumenta.kolasu.validation.IssueType
+import org.antlr.v4.runtime.BailErrorStrategy
 import org.antlr.v4.runtime.CharStream
 import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonToken
 import org.antlr.v4.runtime.CommonTokenStream
 import org.antlr.v4.runtime.Lexer
 import org.antlr.v4.runtime.Parser
 import org.antlr.v4.runtime.ParserRuleContext
 import org.antlr.v4.runtime.Token
 import org.antlr.v4.runtime.TokenStream
+import org.antlr.v4.runtime.atn.ATN
+import org.antlr.v4.runtime.atn.LexerATNSimulator
 import org.antlr.v4.runtime.atn.ParserATNSimulator
 import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.atn.PredictionMode
 import org.antlr.v4.runtime.misc.Interval
+import org.antlr.v4.runtime.misc.ParseCancellationException
 import org.antlr.v4.runtime.tree.ParseTree
 import org.antlr.v4.runtime.tree.TerminalNode
 import java.io.File
 import java.io.FileInputStream
 import java.io.InputStream
+import java.io.OutputStream
 import java.nio.charset.Charset
+import java.util.Collections
+import java.util.IdentityHashMap
 import java.util.LinkedList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.reflect.full.memberFunctions
+import kotlin.system.measureNanoTime
 import kotlin.system.measureTimeMillis
 
 interface TokenFactory<T : KolasuToken> {
@@ -139,12 +161,43 @@ abstract class KolasuANTLRLexer<T : KolasuToken>(
  *
  * Note: instances of this class are thread-safe and they're meant to be reused. Do not create a new KolasuParser
  * instance every time you need to parse some source code, or performance may suffer.
+ *
+ * Each parsing operation creates its own ANTLR lexer and parser, which are only used by the calling thread. What is
+ * shared among threads is the [ANTLRCaches] instance holding the DFA, which ANTLR builds incrementally and which makes
+ * parsing faster over time. The caches are periodically replaced with empty ones (see [clearCaches]) to bound their
+ * memory usage; the replacement never affects the operations that are already running.
  */
 abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : KolasuToken>(
     tokenFactory: TokenFactory<T>,
 ) : KolasuANTLRLexer<T>(tokenFactory),
     ASTParser<R> {
-    protected var predictionContextCache = PredictionContextCache()
+    private val atns: Pair<ATN, ATN> by lazy {
+        val lexer = createANTLRLexer(CharStreams.fromString(""))
+        lexer.atn to createANTLRParser(createTokenStream(lexer)).atn
+    }
+
+    private val currentCaches = AtomicReference<ANTLRCaches>()
+
+    /**
+     * The caches used by the parsing operations starting now.
+     */
+    val antlrCaches: ANTLRCaches
+        get() =
+            currentCaches.get() ?: currentCaches.updateAndGet {
+                it ?: ANTLRCaches(0, atns.first, atns.second)
+            }
+
+    protected var predictionContextCache: PredictionContextCache
+        get() = antlrCaches.predictionContextCache
+
+        @Deprecated("The caches are replaced as a whole by clearCaches and loadCaches")
+        set(value) {
+            currentCaches
+                .getAndUpdate {
+                    val caches = it ?: ANTLRCaches(0, atns.first, atns.second)
+                    ANTLRCaches(caches.epoch + 1, caches.lexerDecisionToDFA, caches.parserDecisionToDFA, value)
+                }?.markCleared()
+        }
 
     /**
      * Creates the first-stage parser.
@@ -187,13 +240,16 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
         inputStream: CharStream,
         issues: MutableList<Issue>,
     ): P {
+        // The lexer and the parser must use the same caches, even if they are replaced in the meantime
+        val caches = antlrCaches
         val lexer = createANTLRLexer(inputStream)
+        lexer.interpreter =
+            LexerATNSimulator(lexer, lexer.atn, caches.lexerDecisionToDFA, caches.predictionContextCache)
         attachListeners(lexer, issues)
         val tokenStream = createTokenStream(lexer)
         val parser: P = createANTLRParser(tokenStream)
         // Assign interpreter to avoid caching DFA states indefinitely across executions
-        parser.interpreter =
-            ParserATNSimulator(parser, parser.atn, parser.interpreter.decisionToDFA, predictionContextCache)
+        parser.interpreter = CachingParserATNSimulator(parser, caches)
         attachListeners(parser, issues)
         return parser
     }
@@ -260,9 +316,14 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
         val issues = LinkedList<Issue>()
         var root: C?
         var lexingTime: Long? = null
-        val time =
-            measureTimeMillis {
+        var predictionStage: PredictionStage? = null
+        var sllTime: Long? = null
+        var llTime: Long? = null
+        lateinit var caches: ANTLRCaches
+        val nanos =
+            measureNanoTime {
                 val parser = createParser(inputStream, issues)
+                caches = cachesOf(parser)
                 countExecution(parser)
                 if (measureLexingTime) {
                     val tokenStream = parser.inputStream
@@ -274,12 +335,71 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
                             }
                     }
                 }
-                root = invokeRootRule(parser)
+                if (twoStageParsing) {
+                    var sllRoot: C? = null
+                    sllTime = measureTimeMillis { sllRoot = invokeRootRuleWithSLL(parser) }
+                    if (sllRoot != null) {
+                        root = sllRoot
+                        predictionStage = PredictionStage.SLL
+                    } else {
+                        llTime = measureTimeMillis { root = invokeRootRule(parser) }
+                        predictionStage = PredictionStage.LL
+                    }
+                } else {
+                    root = invokeRootRule(parser)
+                }
                 if (root != null) {
                     verifyParseTree(parser, issues, root!!)
                 }
             }
-        return FirstStageParsingResult(issues, root, null, null, time, lexingTime, source)
+        caches.recordExecution(nanos)
+        val time = TimeUnit.NANOSECONDS.toMillis(nanos)
+        return FirstStageParsingResult(
+            issues,
+            root,
+            null,
+            null,
+            time,
+            lexingTime,
+            source,
+            predictionStage,
+            sllTime,
+            llTime,
+        )
+    }
+
+    /**
+     * Invokes the root rule using SLL prediction, bailing out at the first syntax error. SLL prediction is faster
+     * than full LL prediction, and it's enough for most inputs; however, it may report a syntax error on some valid
+     * inputs.
+     *
+     * @return the parse tree, or null if SLL prediction failed, in which case the parser is restored to its original
+     * configuration and rewound, ready to parse the input again.
+     */
+    protected open fun invokeRootRuleWithSLL(parser: P): C? {
+        val predictionMode = parser.interpreter.predictionMode
+        val errorHandler = parser.errorHandler
+        val errorListeners = parser.errorListeners.toList()
+        parser.interpreter.predictionMode = PredictionMode.SLL
+        parser.errorHandler = BailErrorStrategy()
+        parser.removeErrorListeners()
+        try {
+            return invokeRootRule(parser)
+        } catch (e: Exception) {
+            if (!e.isSLLFailure()) {
+                throw e
+            }
+        } finally {
+            parser.interpreter.predictionMode = predictionMode
+            parser.errorHandler = errorHandler
+            errorListeners.forEach { parser.addErrorListener(it) }
+        }
+        parser.reset()
+        return null
+    }
+
+    private fun Throwable.isSLLFailure(): Boolean =
+        this is ParseCancellationException || (cause?.takeIf { it !== this }?.isSLLFailure() ?: false)
     }
 
     @JvmOverloads
@@ -330,6 +450,259 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
         )
     }
 
+    /**
+     * The rules from which [parseIncrementally] can restart parsing. See [RestartableRule].
+     */
+    protected open val restartableRules: List<RestartableRule<P>>
+        get() = emptyList()
+
+    /**
+     * Parses the code of a [previous] result after applying the given [edits] to it, reusing as much as possible of
+     * the previous result. When the edits fall within a construct matched by one of the [restartableRules], only the
+     * text of the innermost such construct is lexed and parsed again, and only the corresponding AST node is rebuilt
+     * and replaced in the previous AST; the positions of the following nodes are shifted accordingly. When that's not
+     * possible, e.g., because the new text of the construct contains syntax errors, the whole code is parsed again.
+     *
+     * The previous result must have been produced with positions, and its AST and parse tree are modified in place,
+     * so it should not be used anymore. Semantic issues are not recomputed outside of the rebuilt node, nor is the
+     * AST post-processed again (see [postProcessAst]): restartable rules are meant for constructs whose AST does not
+     * depend on the rest of the code: the previous issues outside of the rebuilt node, including the ones enclosing it,
+     * are kept and shifted. Tokens following the parsed region are updated to refer to the new code, so token text
+     * modified by lexer actions is not preserved after the parsed region.
+     */
+    fun parseIncrementally(
+        previous: ParsingResult<R>,
+        edits: List<TextEdit>,
+    ): ParsingResult<R> {
+        val oldCode = requireNotNull(previous.code) { "The previous result does not include the code" }
+        if (edits.isEmpty()) {
+            return previous
+        }
+        val newCode = applyEdits(oldCode, edits)
+        return reparseRegion(previous, oldCode, newCode, edits) ?: parse(newCode, true, false, previous.source)
+    }
+
+    private fun reparseRegion(
+        previous: ParsingResult<R>,
+        oldCode: String,
+        newCode: String,
+        edits: List<TextEdit>,
+    ): ParsingResult<R>? {
+        val startTime = System.currentTimeMillis()
+        val oldTree = previous.firstStage?.root ?: return null
+        val oldRoot = previous.root ?: return null
+        val rules = restartableRules.associateBy { it.ruleIndex }
+        if (rules.isEmpty() || oldRoot.origin !is ParseTreeOrigin) {
+            return null
+        }
+        val delta = newCode.codePointCount(0, newCode.length) - oldCode.codePointCount(0, oldCode.length)
+        val damageStart = edits.minOf { it.start }
+        val damageEnd = edits.maxOf { it.end }
+        val contexts = enclosingContexts(oldTree, damageStart, damageEnd)
+        val enclosing = Collections.newSetFromMap(IdentityHashMap<ParseTree, Boolean>())
+        enclosing.addAll(contexts)
+        // Nodes are built from nested contexts, so only the subtrees built from the enclosing contexts are visited
+        val nodesByContext = IdentityHashMap<ParseTree, Node?>()
+        val toVisit = ArrayList<Node>()
+        toVisit.add(oldRoot)
+        while (toVisit.isNotEmpty()) {
+            val node = toVisit.removeAt(toVisit.size - 1)
+            val tree = (node.origin as? ParseTreeOrigin)?.parseTree
+            if (tree != null) {
+                if (tree !in enclosing) {
+                    continue
+                }
+                // A context mapped to several nodes cannot be replaced by a single one
+                nodesByContext[tree] = if (nodesByContext.containsKey(tree)) null else node
+            }
+            toVisit.addAll(node.children)
+        }
+        for (context in contexts.asReversed()) {
+            val rule = rules[context.ruleIndex] ?: continue
+            val node = nodesByContext[context] ?: continue
+            if (node !== oldRoot && node.parent == null) {
+                continue
+            }
+            val charStream = CharStreams.fromString(newCode)
+            val region = reparseContext(context, rule, charStream, delta) ?: continue
+            return replaceRegion(previous, context, node, region, charStream, delta, newCode, startTime)
+        }
+        return null
+    }
+
+    private class ReparsedRegion(
+        val context: ParserRuleContext,
+        val node: Node,
+        val issues: List<Issue>,
+    )
+
+    /**
+     * Parses the new text of [context] with [rule], and builds its AST node.
+     *
+     * @return the results, or null if the new text cannot be parsed in isolation, i.e., it contains syntax errors or
+     * it is not entirely matched by the rule.
+     */
+    private fun reparseContext(
+        context: ParserRuleContext,
+        rule: RestartableRule<P>,
+        charStream: CharStream,
+        delta: Int,
+    ): ReparsedRegion? {
+        val regionStart = context.start.startIndex
+        val newRegionEnd = context.stop.stopIndex + 1 + delta
+        val issues = LinkedList<Issue>()
+        // The lexer starts from the beginning of the region, and it only goes beyond its end for lookahead
+        charStream.seek(regionStart)
+        val parser = createParser(charStream, issues)
+        countExecution(parser)
+        val newContext = rule.invoke(parser)
+        if (issues.isNotEmpty() || newContext.exception != null || newContext.start?.startIndex != regionStart ||
+            newContext.stop?.stopIndex != newRegionEnd - 1
+        ) {
+            return null
+        }
+        // The lexer counted lines, columns and tokens from the beginning of the region
+        val startLine = context.start.line
+        val startColumn = context.start.charPositionInLine
+        val startTokenIndex = context.start.tokenIndex
+        newContext.terminals().forEach { token ->
+            if (token is CommonToken) {
+                token.tokenIndex += startTokenIndex
+                if (token.line == 1) {
+                    token.charPositionInLine += startColumn
+                }
+                token.line += startLine - 1
+            }
+        }
+        val astIssues = mutableListOf<Issue>()
+        val node = rule.toAst(newContext, astIssues) ?: return null
+        return ReparsedRegion(newContext, node, astIssues)
+    }
+
+    /**
+     * Replaces [context] and [node] with the reparsed ones, in the parse tree and in the AST of [previous], and shifts
+     * the tokens and the positions following them.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun replaceRegion(
+        previous: ParsingResult<R>,
+        context: ParserRuleContext,
+        node: Node,
+        region: ReparsedRegion,
+        charStream: CharStream,
+        delta: Int,
+        newCode: String,
+        startTime: Long,
+    ): ParsingResult<R> {
+        val oldRoot = previous.root!!
+        var tree = previous.firstStage!!.root!!
+        val parentContext = context.parent as ParserRuleContext?
+        if (parentContext == null) {
+            tree = region.context
+        } else {
+            val index = parentContext.children.indexOfFirst { it === context }
+            parentContext.children[index] = region.context
+            region.context.parent = parentContext
+            region.context.invokingState = context.invokingState
+        }
+        val root =
+            if (node === oldRoot) {
+                region.node as R
+            } else {
+                // The replacement is done by identity: the new node may be equal to the old one
+                val parent = node.parent!!
+                replaceChildByIdentity(parent, node, region.node)
+                check(region.node.parent === parent) { "The reparsed node has not replaced the old one" }
+                node.parent = null
+                parent.invalidateNodeTypeIndexes()
+                oldRoot
+            }
+        region.node.assignParents()
+
+        // Positions derived from the parse tree are updated with the tokens, while explicitly set ones need to be
+        // shifted. This can only affect the nodes enclosing the new one and the ones following it.
+        val positions = positionsFrom(region.node, context.start.startPoint)
+        val rebinder =
+            TokenRebinder(
+                charStream,
+                context.stop.stopIndex + 1,
+                delta,
+                region.context.stop.tokenIndex - context.stop.tokenIndex,
+                context.stop.endPoint,
+                region.context.stop.endPoint,
+                mapOf(context.start to region.context.start, context.stop to region.context.stop),
+            )
+        rebinder.rebind(region.context)
+        positions.forEach { (node, position) ->
+            val shifted = Position(rebinder.shift(position.start), rebinder.shift(position.end), position.source)
+            if (node.position != shifted) {
+                node.position = shifted
+            }
+        }
+
+        val regionStart = context.start.startPoint
+        val regionEnd = context.stop.endPoint
+        val issues = mutableListOf<Issue>()
+        previous.issues.forEach { issue ->
+            val position = issue.position
+            when {
+                position == null || position.end <= regionStart -> issues.add(issue)
+                // The issues within the old node are replaced by the ones of the new node
+                regionStart <= position.start && position.end <= regionEnd -> Unit
+                // The following issues are shifted, and the ones enclosing the node are resized
+                else ->
+                    issues.add(
+                        issue.copy(
+                            position =
+                                Position(rebinder.shift(position.start), rebinder.shift(position.end), position.source),
+                        ),
+                    )
+            }
+        }
+        issues.addAll(region.issues)
+        val time = System.currentTimeMillis() - startTime
+        val firstStage =
+            FirstStageParsingResult(
+                issues.filter { it.type == IssueType.SYNTACTIC },
+                tree as C,
+                newCode,
+                null,
+                time,
+                null,
+                previous.source,
+            )
+        return ParsingResult(issues, root, newCode, null, firstStage, time, previous.source)
+    }
+
+    /**
+     * @return the positions of the ancestors of [node], and of the nodes outside of it not ending before [start]. The
+     * subtrees ending before [start] are not visited.
+     */
+    private fun positionsFrom(
+        node: Node,
+        start: Point,
+    ): Map<Node, Position> {
+        val positions = IdentityHashMap<Node, Position>()
+        val toVisit = ArrayList<Node>()
+        var child = node
+        var parent = node.parent
+        while (parent != null) {
+            parent.position?.let { positions[parent] = it }
+            parent.children.forEach { if (it !== child) toVisit.add(it) }
+            child = parent
+            parent = parent.parent
+        }
+        while (toVisit.isNotEmpty()) {
+            val current = toVisit.removeAt(toVisit.size - 1)
+            val position = current.position
+            if (position == null || position.end > start) {
+                position?.let { positions[current] = it }
+                toVisit.addAll(current.children)
+            }
+        }
+        return positions
+    }
+
     // Makes it more convenient to invoke from Java. We can't use @JvmOverloads because:
     // - it has no effect on methods with no default values for arguments
     // - an overriding method can't specify default values
@@ -354,20 +727,55 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
     ) = node.processProperties(propertiesToIgnore, propertyOperation)
 
     /**
-     * Traverses the AST to ensure that parent nodes are correctly assigned.
+     * If true, the first stage of parsing is attempted with SLL prediction first, falling back to full LL prediction,
+     * with the usual error reporting, only if SLL fails. This is usually much faster, because SLL prediction suffices
+     * for most inputs, but parsing inputs containing syntax errors takes longer.
+     */
+    var twoStageParsing: Boolean = false
+
+    /**
+     * The strategy used by [assignParents]. Use a [ParallelParentAssigner] to assign the parents of large ASTs
+     * concurrently.
+     */
+    var parentAssigner: ParentAssigner = SequentialParentAssigner
+
+    /**
+     * Traverses the AST to ensure that parent nodes are correctly assigned, using the [parentAssigner].
      *
      * If you're already assigning the parents correctly when you build the AST, or you're not interested in tracking
      * child-parent relationships, you can override this method to do nothing to improve performance.
      */
     protected open fun assignParents(ast: R?) {
-        ast?.assignParents()
+        ast?.let { parentAssigner.assignParents(it) }
     }
 
     protected fun shouldWeClearCaches(): Boolean = executionsToNextCacheClean <= 0
 
-    protected var executionCounter = 0
+    /**
+     * The policy deciding when the caches are cleared. By default, they're cleared every [cacheCycleSize] executions.
+     */
+    @Volatile
+    var cachePolicy: ANTLRCachePolicy = ANTLRCachePolicy.EXECUTION_CYCLE
+
+    @Volatile
     var cacheCycleSize = 500
-    var executionsToNextCacheClean = cacheCycleSize
+
+    private val executions = AtomicInteger()
+    private val remainingExecutions = AtomicInteger(cacheCycleSize)
+
+    protected var executionCounter: Int
+        get() = executions.get()
+
+        @Deprecated("The executions are counted by countExecution")
+        set(value) {
+            executions.set(value)
+        }
+
+    var executionsToNextCacheClean: Int
+        get() = remainingExecutions.get()
+        set(value) {
+            remainingExecutions.set(value)
+        }
 
     protected fun considerClearCaches() {
         if (shouldWeClearCaches()) {
@@ -375,18 +783,117 @@ abstract class KolasuParser<R : Node, P : Parser, C : ParserRuleContext, T : Kol
         }
     }
 
+    /**
+     * Counts a parsing operation, clearing the caches if the [cachePolicy] says so. When several threads find that the
+     * caches should be cleared at the same time, only one of them clears them.
+     */
     protected open fun countExecution(parser: Parser) {
-        executionCounter++
-        executionsToNextCacheClean--
-        considerClearCaches()
+        executions.incrementAndGet()
+        val remaining = remainingExecutions.getAndUpdate { if (it <= 1) cacheCycleSize else it - 1 }
+        val caches = cachesOf(parser)
+        if (cachePolicy.shouldClear(caches, remaining <= 1) && caches.markCleared()) {
+            clearCaches()
+        }
     }
 
+    /**
+     * The caches used by [parser], read back from its interpreter, as they may have been replaced after its creation.
+     * Parsers created by an override of [createParser] with a different interpreter are assumed to use the current
+     * caches.
+     */
+    private fun cachesOf(parser: Parser): ANTLRCaches =
+        (parser.interpreter as? CachingParserATNSimulator)?.caches ?: antlrCaches
+
+    private val clearCount = AtomicLong()
+
+    @Volatile
+    private var lastCleared: ANTLRCaches? = null
+
+    /**
+     * The number of times the caches have been cleared.
+     */
+    val cacheClears: Long
+        get() = clearCount.get()
+
+    /**
+     * The caches replaced by the last clear, if any, with their final statistics: how much they had grown and what
+     * they cost to warm up.
+     */
+    val lastClearedCaches: ANTLRCaches?
+        get() = lastCleared
+
+    /**
+     * Replaces the caches with empty ones, and starts a new cycle. The parsing operations that are running keep using
+     * the old caches until they complete, so they're not slowed down nor disrupted.
+     */
     open fun clearCaches() {
         executionsToNextCacheClean = cacheCycleSize
-        val lexer = createANTLRLexer(CharStreams.fromString(""))
-        lexer.interpreter.clearDFA()
-        val parser = createANTLRParser(createTokenStream(lexer))
-        parser.interpreter.clearDFA()
-        predictionContextCache = PredictionContextCache()
+        val previous =
+            currentCaches.getAndUpdate {
+                ANTLRCaches((it?.epoch ?: -1) + 1, atns.first, atns.second)
+            }
+        if (previous != null) {
+            previous.markCleared()
+            lastCleared = previous
+            clearCount.incrementAndGet()
+        }
     }
+
+    /**
+     * Warms up the caches by parsing the given code, e.g., a corpus of representative files, so that they can be saved
+     * with [saveCaches]. The caches are not cleared while warming up, regardless of the [cachePolicy]; this is not
+     * meant to be called while other threads are using this parser.
+     */
+    fun warmUpCaches(corpus: Iterable<String>) {
+        val policy = cachePolicy
+        cachePolicy = ANTLRCachePolicy.NEVER
+        try {
+            corpus.forEach { parseFirstStage(it) }
+        } finally {
+            cachePolicy = policy
+        }
+    }
+
+    @JvmOverloads
+    fun warmUpCaches(
+        files: Collection<File>,
+        charset: Charset = Charsets.UTF_8,
+    ) = warmUpCaches(files.asSequence().map { it.readText(charset) }.asIterable())
+
+    /**
+     * Saves a snapshot of the current caches, that can be loaded with [loadCaches] to start parsing with warm caches,
+     * e.g., in a new JVM. The snapshot is only valid for the same grammar and version of the ANTLR runtime. This is
+     * not meant to be called while other threads are using this parser.
+     */
+    fun saveCaches(output: OutputStream) {
+        DFASnapshots.write(antlrCaches, atns.first, atns.second, output)
+    }
+
+    fun saveCaches(file: File) {
+        file.outputStream().use { saveCaches(it) }
+    }
+
+    /**
+     * Replaces the caches with those saved in a snapshot by [saveCaches]. Replacing the caches does not count as
+     * clearing them, and it does not affect the parsing operations already running.
+     *
+     * @return true if the snapshot has been loaded, false if it was not compatible with the grammar or the version of
+     * the ANTLR runtime, in which case the caches are left untouched.
+     */
+    fun loadCaches(input: InputStream): Boolean {
+        val loaded = DFASnapshots.read(input, atns.first, atns.second, antlrCaches.epoch + 1) ?: return false
+        currentCaches.getAndSet(loaded)?.markCleared()
+        return true
+    }
+
+    fun loadCaches(file: File): Boolean = file.inputStream().use { loadCaches(it) }
 }
+
+/**
+ * A [ParserATNSimulator] remembering the [ANTLRCaches] it uses, so that a parsing operation is recorded against the
+ * caches which actually did the parsing, even if they are replaced in the meantime.
+ */
+private class CachingParserATNSimulator(
+    parser: Parser,
+    val caches: ANTLRCaches,
+) : ParserATNSimulator(parser, parser.atn, caches.parserDecisionToDFA, caches.predictionContextCache)
@@ -126,8 +126,20 @@ class LexingResult<T : KolasuToken>(
     }
 }
 
+/**
+ * The prediction mode with which the first stage of parsing succeeded, when parsing in two stages: first with the
+ * faster SLL prediction, then, only if that fails, with full LL prediction.
+ */
+enum class PredictionStage {
+    SLL,
+    LL,
+}
+
 /**
  * The result of first-stage parsing: from source code to a parse tree.
+ *
+ * When parsing in two stages, [predictionStage] is the stage that produced the parse tree, while [sllTime] and
+ * [llTime] are the times spent in each stage, the latter being null if the first stage succeeded.
  */
 class FirstStageParsingResult<C : ParserRuleContext>(
     issues: List<Issue>,
@@ -137,6 +149,9 @@ class FirstStageParsingResult<C : ParserRuleContext>(
     val time: Long? = null,
     val lexingTime: Long? = null,
     source: Source? = null,
+    val predictionStage: PredictionStage? = null,
+    val sllTime: Long? = null,
+    val llTime: Long? = null,
 ) : CodeProcessingResult<C>(issues, root, code, source) {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
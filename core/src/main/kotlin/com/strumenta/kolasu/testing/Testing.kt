@@ -181,7 +181,7 @@ fun assertASTsAreEqual(
     considerPosition: Boolean = false,
     useLightweightAttributeEquality: Boolean = false,
 ) {
-    if (expected.nodeType == actual.nodeType) {
+    if (expected.nodeTypeId == actual.nodeTypeId) {
         if (considerPosition) {
             assertEquals(expected.position, actual.position, "$context.position")
         }
@@ -34,6 +34,7 @@ fun Node.searchByPosition(
 ): Sequence<Node> {
     val contains = this.contains(position)
     if (!selfContained || contains) {
+        val children = this.children
         if (children.isEmpty()) {
             return if (contains) sequenceOf(this) else emptySequence()
         } else {
@@ -72,7 +73,35 @@ fun Node.walkWithin(position: Position): Sequence<Node> =
  * @return walks the AST within the given [position] starting from each node
  * and concatenates all results in a single sequence
  */
-fun List<Node>.walkWithin(position: Position): Sequence<Node> =
-    this
-        .map { it.walkWithin(position) }
-        .reduceOrNull { previous, current -> previous + current } ?: emptySequence()
+fun List<Node>.walkWithin(position: Position): Sequence<Node> = this.asSequence().flatMap { it.walkWithin(position) }
+
+/**
+ * Like [findByPosition], but using the given [index], which must include this node.
+ *
+ * @return the innermost node, in the subtree of this node, whose position contains the given [position].
+ */
+fun Node.findByPosition(
+    position: Position,
+    index: PositionIndex,
+): Node? = index.innermostContaining(position, this)
+
+/**
+ * Like [searchByPosition], but using the given [index], which must include this node.
+ *
+ * @return all nodes, in the subtree of this node, whose position contains the given [position], from the outermost
+ * to the innermost.
+ */
+fun Node.searchByPosition(
+    position: Position,
+    index: PositionIndex,
+): Sequence<Node> = index.containing(position, this).asSequence()
+
+/**
+ * Like [walkWithin], but using the given [index], which must include this node.
+ *
+ * @return the nodes, in the subtree of this node, whose position is contained in the given [position], depth-first.
+ */
+fun Node.walkWithin(
+    position: Position,
+    index: PositionIndex,
+): Sequence<Node> = index.within(position, this).asSequence()
@@ -0,0 +1,250 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.BaseASTNode
+import java.util.IdentityHashMap
+
+/**
+ * An immutable snapshot of the structure of an AST, meant for analyses which traverse the same tree many times.
+ *
+ * The nodes are stored in an array, in pre-order (the same order of [walk]), together with parallel arrays holding
+ * the index of the parent, the end of the subtree, the depth and the type id (see [BaseASTNode.nodeTypeId]) of each
+ * node. The descendants of a node are therefore the contiguous range of indexes starting right after the node and
+ * ending before [subtreeEnd]: checking whether a node is an ancestor of another takes constant time, and
+ * traversals are plain scans of the arrays, with no allocations.
+ *
+ * The snapshot does not observe the AST: changes made to the tree after [freeze] are not reflected.
+ */
+class FrozenAst private constructor(
+    private val nodes: Array<BaseASTNode>,
+    private val parents: IntArray,
+    private val subtreeEnds: IntArray,
+    private val depths: IntArray,
+    private val typeIds: IntArray,
+) {
+    private val indexes = IdentityHashMap<BaseASTNode, Int>(nodes.size)
+
+    init {
+        nodes.forEachIndexed { index, node -> indexes[node] = index }
+    }
+
+    /**
+     * The nodes, in pre-order. The list supports random access and efficient splitting for parallel streams.
+     */
+    val nodeList: List<BaseASTNode> = nodes.asList()
+
+    val size: Int
+        get() = nodes.size
+
+    val root: BaseASTNode
+        get() = nodes[0]
+
+    fun node(index: Int): BaseASTNode = nodes[index]
+
+    /**
+     * @return the index of the given node, or -1 if it is not part of this snapshot.
+     */
+    fun indexOf(node: BaseASTNode): Int = indexes[node] ?: -1
+
+    /**
+     * @return the index of the parent of the node at the given index, or -1 for the root.
+     */
+    fun parentIndex(index: Int): Int = parents[index]
+
+    /**
+     * @return the index following the last descendant of the node at the given index.
+     */
+    fun subtreeEnd(index: Int): Int = subtreeEnds[index]
+
+    /**
+     * @return the depth of the node at the given index. The root has depth zero.
+     */
+    fun depth(index: Int): Int = depths[index]
+
+    /**
+     * @return the type id of the node at the given index.
+     */
+    fun typeId(index: Int): Int = typeIds[index]
+
+    fun parent(node: BaseASTNode): BaseASTNode? {
+        val parentIndex = parents[requireIndexOf(node)]
+        return if (parentIndex == -1) null else nodes[parentIndex]
+    }
+
+    fun depth(node: BaseASTNode): Int = depths[requireIndexOf(node)]
+
+    /**
+     * @return true if [descendant] is contained in the subtree of [ancestor], excluding [ancestor] itself.
+     */
+    fun isAncestorOf(
+        ancestor: Int,
+        descendant: Int,
+    ): Boolean = ancestor < descendant && descendant < subtreeEnds[ancestor]
+
+    /**
+     * @return true if [descendant] is contained in the subtree of [ancestor], excluding [ancestor] itself.
+     */
+    fun isAncestorOf(
+        ancestor: BaseASTNode,
+        descendant: BaseASTNode,
+    ): Boolean {
+        val ancestorIndex = indexOf(ancestor)
+        val descendantIndex = indexOf(descendant)
+        return ancestorIndex != -1 && descendantIndex != -1 && isAncestorOf(ancestorIndex, descendantIndex)
+    }
+
+    /**
+     * @return the given node and all its descendants, in pre-order.
+     */
+    fun subtree(node: BaseASTNode = root): List<BaseASTNode> {
+        val index = requireIndexOf(node)
+        return nodeList.subList(index, subtreeEnds[index])
+    }
+
+    /**
+     * @return the descendants of the given node, in pre-order.
+     */
+    fun descendants(node: BaseASTNode = root): List<BaseASTNode> {
+        val index = requireIndexOf(node)
+        return nodeList.subList(index + 1, subtreeEnds[index])
+    }
+
+    /**
+     * Traverses the subtree of the given node, in pre-order, like [BaseASTNode.walk].
+     */
+    fun walk(node: BaseASTNode = root): Sequence<BaseASTNode> = subtree(node).asSequence()
+
+    /**
+     * Invokes [action] on each direct child of the node at the given index, in order.
+     */
+    fun forEachChild(
+        index: Int,
+        action: (childIndex: Int) -> Unit,
+    ) {
+        var child = index + 1
+        val end = subtreeEnds[index]
+        while (child < end) {
+            action(child)
+            child = subtreeEnds[child]
+        }
+    }
+
+    fun children(node: BaseASTNode): List<BaseASTNode> {
+        val children = mutableListOf<BaseASTNode>()
+        forEachChild(requireIndexOf(node)) { children.add(nodes[it]) }
+        return children
+    }
+
+    /**
+     * @return the nodes in the subtree of the given node (including the node itself) which are instances of [klass],
+     * in pre-order.
+     */
+    fun <T> searchByType(
+        klass: Class<T>,
+        node: BaseASTNode = root,
+    ): Sequence<T> {
+        val start = requireIndexOf(node)
+        val end = subtreeEnds[start]
+        return (start until end).asSequence().map { nodes[it] }.filterIsInstance(klass)
+    }
+
+    /**
+     * @return the nodes in the subtree of the given node (including the node itself) which are instances of [klass],
+     * in pre-order.
+     */
+    fun <T> collectByType(
+        klass: Class<T>,
+        node: BaseASTNode = root,
+    ): List<T> {
+        val start = requireIndexOf(node)
+        val result = mutableListOf<T>()
+        for (i in start until subtreeEnds[start]) {
+            val candidate = nodes[i]
+            if (klass.isInstance(candidate)) {
+                result.add(klass.cast(candidate))
+            }
+        }
+        return result
+    }
+
+    /**
+     * @return the indexes of the nodes in the subtree of the node at the given index (including the node itself)
+     * having the given type id, in pre-order.
+     */
+    fun indexesOfTypeId(
+        typeId: Int,
+        index: Int = 0,
+    ): IntArray {
+        val end = subtreeEnds[index]
+        var count = 0
+        for (i in index until end) {
+            if (typeIds[i] == typeId) {
+                count++
+            }
+        }
+        val result = IntArray(count)
+        var next = 0
+        for (i in index until end) {
+            if (typeIds[i] == typeId) {
+                result[next++] = i
+            }
+        }
+        return result
+    }
+
+    private fun requireIndexOf(node: BaseASTNode): Int {
+        val index = indexOf(node)
+        require(index != -1) { "The node ${node.nodeType} is not part of this AST" }
+        return index
+    }
+
+    companion object {
+        /**
+         * Builds the snapshot of the AST having the given root.
+         */
+        @JvmStatic
+        fun of(root: BaseASTNode): FrozenAst {
+            val nodes = ArrayList<BaseASTNode>()
+            val parents = IntStack()
+            val stack = ArrayList<BaseASTNode>()
+            val stackParents = IntStack()
+            val childNodes = ArrayList<BaseASTNode>()
+            stack.add(root)
+            stackParents.push(-1)
+            while (stack.isNotEmpty()) {
+                val node = stack.removeAt(stack.size - 1)
+                val index = nodes.size
+                nodes.add(node)
+                parents.push(stackParents.pop())
+                node.forEachChild { childNodes.add(it) }
+                for (i in childNodes.size - 1 downTo 0) {
+                    stack.add(childNodes[i])
+                    stackParents.push(index)
+                }
+                childNodes.clear()
+            }
+            val size = nodes.size
+            val parentArray = parents.toIntArray()
+            val subtreeEnds = IntArray(size) { it + 1 }
+            val depths = IntArray(size)
+            val typeIds = IntArray(size)
+            // In pre-order the last descendant of a node is the last node of its last child's subtree
+            for (i in size - 1 downTo 1) {
+                val parent = parentArray[i]
+                if (subtreeEnds[i] > subtreeEnds[parent]) {
+                    subtreeEnds[parent] = subtreeEnds[i]
+                }
+            }
+            for (i in 0 until size) {
+                val parent = parentArray[i]
+                depths[i] = if (parent == -1) 0 else depths[parent] + 1
+                typeIds[i] = nodes[i].nodeTypeId
+            }
+            return FrozenAst(nodes.toTypedArray(), parentArray, subtreeEnds, depths, typeIds)
+        }
+    }
+}
+
+/**
+ * @return an immutable snapshot of the AST having this node as root. See [FrozenAst].
+ */
+fun BaseASTNode.freeze(): FrozenAst = FrozenAst.of(this)
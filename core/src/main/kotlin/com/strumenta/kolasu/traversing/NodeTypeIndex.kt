@@ -0,0 +1,169 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.BaseASTNode
+import java.lang.ref.Reference
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * An index of the nodes of an AST by type, built in a single traversal of the tree.
+ *
+ * Each node is recorded under its class and under all the supertypes of its class, including interfaces (such as
+ * the ones marked with [com.strumenta.kolasu.model.NodeType]), so looking up the nodes of any type does not require
+ * traversing the tree. The nodes of each type are kept in document order, i.e., the order of [walk].
+ *
+ * Once attached to the root of an AST with [attachNodeTypeIndex], the index is used transparently by [searchByType],
+ * [collectByType], [walkDescendants] and [com.strumenta.kolasu.model.processNodesOfType], when invoked on the root
+ * with the default walker. The functions modifying the AST in [com.strumenta.kolasu.model.Processing] invalidate the
+ * index of the root of the modified tree, which is then rebuilt the next time it is needed; this requires the parents
+ * to be assigned. Modifications made in other ways are not detected: in that case, call [invalidate].
+ */
+class NodeTypeIndex internal constructor(
+    val root: BaseASTNode,
+) {
+    private class Entries(
+        val nodes: List<BaseASTNode>,
+        val nodesByType: Map<Class<*>, List<BaseASTNode>>,
+    )
+
+    @Volatile
+    private var entries: Entries? = null
+
+    /**
+     * True when the index reflects the current content of the tree, false when it will be rebuilt at the next lookup.
+     */
+    val isValid: Boolean
+        get() = entries != null
+
+    /**
+     * @return the nodes of the tree, including the root, which are instances of [klass], in document order.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> nodesOfType(klass: Class<T>): List<T> {
+        val entries = this.entries ?: build().also { this.entries = it }
+        return if (klass.isAssignableFrom(BaseASTNode::class.java)) {
+            entries.nodes as List<T>
+        } else {
+            (entries.nodesByType[klass] ?: emptyList()) as List<T>
+        }
+    }
+
+    @Volatile
+    private var registration: Reference<NodeTypeIndex>? = null
+
+    internal fun registerAttachment() {
+        val reference = WeakReference(this, collected)
+        registration = reference
+        registrations.add(reference)
+    }
+
+    internal fun unregisterAttachment() {
+        registration?.let {
+            registrations.remove(it)
+            it.clear()
+        }
+        registration = null
+    }
+
+    /**
+     * Discards the content of the index, which will be rebuilt the next time it is needed.
+     */
+    fun invalidate() {
+        entries = null
+    }
+
+    private fun build(): Entries {
+        val nodes = ArrayList<BaseASTNode>()
+        val nodesByType = HashMap<Class<*>, MutableList<BaseASTNode>>()
+        root.walk().forEach { node ->
+            nodes.add(node)
+            indexedTypes.get(node.javaClass).forEach { type ->
+                nodesByType.getOrPut(type) { ArrayList() }.add(node)
+            }
+        }
+        return Entries(nodes, nodesByType)
+    }
+
+    internal companion object {
+        /**
+         * The indexes currently attached, so that modifications can skip looking for indexes to invalidate when there
+         * is none. They are referenced weakly: the indexes of trees garbage collected without being detached are
+         * removed when their references are enqueued in [collected].
+         */
+        private val registrations: MutableSet<Reference<NodeTypeIndex>> = ConcurrentHashMap.newKeySet()
+        private val collected = ReferenceQueue<NodeTypeIndex>()
+
+        /**
+         * @return true if some index may still be attached to a tree.
+         */
+        fun anyAttached(): Boolean {
+            while (true) {
+                val reference = collected.poll() ?: break
+                registrations.remove(reference)
+            }
+            return registrations.isNotEmpty()
+        }
+
+        /**
+         * The types under which the nodes of each class are recorded: the class and all its supertypes, except
+         * for the ones of BaseASTNode, which every node is an instance of.
+         */
+        private val indexedTypes =
+            object : ClassValue<List<Class<*>>>() {
+                override fun computeValue(type: Class<*>): List<Class<*>> {
+                    val types = LinkedHashSet<Class<*>>()
+                    val toVisit = ArrayDeque<Class<*>>()
+                    toVisit.add(type)
+                    while (toVisit.isNotEmpty()) {
+                        val current = toVisit.removeFirst()
+                        if (!current.isAssignableFrom(BaseASTNode::class.java) && types.add(current)) {
+                            current.superclass?.let { toVisit.add(it) }
+                            toVisit.addAll(current.interfaces)
+                        }
+                    }
+                    return types.toList()
+                }
+            }
+    }
+}
+
+/**
+ * Builds a [NodeTypeIndex] for the tree having this node as root, and attaches it to this node, replacing any index
+ * previously attached.
+ */
+fun BaseASTNode.attachNodeTypeIndex(): NodeTypeIndex {
+    val index = NodeTypeIndex(this)
+    attachedNodeTypeIndex()?.unregisterAttachment()
+    index.registerAttachment()
+    attachNodeTypeIndex(index)
+    return index
+}
+
+fun BaseASTNode.detachNodeTypeIndex() {
+    attachedNodeTypeIndex()?.let {
+        it.unregisterAttachment()
+        attachNodeTypeIndex(null)
+    }
+}
+
+/**
+ * The [NodeTypeIndex] attached to this node, if any.
+ */
+val BaseASTNode.nodeTypeIndex: NodeTypeIndex?
+    get() = attachedNodeTypeIndex()
+
+/**
+ * Invalidates the indexes attached to this node or to any of its ancestors, after the subtree of this node has
+ * been modified.
+ */
+internal fun BaseASTNode.invalidateNodeTypeIndexes() {
+    if (!NodeTypeIndex.anyAttached()) {
+        return
+    }
+    var node: BaseASTNode? = this
+    while (node != null) {
+        node.attachedNodeTypeIndex()?.invalidate()
+        node = node.parent
+    }
+}
@@ -0,0 +1,296 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.Point
+import com.strumenta.kolasu.model.Position
+
+/**
+ * An index of the nodes of an AST by position, built once and then used to answer many queries, e.g., from an
+ * editor or a language server.
+ *
+ * The nodes having a position are sorted by start point, and two segment trees keep the maximum and the minimum end
+ * point of each range of nodes. Queries look for the range of candidate nodes by binary search and then only descend
+ * into the segments which can contain results: finding k nodes takes O(k log n), and sorting them O(k log k). When a
+ * query is restricted to a subtree, the nodes outside of it are found too, and discarded afterwards, so the cost
+ * depends on the nodes matching the query in the whole AST. Nodes without a position are not indexed.
+ *
+ * The index is a snapshot: changes made to the tree after building it are not reflected.
+ */
+class PositionIndex private constructor(
+    /**
+     * The structure of the indexed AST, used to restrict queries to subtrees and to order the results.
+     */
+    val ast: FrozenAst,
+) {
+    private val nodeIndexes: IntArray
+    private val starts: LongArray
+    private val ends: LongArray
+    private val leaves: Int
+    private val maxEnds: LongArray
+    private val minEnds: LongArray
+
+    init {
+        val withPosition = (0 until ast.size).filter { ast.node(it).position != null }
+        val sorted =
+            withPosition.sortedWith(
+                compareBy<Int> { key(ast.node(it).position!!.start) }
+                    .thenByDescending { key(ast.node(it).position!!.end) }
+                    .thenBy { it },
+            )
+        nodeIndexes = sorted.toIntArray()
+        starts = LongArray(sorted.size) { key(ast.node(sorted[it]).position!!.start) }
+        ends = LongArray(sorted.size) { key(ast.node(sorted[it]).position!!.end) }
+        var capacity = 1
+        while (capacity < sorted.size) {
+            capacity *= 2
+        }
+        leaves = capacity
+        maxEnds = LongArray(2 * capacity) { Long.MIN_VALUE }
+        minEnds = LongArray(2 * capacity) { Long.MAX_VALUE }
+        for (i in ends.indices) {
+            maxEnds[capacity + i] = ends[i]
+            minEnds[capacity + i] = ends[i]
+        }
+        for (i in capacity - 1 downTo 1) {
+            maxEnds[i] = maxOf(maxEnds[2 * i], maxEnds[2 * i + 1])
+            minEnds[i] = minOf(minEnds[2 * i], minEnds[2 * i + 1])
+        }
+    }
+
+    val root: BaseASTNode
+        get() = ast.root
+
+    /**
+     * @return the nodes in the subtree of [from] whose position contains [position], from the outermost to the
+     * innermost.
+     */
+    @JvmOverloads
+    fun containing(
+        position: Position,
+        from: BaseASTNode = root,
+    ): List<BaseASTNode> {
+        val result = IntStack()
+        // Candidates start before the position, and only the ones ending after it contain it
+        val candidates = upperBound(key(position.start))
+        collectWithMaxEndAtLeast(1, 0, leaves, candidates, key(position.end), result)
+        return toNodes(result, from) { a, b -> compareValuesBy(a, b, { ast.depth(it) }, { it }) }
+    }
+
+    /**
+     * @return the innermost node in the subtree of [from] whose position contains [position], or null if there is
+     * none. When several nodes at the same depth contain the position, the first one is returned.
+     */
+    @JvmOverloads
+    fun innermostContaining(
+        position: Position,
+        from: BaseASTNode = root,
+    ): BaseASTNode? = containing(position, from).maxWithOrNull(compareBy { ast.depth(it) })
+
+    /**
+     * @return the innermost node in the subtree of [from] whose position contains [point], or null if there is none.
+     */
+    @JvmOverloads
+    fun innermostAt(
+        point: Point,
+        from: BaseASTNode = root,
+    ): BaseASTNode? = innermostContaining(Position(point, point), from)
+
+    /**
+     * @return the nodes in the subtree of [from] whose position overlaps [position], in the order of [walk].
+     */
+    @JvmOverloads
+    fun overlapping(
+        position: Position,
+        from: BaseASTNode = root,
+    ): List<BaseASTNode> {
+        val result = IntStack()
+        val candidates = upperBound(key(position.end))
+        collectWithMaxEndAtLeast(1, 0, leaves, candidates, key(position.start), result)
+        return toNodes(result, from) { a, b -> a.compareTo(b) }
+    }
+
+    /**
+     * @return the nodes in the subtree of [from] whose position is contained in [position], in the order of [walk].
+     * As in [walkWithin], the descendants of the nodes which have no position or do not overlap [position] are not
+     * considered.
+     */
+    @JvmOverloads
+    fun within(
+        position: Position,
+        from: BaseASTNode = root,
+    ): List<BaseASTNode> = within(position, from, false)
+
+    /**
+     * Like [within], but when [descendIntoPositionless] is true, the descendants of the nodes without a position are
+     * considered, as in the traversal performed by a [CompiledQuery].
+     */
+    internal fun within(
+        position: Position,
+        from: BaseASTNode,
+        descendIntoPositionless: Boolean,
+    ): List<BaseASTNode> {
+        val result = IntStack()
+        val end = key(position.end)
+        val first = upperBound(key(position.start) - 1)
+        val last = upperBound(end)
+        collectWithMinEndAtMost(1, 0, leaves, first, last, end, result)
+        val subtreeStart = ast.indexOf(from)
+        val descended = HashMap<Int, Boolean>()
+        val descends = { index: Int ->
+            val nodePosition = ast.node(index).position
+            if (nodePosition == null) descendIntoPositionless else nodePosition.overlaps(position)
+        }
+        val keep = { index: Int ->
+            index == subtreeStart || isDescendedInto(ast.parentIndex(index), subtreeStart, descends, descended)
+        }
+        return toNodes(result, from, keep) { a, b -> a.compareTo(b) }
+    }
+
+    /**
+     * @return true if the children of the node at [index] are visited, starting from the node at [subtreeStart],
+     * by a walk descending only into the nodes satisfying [descends]. The results are memoized in [memo].
+     */
+    private fun isDescendedInto(
+        index: Int,
+        subtreeStart: Int,
+        descends: (Int) -> Boolean,
+        memo: MutableMap<Int, Boolean>,
+    ): Boolean {
+        val pending = IntStack()
+        var current = index
+        var result: Boolean
+        while (true) {
+            val known = memo[current]
+            if (known != null) {
+                result = known
+                break
+            }
+            pending.push(current)
+            if (!descends(current)) {
+                result = false
+                break
+            }
+            if (current == subtreeStart) {
+                result = true
+                break
+            }
+            current = ast.parentIndex(current)
+        }
+        while (!pending.isEmpty()) {
+            memo[pending.pop()] = result
+        }
+        return result
+    }
+
+    /**
+     * @return the number of indexed nodes having a start point lower than or equal to [point].
+     */
+    private fun upperBound(point: Long): Int {
+        var low = 0
+        var high = starts.size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (starts[middle] <= point) {
+                low = middle + 1
+            } else {
+                high = middle
+            }
+        }
+        return low
+    }
+
+    /**
+     * Collects the indexes of the sorted nodes in [0, limit) ending at or after [minEnd].
+     */
+    private fun collectWithMaxEndAtLeast(
+        segment: Int,
+        segmentStart: Int,
+        segmentEnd: Int,
+        limit: Int,
+        minEnd: Long,
+        result: IntStack,
+    ) {
+        if (segmentStart >= limit || maxEnds[segment] < minEnd) {
+            return
+        }
+        if (segment >= leaves) {
+            result.push(segment - leaves)
+            return
+        }
+        val middle = (segmentStart + segmentEnd) ushr 1
+        collectWithMaxEndAtLeast(2 * segment, segmentStart, middle, limit, minEnd, result)
+        collectWithMaxEndAtLeast(2 * segment + 1, middle, segmentEnd, limit, minEnd, result)
+    }
+
+    /**
+     * Collects the indexes of the sorted nodes in [from, limit) ending at or before [maxEnd].
+     */
+    private fun collectWithMinEndAtMost(
+        segment: Int,
+        segmentStart: Int,
+        segmentEnd: Int,
+        from: Int,
+        limit: Int,
+        maxEnd: Long,
+        result: IntStack,
+    ) {
+        if (segmentEnd <= from || segmentStart >= limit || minEnds[segment] > maxEnd) {
+            return
+        }
+        if (segment >= leaves) {
+            result.push(segment - leaves)
+            return
+        }
+        val middle = (segmentStart + segmentEnd) ushr 1
+        collectWithMinEndAtMost(2 * segment, segmentStart, middle, from, limit, maxEnd, result)
+        collectWithMinEndAtMost(2 * segment + 1, middle, segmentEnd, from, limit, maxEnd, result)
+    }
+
+    /**
+     * Converts the indexes of sorted nodes to the corresponding nodes, keeping the ones in the subtree of [from]
+     * whose index in [ast] satisfies [keep], sorted according to their index in [ast].
+     */
+    private fun toNodes(
+        sortedIndexes: IntStack,
+        from: BaseASTNode,
+        keep: (Int) -> Boolean = { true },
+        comparator: Comparator<Int>,
+    ): List<BaseASTNode> {
+        val subtreeStart = ast.indexOf(from)
+        require(subtreeStart != -1) { "The node ${from.nodeType} is not part of this AST" }
+        val subtreeEnd = ast.subtreeEnd(subtreeStart)
+        val astIndexes = ArrayList<Int>(sortedIndexes.size)
+        sortedIndexes.toIntArray().forEach {
+            val astIndex = nodeIndexes[it]
+            if (astIndex in subtreeStart until subtreeEnd && keep(astIndex)) {
+                astIndexes.add(astIndex)
+            }
+        }
+        astIndexes.sortWith(comparator)
+        return astIndexes.map { ast.node(it) }
+    }
+
+    companion object {
+        /**
+         * Builds the position index of the AST having the given root.
+         */
+        @JvmStatic
+        fun of(root: BaseASTNode): PositionIndex = PositionIndex(FrozenAst.of(root))
+
+        /**
+         * Builds the position index of the given snapshot.
+         */
+        @JvmStatic
+        fun of(ast: FrozenAst): PositionIndex = PositionIndex(ast)
+
+        /**
+         * Encodes a point in a long, preserving the order of points.
+         */
+        private fun key(point: Point): Long = (point.line.toLong() shl 32) or (point.column.toLong() and 0xFFFFFFFFL)
+    }
+}
+
+/**
+ * @return a [PositionIndex] for the AST having this node as root.
+ */
+fun BaseASTNode.buildPositionIndex(): PositionIndex = PositionIndex.of(this)
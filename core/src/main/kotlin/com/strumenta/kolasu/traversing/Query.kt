@@ -0,0 +1,417 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.BaseASTNode
+import com.strumenta.kolasu.model.Position
+import com.strumenta.kolasu.model.ReferenceByName
+import kotlin.reflect.KClass
+
+/**
+ * The relation between the nodes matched by a step of a [Query] and the nodes matched by the previous step, or the
+ * root of the query for the first step.
+ */
+enum class QueryAxis {
+    CHILD,
+    DESCENDANT,
+}
+
+/**
+ * How a [CompiledQuery] finds the candidate nodes for its last step.
+ */
+enum class QueryStrategy {
+    /**
+     * The nodes within the position of the query are taken from a [PositionIndex].
+     */
+    POSITION_INDEX,
+
+    /**
+     * The nodes of the type of the last step are taken from the [NodeTypeIndex] attached to the root.
+     */
+    NODE_TYPE_INDEX,
+
+    /**
+     * The tree is traversed, skipping the subtrees outside the position of the query, if any.
+     */
+    WALK,
+}
+
+/**
+ * A step of a [Query]: the nodes it matches are instances of [nodeClass] satisfying all the predicates.
+ */
+class QueryStep internal constructor(
+    val axis: QueryAxis,
+    val nodeClass: Class<*>,
+    private val predicates: List<(BaseASTNode) -> Boolean>,
+) {
+    fun matches(node: BaseASTNode): Boolean = nodeClass.isInstance(node) && predicates.all { it(node) }
+
+    internal fun withPredicate(predicate: (BaseASTNode) -> Boolean) = QueryStep(axis, nodeClass, predicates + predicate)
+
+    override fun toString(): String {
+        val separator = if (axis == QueryAxis.CHILD) "/" else "//"
+        val filter = if (predicates.isEmpty()) "" else "[${predicates.size} predicate(s)]"
+        return "$separator${nodeClass.simpleName}$filter"
+    }
+}
+
+/**
+ * A query over an AST, made of a sequence of steps, each one selecting nodes of a given type, among the children or
+ * the descendants of the nodes selected by the previous step, which satisfy some predicates. For example, the calls
+ * within procedures whose target is named "foo" are found by:
+ *
+ * ```
+ * Query.descendants<Procedure>()
+ *     .descendants<CallStmt>()
+ *     .referenceNamed("target", Regex("foo"))
+ * ```
+ *
+ * Queries are immutable: each method returns a new query. Before being executed, a query is compiled (see [compile])
+ * into a [CompiledQuery], which can be executed on any number of ASTs, also concurrently.
+ */
+class Query<T : Any> private constructor(
+    val steps: List<QueryStep>,
+    /**
+     * When not null, only the nodes whose position is within this position are returned.
+     */
+    val position: Position? = null,
+) {
+    private val compiled: CompiledQuery<T> by lazy { CompiledQuery(this) }
+
+    fun <N : Any> children(nodeClass: Class<N>): Query<N> =
+        Query(steps + QueryStep(QueryAxis.CHILD, nodeClass, emptyList()), position)
+
+    fun <N : Any> children(nodeClass: KClass<N>): Query<N> = children(nodeClass.java)
+
+    inline fun <reified N : Any> children(): Query<N> = children(N::class.java)
+
+    fun <N : Any> descendants(nodeClass: Class<N>): Query<N> =
+        Query(steps + QueryStep(QueryAxis.DESCENDANT, nodeClass, emptyList()), position)
+
+    fun <N : Any> descendants(nodeClass: KClass<N>): Query<N> = descendants(nodeClass.java)
+
+    inline fun <reified N : Any> descendants(): Query<N> = descendants(N::class.java)
+
+    /**
+     * Restricts the nodes matched by the last step to the ones satisfying [predicate].
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun where(predicate: (T) -> Boolean): Query<T> = withPredicate { predicate(it as T) }
+
+    /**
+     * Restricts the nodes matched by the last step to the ones having a feature named [name] whose value satisfies
+     * [predicate].
+     */
+    fun attribute(
+        name: String,
+        predicate: (Any?) -> Boolean,
+    ): Query<T> =
+        withPredicate { node ->
+            val value = featureValue(node, name)
+            value !== MissingFeature && predicate(value)
+        }
+
+    fun attributeEquals(
+        name: String,
+        value: Any?,
+    ): Query<T> = attribute(name) { it == value }
+
+    /**
+     * Restricts the nodes matched by the last step to the ones having a reference named [name] satisfying
+     * [predicate]. For references with multiple values, at least one of them should satisfy [predicate].
+     */
+    fun reference(
+        name: String,
+        predicate: (ReferenceByName<*>) -> Boolean,
+    ): Query<T> =
+        withPredicate { node ->
+            when (val value = featureValue(node, name)) {
+                is ReferenceByName<*> -> predicate(value)
+                is Collection<*> -> value.any { it is ReferenceByName<*> && predicate(it) }
+                else -> false
+            }
+        }
+
+    fun referenceNamed(
+        name: String,
+        regex: Regex,
+    ): Query<T> = reference(name) { regex.matches(it.name) }
+
+    fun referenceTo(
+        name: String,
+        target: BaseASTNode,
+    ): Query<T> = reference(name) { it.referred === target }
+
+    /**
+     * Only returns the nodes whose position is within [position].
+     */
+    fun within(position: Position): Query<T> = Query(steps, position)
+
+    /**
+     * @return the compiled form of this query. The query is only compiled once, the first time it is needed.
+     */
+    fun compile(): CompiledQuery<T> = compiled
+
+    /**
+     * @return the nodes in the tree of [root] matched by this query. See [CompiledQuery.execute].
+     */
+    @JvmOverloads
+    fun execute(
+        root: BaseASTNode,
+        positionIndex: PositionIndex? = null,
+    ): List<T> = compiled.execute(root, positionIndex)
+
+    override fun toString(): String {
+        val path = steps.joinToString("")
+        return if (position == null) "Query($path)" else "Query($path within $position)"
+    }
+
+    private fun withPredicate(predicate: (BaseASTNode) -> Boolean): Query<T> =
+        Query(steps.dropLast(1) + steps.last().withPredicate(predicate), position)
+
+    companion object {
+        @JvmStatic
+        fun <N : Any> children(nodeClass: Class<N>): Query<N> =
+            Query(listOf(QueryStep(QueryAxis.CHILD, nodeClass, emptyList())))
+
+        fun <N : Any> children(nodeClass: KClass<N>): Query<N> = children(nodeClass.java)
+
+        inline fun <reified N : Any> children(): Query<N> = children(N::class.java)
+
+        @JvmStatic
+        fun <N : Any> descendants(nodeClass: Class<N>): Query<N> =
+            Query(listOf(QueryStep(QueryAxis.DESCENDANT, nodeClass, emptyList())))
+
+        fun <N : Any> descendants(nodeClass: KClass<N>): Query<N> = descendants(nodeClass.java)
+
+        inline fun <reified N : Any> descendants(): Query<N> = descendants(N::class.java)
+
+        private object MissingFeature
+
+        private fun featureValue(
+            node: BaseASTNode,
+            name: String,
+        ): Any? {
+            val metadata = node.nodeMetadata
+            if (metadata.customProperties) {
+                val property = node.properties.find { it.name == name } ?: return MissingFeature
+                return property.value
+            }
+            val feature = metadata.feature(name) ?: return MissingFeature
+            return feature.getValue(node)
+        }
+    }
+}
+
+/**
+ * A [Query] ready to be executed.
+ *
+ * Nodes are matched from the last step backwards, like CSS selectors: the candidates for the last step are obtained
+ * in document order, then the path from the root to each candidate is checked against the previous steps. Depending
+ * on what is available, the candidates come from a [PositionIndex], from the [NodeTypeIndex] attached to the root,
+ * or from a single traversal of the tree (see [QueryStrategy]). Using an index only visits the candidates and their
+ * ancestors, which requires the parents of the nodes to be assigned, unless they come from a [PositionIndex], whose
+ * [FrozenAst] is used instead. A traversal does not need the parents: when a candidate taken from a [NodeTypeIndex]
+ * does not reach the root through its parents, the tree is traversed instead.
+ */
+class CompiledQuery<T : Any> internal constructor(
+    val query: Query<T>,
+) {
+    private val steps = query.steps.toTypedArray()
+    private val lastStep = steps.last()
+    private val position = query.position
+
+    /**
+     * @return the strategy used to execute the query on the tree of [root].
+     */
+    @JvmOverloads
+    fun strategyFor(
+        root: BaseASTNode,
+        positionIndex: PositionIndex? = null,
+    ): QueryStrategy =
+        when {
+            position != null && positionIndex != null -> QueryStrategy.POSITION_INDEX
+            root.nodeTypeIndex != null -> QueryStrategy.NODE_TYPE_INDEX
+            else -> QueryStrategy.WALK
+        }
+
+    /**
+     * @return the nodes in the tree of [root], excluding the root itself, matched by the query, in document order.
+     * [positionIndex] is only used by queries restricted to a position, and it should include [root].
+     */
+    @JvmOverloads
+    fun execute(
+        root: BaseASTNode,
+        positionIndex: PositionIndex? = null,
+    ): List<T> {
+        val results = ArrayList<T>()
+        val path = ArrayList<BaseASTNode>()
+        val memo = MatchMemo(steps.size)
+        when (strategyFor(root, positionIndex)) {
+            QueryStrategy.POSITION_INDEX -> {
+                val ast = positionIndex!!.ast
+                positionIndex.within(position!!, root, true).forEach { node ->
+                    if (node !== root && lastStep.nodeClass.isInstance(node)) {
+                        collectIfMatching(root, node, path, memo, results) { ast.parent(it) }
+                    }
+                }
+            }
+            QueryStrategy.NODE_TYPE_INDEX -> {
+                for (node in root.nodeTypeIndex!!.nodesOfType(lastStep.nodeClass)) {
+                    if (node is BaseASTNode && node !== root && isWithinPosition(node) &&
+                        !collectIfMatching(root, node, path, memo, results) { it.parent }
+                    ) {
+                        // The parents have not been assigned, so the tree is traversed instead
+                        results.clear()
+                        walk(root, path, memo, results)
+                        break
+                    }
+                }
+            }
+            QueryStrategy.WALK -> walk(root, path, memo, results)
+        }
+        return results
+    }
+
+    private fun walk(
+        root: BaseASTNode,
+        path: ArrayList<BaseASTNode>,
+        memo: MatchMemo,
+        results: ArrayList<T>,
+    ) {
+        TreeCursor.withCursor(root) { cursor ->
+            while (true) {
+                val node = cursor.node
+                val depth = cursor.depth
+                while (path.size > depth) {
+                    path.removeAt(path.size - 1)
+                }
+                path.add(node)
+                val overlapping = position == null || node.position == null || position.overlaps(node.position)
+                if (depth > 0 && isWithinPosition(node) && matches(path, memo)) {
+                    @Suppress("UNCHECKED_CAST")
+                    results.add(node as T)
+                }
+                if (!overlapping || !cursor.gotoFirstChild()) {
+                    while (!cursor.gotoNextSibling()) {
+                        if (!cursor.gotoParent()) {
+                            return@withCursor
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds [node] to [results] if the path from [root] to it, obtained going up through [parentOf], matches the query.
+     *
+     * @return false if [root] cannot be reached from [node] going up through [parentOf].
+     */
+    private inline fun collectIfMatching(
+        root: BaseASTNode,
+        node: BaseASTNode,
+        path: ArrayList<BaseASTNode>,
+        memo: MatchMemo,
+        results: ArrayList<T>,
+        parentOf: (BaseASTNode) -> BaseASTNode?,
+    ): Boolean {
+        path.clear()
+        var current: BaseASTNode? = node
+        while (current != null && current !== root) {
+            path.add(current)
+            current = parentOf(current)
+        }
+        if (current == null) {
+            return false
+        }
+        path.add(root)
+        path.reverse()
+        if (matches(path, memo)) {
+            @Suppress("UNCHECKED_CAST")
+            results.add(node as T)
+        }
+        return true
+    }
+
+    private fun isWithinPosition(node: BaseASTNode): Boolean = position == null || position.contains(node.position)
+
+    /**
+     * @return true if the last node in [path], which starts with the root, matches the query.
+     */
+    private fun matches(
+        path: List<BaseASTNode>,
+        memo: MatchMemo,
+    ): Boolean {
+        memo.reset(path.size)
+        return matches(path, path.size - 1, steps.size - 1, memo)
+    }
+
+    /**
+     * @return true if the node at [index] in [path] matches [step] and its ancestors match the previous steps. The
+     * results are recorded in [memo], so that each combination of node and step is checked only once, even when
+     * several descendant steps could match the same ancestors.
+     */
+    private fun matches(
+        path: List<BaseASTNode>,
+        index: Int,
+        step: Int,
+        memo: MatchMemo,
+    ): Boolean {
+        // The root is not matched by any step, so the node matching a step must be at least that deep
+        if (index <= step) {
+            return false
+        }
+        memo[index, step]?.let { return it }
+        val result =
+            when {
+                !steps[step].matches(path[index]) -> false
+                step == 0 -> steps[0].axis == QueryAxis.DESCENDANT || index == 1
+                steps[step].axis == QueryAxis.CHILD -> matches(path, index - 1, step - 1, memo)
+                else -> (index - 1 downTo step).any { matches(path, it, step - 1, memo) }
+            }
+        memo[index, step] = result
+        return result
+    }
+}
+
+/**
+ * The results of [CompiledQuery.matches] for the nodes of a path and the steps of a query. It is reused across the
+ * paths checked by a single execution.
+ */
+private class MatchMemo(
+    private val stepCount: Int,
+) {
+    private var results = ByteArray(0)
+
+    fun reset(pathSize: Int) {
+        val size = pathSize * stepCount
+        if (results.size < size) {
+            results = ByteArray(maxOf(size, 2 * results.size))
+        } else {
+            results.fill(UNKNOWN, 0, size)
+        }
+    }
+
+    operator fun get(
+        index: Int,
+        step: Int,
+    ): Boolean? =
+        when (results[index * stepCount + step]) {
+            MATCH -> true
+            NO_MATCH -> false
+            else -> null
+        }
+
+    operator fun set(
+        index: Int,
+        step: Int,
+        matches: Boolean,
+    ) {
+        results[index * stepCount + step] = if (matches) MATCH else NO_MATCH
+    }
+
+    companion object {
+        private const val UNKNOWN: Byte = 0
+        private const val MATCH: Byte = 1
+        private const val NO_MATCH: Byte = 2
+    }
+}
@@ -19,3 +19,47 @@ fun <T> mutableStackOf(vararg elements: T): Stack<T> {
     stack.pushAll(elements.asList())
     return stack
 }
+
+/**
+ * A stack of primitive ints, used to keep track of positions during traversals without boxing.
+ */
+internal class IntStack(
+    initialCapacity: Int = 16,
+) {
+    private var elements = IntArray(initialCapacity)
+
+    var size: Int = 0
+        private set
+
+    fun isEmpty(): Boolean = size == 0
+
+    fun push(value: Int) {
+        if (size == elements.size) {
+            elements = elements.copyOf(maxOf(1, size * 2))
+        }
+        elements[size++] = value
+    }
+
+    fun pop(): Int {
+        if (size == 0) {
+            throw NoSuchElementException("The stack is empty")
+        }
+        return elements[--size]
+    }
+
+    fun peek(): Int {
+        if (size == 0) {
+            throw NoSuchElementException("The stack is empty")
+        }
+        return elements[size - 1]
+    }
+
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * @return the elements of the stack, from the bottom to the top.
+     */
+    fun toIntArray(): IntArray = elements.copyOf(size)
+}
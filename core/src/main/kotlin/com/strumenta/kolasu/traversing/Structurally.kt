@@ -4,7 +4,6 @@ package com.strumenta.kolasu.traversing
 
 import com.strumenta.kolasu.model.BaseASTNode
 import com.strumenta.kolasu.model.Node
-import java.util.ArrayDeque
 import java.util.WeakHashMap
 import kotlin.reflect.KClass
 import kotlin.reflect.KFunction1
@@ -14,72 +13,12 @@ import kotlin.reflect.KFunction1
  *
  * @return a Sequence representing the Nodes encountered.
  */
-fun BaseASTNode.walk(): Sequence<BaseASTNode> {
-    val stack: Stack<BaseASTNode> = mutableStackOf(this)
-    return generateSequence {
-        if (stack.isEmpty()) {
-            null
-        } else {
-            val next: BaseASTNode = stack.pop()
-            stack.pushAll(next.children)
-            next
-        }
-    }
-}
+fun BaseASTNode.walk(): Sequence<BaseASTNode> = Sequence { TreeCursorIterator(this, leavesFirst = false) }
 
 /**
  * Performs a post-order (or leaves-first) node traversal starting with a given node.
  */
-fun BaseASTNode.walkLeavesFirst(): Sequence<BaseASTNode> {
-    val nodesStack: Stack<List<BaseASTNode>> = mutableStackOf()
-    val cursorStack: Stack<Int> = ArrayDeque()
-    var done = false
-
-    fun nextFromLevel(): BaseASTNode {
-        val nodes: List<BaseASTNode> = nodesStack.peek()
-        val cursor = cursorStack.pop()
-        cursorStack.push(cursor + 1)
-        return nodes[cursor]
-    }
-
-    fun fillStackToLeaf(node: BaseASTNode) {
-        var currentNode: BaseASTNode = node
-        while (true) {
-            val childNodes: List<BaseASTNode> = currentNode.children
-            if (childNodes.isEmpty()) {
-                break
-            }
-            nodesStack.push(childNodes)
-            cursorStack.push(0)
-            currentNode = childNodes[0]
-        }
-    }
-    fillStackToLeaf(this)
-    return generateSequence {
-        if (done) {
-            null
-        } else {
-            val nodes: List<BaseASTNode> = nodesStack.peek()
-            val cursor = cursorStack.peek()
-            val levelHasNext = cursor < nodes.size
-            if (levelHasNext) {
-                val node: BaseASTNode = nodes[cursor]
-                fillStackToLeaf(node)
-                nextFromLevel()
-            } else {
-                nodesStack.pop()
-                cursorStack.pop()
-                val hasNext = !nodesStack.isEmpty()
-                if (hasNext) {
-                    nextFromLevel()
-                } else {
-                    done = true
-                    this
-                }
-            }
-        }
-    }
-}
+fun BaseASTNode.walkLeavesFirst(): Sequence<BaseASTNode> = Sequence { TreeCursorIterator(this, leavesFirst = true) }
 
 /**
  * @return the sequence of nodes from this.parent all the way up to the root node.
@@ -97,19 +36,17 @@ fun BaseASTNode.walkAncestors(): Sequence<BaseASTNode> {
  * @return all direct children of this node.
  */
 fun BaseASTNode.walkChildren(includeDerived: Boolean = false): Sequence<BaseASTNode> =
-    sequence {
-        (
-            if (includeDerived) {
-                this@walkChildren.properties
-            } else {
-                this@walkChildren.originalProperties
-            }
-        ).forEach { property ->
-            when (val value = property.value) {
-                is BaseASTNode -> yield(value)
-                is Collection<*> -> value.forEach { if (it is BaseASTNode) yield(it) }
+    if (includeDerived) {
+        sequence {
+            this@walkChildren.properties.forEach { property ->
+                when (val value = property.value) {
+                    is BaseASTNode -> yield(value)
+                    is Collection<*> -> value.forEach { if (it is BaseASTNode) yield(it) }
+                }
             }
         }
+    } else {
+        Sequence { this.children.iterator() }
     }
 
 /**
@@ -146,7 +83,22 @@ fun BaseASTNode.walkDescendants(
 fun <N : Any> BaseASTNode.walkDescendants(
     type: KClass<N>,
     walker: (BaseASTNode) -> Sequence<BaseASTNode> = BaseASTNode::walk,
-): Sequence<N> = walkDescendants(walker).filterIsInstance(type.java)
+): Sequence<N> {
+    val index = indexFor(walker)
+    return if (index != null) {
+        index.nodesOfType(type.java).asSequence().filter { it !== this }
+    } else {
+        walkDescendants(walker).filterIsInstance(type.java)
+    }
+}
+
+private val defaultWalker: KFunction1<BaseASTNode, Sequence<BaseASTNode>> = BaseASTNode::walk
+
+/**
+ * @return the [NodeTypeIndex] attached to this node, if the nodes are requested in the order produced by [walk],
+ * which is the order of the index.
+ */
+private fun BaseASTNode.indexFor(walker: Any): NodeTypeIndex? = if (walker == defaultWalker) nodeTypeIndex else null
 
 /**
  * Note that type T is not strictly forced to be a Node. This is intended to support
@@ -162,7 +114,9 @@ fun <T> BaseASTNode.findAncestorOfType(klass: Class<T>): T? = walkAncestors().fi
  */
 val BaseASTNode.children: List<BaseASTNode>
     get() {
-        return walkChildren().toList()
+        val children = mutableListOf<BaseASTNode>()
+        forEachChild { children.add(it) }
+        return children
     }
 
 /**
@@ -173,22 +127,32 @@ val Node.childrenByContainment: List<Pair<String, Node>>
         return walkChildrenByContainment().toList()
     }
 
+/**
+ * T is not forced to be a subtype of Node to support using interfaces.
+ *
+ * When a [NodeTypeIndex] is attached to this node and the default walker is used, the nodes are taken from the index.
+ *
+ * @param walker the function that generates the nodes to operate on in the desired sequence.
+ * @return all nodes in this AST (sub)tree that are instances of, or extend [klass].
+ */
 @JvmOverloads
 fun <T> BaseASTNode.searchByType(
     klass: Class<T>,
     walker: KFunction1<BaseASTNode, Sequence<BaseASTNode>> = BaseASTNode::walk,
-) = walker.invoke(this).filterIsInstance(klass)
+): Sequence<T> = indexFor(walker)?.nodesOfType(klass)?.asSequence() ?: walker.invoke(this).filterIsInstance(klass)
 
 /**
  * T is not forced to be a subtype of Node to support using interfaces.
  *
+ * When a [NodeTypeIndex] is attached to this node and the default walker is used, the nodes are taken from the index.
+ *
  * @param walker the function that generates the nodes to operate on in the desired sequence.
  * @return all nodes in this AST (sub)tree that are instances of, or extend [klass].
  */
 fun <T> BaseASTNode.collectByType(
     klass: Class<T>,
     walker: KFunction1<BaseASTNode, Sequence<BaseASTNode>> = BaseASTNode::walk,
-): List<T> = walker.invoke(this).filterIsInstance(klass).toList()
+): List<T> = indexFor(walker)?.nodesOfType(klass)?.toList() ?: walker.invoke(this).filterIsInstance(klass).toList()
 
 /**
  * The FastWalker is a walker that implements a cache to speed up subsequent walks.
@@ -204,7 +168,7 @@ class FastWalker(
         if (childrenMap.containsKey(child)) {
             childrenMap[child]!!
         } else {
-            childrenMap[child] = child.walkChildren().toList()
+            childrenMap[child] = child.children
             childrenMap[child]!!
         }
 
@@ -0,0 +1,250 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.BaseASTNode
+
+/**
+ * A mutable cursor over an AST, moving from node to node without allocating.
+ *
+ * The cursor keeps the children of the nodes on the path from the root to the current node in a single buffer,
+ * together with two stacks of primitive ints recording, for each level, where its children start in the buffer and
+ * which of them is the current one. Once the buffer has grown to fit the widest path, moving the cursor does not
+ * allocate anything, so the same cursor can be reused for many walks (see [reset] and [withCursor]).
+ *
+ * The children of a node are read when the cursor first moves into it, so changes made to a node while the cursor is
+ * below it are not seen. A cursor must not be used by more than one thread at a time.
+ */
+class TreeCursor(
+    root: BaseASTNode,
+) {
+    var root: BaseASTNode = root
+        private set
+
+    /**
+     * The node the cursor is on.
+     */
+    var node: BaseASTNode = root
+        private set
+
+    private val siblings = ArrayList<BaseASTNode>()
+    private val levelStarts = IntStack()
+    private val cursors = IntStack()
+    private val collectChild: (BaseASTNode) -> Unit = { siblings.add(it) }
+
+    /**
+     * The depth of the current node, zero for the root.
+     */
+    val depth: Int
+        get() = cursors.size
+
+    /**
+     * Moves the cursor back to the root, possibly setting a different root.
+     */
+    fun reset(root: BaseASTNode = this.root) {
+        this.root = root
+        this.node = root
+        siblings.clear()
+        levelStarts.clear()
+        cursors.clear()
+    }
+
+    /**
+     * Moves to the first child of the current node.
+     * @return false, without moving, if the current node has no children.
+     */
+    fun gotoFirstChild(): Boolean {
+        val start = siblings.size
+        node.forEachChild(collectChild)
+        if (siblings.size == start) {
+            return false
+        }
+        levelStarts.push(start)
+        cursors.push(start)
+        node = siblings[start]
+        return true
+    }
+
+    /**
+     * Moves to the next sibling of the current node.
+     * @return false, without moving, if the current node is the last child of its parent, or the root.
+     */
+    fun gotoNextSibling(): Boolean {
+        if (cursors.isEmpty()) {
+            return false
+        }
+        // The current level is the deepest one, so its children take the end of the buffer
+        val next = cursors.peek() + 1
+        if (next >= siblings.size) {
+            return false
+        }
+        cursors.pop()
+        cursors.push(next)
+        node = siblings[next]
+        return true
+    }
+
+    /**
+     * Moves to the parent of the current node.
+     * @return false, without moving, if the current node is the root.
+     */
+    fun gotoParent(): Boolean {
+        if (cursors.isEmpty()) {
+            return false
+        }
+        truncateSiblings(levelStarts.pop())
+        cursors.pop()
+        node = if (cursors.isEmpty()) root else siblings[cursors.peek()]
+        return true
+    }
+
+    /**
+     * Moves to the first leaf in the subtree of the current node, following the first child at each level.
+     */
+    fun gotoFirstLeaf() {
+        while (gotoFirstChild()) {
+            // Keep descending
+        }
+    }
+
+    /**
+     * Moves to the node following the current one in pre-order, without leaving the subtree of the root.
+     * @return false when all the nodes have been visited; the cursor is then back on the root.
+     */
+    fun gotoNextPreOrder(): Boolean {
+        if (gotoFirstChild()) {
+            return true
+        }
+        while (true) {
+            if (gotoNextSibling()) {
+                return true
+            }
+            if (!gotoParent()) {
+                return false
+            }
+        }
+    }
+
+    /**
+     * Moves to the node following the current one in post-order. The post-order visit starts from the first leaf
+     * of the root (see [gotoFirstLeaf]).
+     * @return false when the root, which is the last node in post-order, has already been visited.
+     */
+    fun gotoNextPostOrder(): Boolean {
+        if (gotoNextSibling()) {
+            gotoFirstLeaf()
+            return true
+        }
+        return gotoParent()
+    }
+
+    /**
+     * Visits the whole tree of the root in pre-order, the same order of [walk], leaving the cursor on the root.
+     */
+    fun forEachPreOrder(action: (BaseASTNode) -> Unit) {
+        reset()
+        do {
+            action(node)
+        } while (gotoNextPreOrder())
+    }
+
+    /**
+     * Visits the whole tree of the root in post-order, the same order of [walkLeavesFirst], leaving the cursor on
+     * the root.
+     */
+    fun forEachPostOrder(action: (BaseASTNode) -> Unit) {
+        reset()
+        gotoFirstLeaf()
+        do {
+            action(node)
+        } while (gotoNextPostOrder())
+    }
+
+    private fun truncateSiblings(size: Int) {
+        for (i in siblings.size - 1 downTo size) {
+            siblings.removeAt(i)
+        }
+    }
+
+    companion object {
+        private val threadCursor = ThreadLocal<TreeCursor?>()
+
+        /**
+         * Runs [block] with a cursor on [root], reusing the cursor of the current thread when it is not already in
+         * use, so that repeated walks do not allocate.
+         */
+        @JvmStatic
+        fun <R> withCursor(
+            root: BaseASTNode,
+            block: (TreeCursor) -> R,
+        ): R {
+            val cursor = threadCursor.get()
+            if (cursor == null) {
+                // The cursor is either in use by an enclosing walk, or it has never been created
+                val newCursor = TreeCursor(root)
+                return try {
+                    block(newCursor)
+                } finally {
+                    newCursor.reset(DetachedRoot)
+                    threadCursor.set(newCursor)
+                }
+            }
+            threadCursor.set(null)
+            cursor.reset(root)
+            return try {
+                block(cursor)
+            } finally {
+                // The cursor kept by the thread should not keep the tree reachable
+                cursor.reset(DetachedRoot)
+                threadCursor.set(cursor)
+            }
+        }
+    }
+}
+
+/**
+ * The root of the cursors not currently in use.
+ */
+private object DetachedRoot : BaseASTNode()
+
+/**
+ * Iterates over the tree of [root] in pre-order or in post-order. The cursor is moved as soon as a node is returned,
+ * so the children of that node are read before the caller can modify them.
+ */
+internal class TreeCursorIterator(
+    root: BaseASTNode,
+    private val leavesFirst: Boolean,
+) : Iterator<BaseASTNode> {
+    private val cursor = TreeCursor(root)
+    private var hasNext = true
+
+    init {
+        if (leavesFirst) {
+            cursor.gotoFirstLeaf()
+        }
+    }
+
+    override fun hasNext(): Boolean = hasNext
+
+    override fun next(): BaseASTNode {
+        if (!hasNext) {
+            throw NoSuchElementException()
+        }
+        val result = cursor.node
+        hasNext = if (leavesFirst) cursor.gotoNextPostOrder() else cursor.gotoNextPreOrder()
+        return result
+    }
+}
+
+/**
+ * Visits this node and all its descendants in pre-order, the same order of [walk], without building a sequence.
+ */
+fun BaseASTNode.forEachInTree(action: (BaseASTNode) -> Unit) {
+    TreeCursor.withCursor(this) { it.forEachPreOrder(action) }
+}
+
+/**
+ * Visits this node and all its descendants in post-order, the same order of [walkLeavesFirst], without building a
+ * sequence.
+ */
+fun BaseASTNode.forEachInTreeLeavesFirst(action: (BaseASTNode) -> Unit) {
+    TreeCursor.withCursor(this) { it.forEachPostOrder(action) }
+}
@@ -0,0 +1,135 @@
+package com.strumenta.kolasu.diff
+
+import com.strumenta.kolasu.model.Node
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class ASTDiffTest {
+    class Program(
+        val statements: MutableList<Statement>,
+    ) : Node()
+
+    sealed class Statement : Node()
+
+    class Assignment(
+        val name: String,
+        val value: Expression,
+    ) : Statement()
+
+    class Print(
+        val value: Expression,
+    ) : Statement()
+
+    sealed class Expression : Node()
+
+    class Literal(
+        val value: Int,
+    ) : Expression()
+
+    class VariableReference(
+        val name: String,
+    ) : Expression()
+
+    private fun program(vararg statements: Statement) = Program(statements.toMutableList())
+
+    private fun example() =
+        program(
+            Assignment("a", Literal(1)),
+            Print(VariableReference("a")),
+            Assignment("b", Literal(5)),
+        )
+
+    @Test
+    fun identicalTreesHaveNoDifferences() {
+        val source = example()
+        val destination = example()
+        val diff = source.diff(destination)
+        assertTrue(diff.isEmpty)
+        assertEquals(7, diff.mappingCount)
+        assertSame(destination.statements[1], diff.destinationOf(source.statements[1]))
+        assertSame(source, diff.sourceOf(destination))
+    }
+
+    @Test
+    fun changedAttributesAreUpdated() {
+        val source = example()
+        val destination = example()
+        destination.statements[0] = Assignment("a", Literal(2))
+        val diff = source.diff(destination)
+        assertEquals(1, diff.actions.size)
+        val update = assertIs<EditAction.Update>(diff.actions[0])
+        assertEquals("value", update.feature)
+        assertEquals(1, update.oldValue)
+        assertEquals(2, update.newValue)
+        assertSame((source.statements[0] as Assignment).value, update.source)
+        assertSame(destination.statements[0], diff.destinationOf(source.statements[0]))
+    }
+
+    @Test
+    fun newNodesAreInserted() {
+        val source = example()
+        val destination = example()
+        val print = Print(VariableReference("c"))
+        destination.statements.add(print)
+        val diff = source.diff(destination)
+        assertEquals(2, diff.actions.size)
+        val insertPrint = assertIs<EditAction.Insert>(diff.actions[0])
+        assertSame(print, insertPrint.node)
+        assertSame(destination, insertPrint.parent)
+        assertEquals("statements", insertPrint.containment)
+        assertEquals(3, insertPrint.index)
+        val insertReference = assertIs<EditAction.Insert>(diff.actions[1])
+        assertSame(print.value, insertReference.node)
+        assertEquals("value", insertReference.containment)
+        assertNull(diff.sourceOf(print))
+    }
+
+    @Test
+    fun removedNodesAreDeleted() {
+        val source = example()
+        val destination = example()
+        destination.statements.removeAt(2)
+        val diff = source.diff(destination)
+        assertEquals(
+            listOf(source.statements[2], (source.statements[2] as Assignment).value),
+            diff.actions.map { assertIs<EditAction.Delete>(it).node },
+        )
+    }
+
+    @Test
+    fun reorderedNodesAreMoved() {
+        val source = example()
+        val destination = example()
+        val print = destination.statements.removeAt(1)
+        destination.statements.add(0, print)
+        val diff = source.diff(destination)
+        assertEquals(1, diff.actions.size)
+        val move = assertIs<EditAction.Move>(diff.actions[0])
+        assertSame(source.statements[1], move.source)
+        assertSame(print, move.destination)
+        assertEquals(0, move.index)
+    }
+
+    @Test
+    fun largeTreesAreCompared() {
+        fun largeProgram() =
+            Program(
+                MutableList(20_000) {
+                    if (it % 2 == 0) Assignment("v$it", Literal(it)) else Print(VariableReference("v${it - 1}"))
+                },
+            )
+        val source = largeProgram()
+        val destination = largeProgram()
+        destination.statements[10_000] = Assignment("v10000", Literal(-1))
+        destination.statements.removeAt(15_001)
+        val diff = source.diff(destination)
+        assertEquals(
+            listOf("Delete", "Delete", "Update"),
+            diff.actions.map { it.javaClass.simpleName },
+        )
+    }
+}
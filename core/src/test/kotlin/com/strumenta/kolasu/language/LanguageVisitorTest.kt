@@ -0,0 +1,112 @@
+package com.strumenta.kolasu.language
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.NodeType
+import com.strumenta.kolasu.traversing.freeze
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+@NodeType
+interface VisitedStatement
+
+sealed class VisitedNode : Node()
+
+data class VisitedCompilationUnit(
+    val statements: List<VisitedNode> = emptyList(),
+) : VisitedNode()
+
+data class VisitedPrint(
+    val text: String,
+) : VisitedNode(),
+    VisitedStatement
+
+open class VisitedAssignment(
+    val name: String,
+) : VisitedNode(),
+    VisitedStatement
+
+class VisitedIncrement(
+    name: String,
+) : VisitedAssignment(name)
+
+class LanguageVisitorTest {
+    private val language =
+        KolasuLanguage("VisitedLanguage").apply {
+            addClass(VisitedNode::class)
+        }
+
+    @Test
+    fun nodesAreDispatchedToTheHandlerOfTheirClass() {
+        val visitor =
+            language.visitor<String> {
+                on(VisitedPrint::class) { "print ${it.text}" }
+                on(VisitedAssignment::class) { "assign ${it.name}" }
+                on(VisitedCompilationUnit::class) { "cu" }
+            }
+        assertEquals("print a", visitor.visit(VisitedPrint("a")))
+        assertEquals("assign b", visitor.visit(VisitedAssignment("b")))
+        assertEquals("cu", visitor.visit(VisitedCompilationUnit()))
+    }
+
+    @Test
+    fun nodesAreDispatchedToTheNearestSupertype() {
+        val visitor =
+            language.visitor<String> {
+                on<VisitedNode> { "node" }
+                on<VisitedStatement> { "statement" }
+                on<VisitedAssignment> { "assign ${it.name}" }
+            }
+        assertEquals("assign i", visitor.visit(VisitedIncrement("i")))
+        assertEquals("statement", visitor.visit(VisitedPrint("a")))
+        assertEquals("node", visitor.visit(VisitedCompilationUnit()))
+    }
+
+    @Test
+    fun theSuperclassComesBeforeInterfacesAtTheSameDistance() {
+        val visitor =
+            language.visitor<String> {
+                on<VisitedNode> { "node" }
+                on<VisitedStatement> { "statement" }
+            }
+        assertEquals("node", visitor.visit(VisitedPrint("a")))
+    }
+
+    @Test
+    fun nodesWithoutHandlerUseTheFallback() {
+        val withoutFallback = language.visitor<String> { on<VisitedPrint> { "print" } }
+        assertFailsWith<UnsupportedOperationException> { withoutFallback.visit(VisitedCompilationUnit()) }
+
+        val withFallback =
+            language.visitor<String> {
+                on<VisitedPrint> { "print" }
+                otherwise { it.nodeType }
+            }
+        assertEquals(VisitedCompilationUnit::class.qualifiedName, withFallback.visit(VisitedCompilationUnit()))
+    }
+
+    @Test
+    fun nodesOutsideTheLanguageAreDispatched() {
+        class Other : Node()
+
+        val visitor =
+            language.visitor<String> {
+                on<VisitedNode> { "visited" }
+                otherwise { "other" }
+            }
+        assertEquals("other", visitor.visit(Other()))
+        assertEquals("visited", visitor.visit(VisitedPrint("a")))
+    }
+
+    @Test
+    fun frozenAstsAreVisitedUsingTheirTypeIds() {
+        val cu = VisitedCompilationUnit(listOf(VisitedPrint("a"), VisitedIncrement("i")))
+        val visitor =
+            language.visitor<String> {
+                on<VisitedCompilationUnit> { "cu" }
+                on<VisitedPrint> { "print ${it.text}" }
+                on<VisitedAssignment> { "assign ${it.name}" }
+            }
+        assertEquals(listOf("cu", "print a", "assign i"), visitor.visitAll(cu.freeze()))
+    }
+}
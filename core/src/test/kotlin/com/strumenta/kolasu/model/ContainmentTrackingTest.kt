@@ -0,0 +1,81 @@
+package com.strumenta.kolasu.model
+
+import org.junit.After
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class ContainmentTrackingTest {
+    @After
+    fun disableValidation() {
+        ContainmentTracking.validationMode = false
+    }
+
+    private fun tree(): BW {
+        val root = BW(AW("a"), mutableListOf(AW("1"), AW("2"), AW("3")))
+        root.assignParents()
+        return root
+    }
+
+    @Test
+    fun slotsAreRecordedByAssignParents() {
+        val root = tree()
+        assertEquals("a", root.a.containingProperty()?.name)
+        assertEquals(0, root.a.indexInContainingProperty())
+        assertEquals("manyAs", root.manyAs[2].containingProperty()?.name)
+        assertEquals(2, root.manyAs[2].indexInContainingProperty())
+        assertEquals(emptyList(), root.staleContainmentSlots())
+    }
+
+    @Test
+    fun siblingsAcrossContainments() {
+        val root = tree()
+        assertSame(root.manyAs[0], root.a.nextSibling)
+        assertSame(root.a, root.manyAs[0].previousSibling)
+        assertSame(root.manyAs[2], root.manyAs[1].nextSibling)
+        assertNull(root.manyAs[2].nextSibling)
+        assertNull(root.a.previousSibling)
+        assertNull(root.a.nextSamePropertySibling)
+        assertSame(root.manyAs[1], root.manyAs[0].nextSamePropertySibling)
+        assertNull(root.manyAs[0].previousSamePropertySibling)
+    }
+
+    @Test
+    fun slotsAreUpdatedByTreeMutations() {
+        val root = tree()
+        val first = root.manyAs[0]
+        val last = root.manyAs[2]
+        val added = AW("0")
+        first.addSeveralBefore(listOf(added))
+        assertEquals(0, added.indexInContainingProperty())
+        assertEquals(3, last.indexInContainingProperty())
+
+        first.removeFromList()
+        assertNull(first.parent)
+        assertEquals(2, last.indexInContainingProperty())
+
+        val replacement = AW("b")
+        root.a.replaceWith(replacement)
+        assertEquals("a", replacement.containingProperty()?.name)
+        assertEquals(emptyList(), root.staleContainmentSlots())
+    }
+
+    @Test
+    fun untrackedMutationsAreDetected() {
+        val root = tree()
+        val last = root.manyAs[2]
+        root.manyAs.removeAt(0)
+        assertEquals(setOf<Node>(root.manyAs[0], last), root.staleContainmentSlots().toSet())
+
+        // By default, the position is recomputed
+        assertEquals(1, last.indexInContainingProperty())
+        assertEquals(listOf<Node>(root.manyAs[0]), root.staleContainmentSlots())
+
+        ContainmentTracking.validationMode = true
+        assertFailsWith<IllegalStateException> { root.manyAs[0].nextSibling }
+        root.assignParents()
+        assertSame(last, root.manyAs[0].nextSibling)
+    }
+}
@@ -0,0 +1,40 @@
+package com.strumenta.kolasu.model
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+private data class PrivateNode(
+    val child: A,
+    val count: Int,
+) : Node()
+
+class FeatureAccessorsTest {
+    @Test
+    fun accessorForKotlinProperty() {
+        val a = A("1")
+        val b = B(a, listOf(A("2")))
+        assertSame(a, FeatureAccessors.forProperty(B::a).get(b))
+        assertEquals(listOf(A("2")), FeatureAccessors.forProperty(B::manyAs).get(b))
+    }
+
+    @Test
+    fun accessorForPrimitiveValues() {
+        val node = PrivateNode(A("1"), 42)
+        assertEquals(42, FeatureAccessors.forProperty(PrivateNode::count).get(node))
+    }
+
+    @Test
+    fun accessorForNonPublicClass() {
+        val a = A("1")
+        val node = PrivateNode(a, 1)
+        assertSame(a, FeatureAccessors.forGetter(PrivateNode::class.java.getMethod("getChild")).get(node))
+    }
+
+    @Test
+    fun accessorForInheritedProperty() {
+        val node = VarDeclaration("x", IntLit("1"))
+        assertEquals("x", FeatureAccessors.forProperty(VarDeclaration::name).get(node))
+        assertEquals("x", node.nodeMetadata.feature("name")!!.getValue(node))
+    }
+}
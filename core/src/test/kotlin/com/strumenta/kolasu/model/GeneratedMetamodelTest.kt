@@ -0,0 +1,109 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.language.Attribute
+import com.strumenta.kolasu.language.Containment
+import com.strumenta.kolasu.language.Feature
+import com.strumenta.kolasu.language.KolasuLanguage
+import org.junit.Test
+import kotlin.reflect.typeOf
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+data class NodeWithGeneratedMetamodel(
+    val label: String,
+    val child: A?,
+) : Node()
+
+/**
+ * A hand-written equivalent of the descriptor that codegen-ksp would generate for [NodeWithGeneratedMetamodel].
+ */
+private object NodeWithGeneratedMetamodelDescriptor : GeneratedNodeDescriptor {
+    override val nodeClass: Class<*> = NodeWithGeneratedMetamodel::class.java
+
+    override val features: List<FeatureMetadata> =
+        listOf(
+            FeatureMetadata(
+                "label",
+                PropertyType.ATTRIBUTE,
+                Multiplicity.SINGULAR,
+                false,
+                false,
+                FeatureAccessor { (it as NodeWithGeneratedMetamodel).label },
+            ) { typeOf<String>() },
+            FeatureMetadata(
+                "child",
+                PropertyType.CONTAINMENT,
+                Multiplicity.OPTIONAL,
+                false,
+                true,
+                FeatureAccessor { (it as NodeWithGeneratedMetamodel).child },
+            ) { typeOf<A?>() },
+        )
+
+    override val languageFeatures: List<Feature> =
+        listOf(
+            Attribute("label", false, typeOf<String>()),
+            Containment("child", Multiplicity.OPTIONAL, A::class),
+        )
+
+    override val inheritedFeatureNames: Set<String> = emptySet()
+
+    override val astRoot: Boolean = false
+
+    override val constructorParameters: List<String> = listOf("label", "child")
+
+    override val factory: (List<Any?>) -> BaseASTNode = { NodeWithGeneratedMetamodel(it[0] as String, it[1] as A?) }
+
+    override fun forEachChild(
+        node: BaseASTNode,
+        action: (BaseASTNode) -> Unit,
+    ) {
+        (node as NodeWithGeneratedMetamodel).child?.let(action)
+    }
+}
+
+class GeneratedMetamodelTest {
+    init {
+        GeneratedMetamodels.register(
+            object : GeneratedMetamodel {
+                override val descriptors = listOf(NodeWithGeneratedMetamodelDescriptor)
+            },
+        )
+    }
+
+    @Test
+    fun nodeMetadataIsTakenFromTheDescriptor() {
+        val metadata = NodeMetadata.of(NodeWithGeneratedMetamodel::class)
+        assertSame(NodeWithGeneratedMetamodelDescriptor, metadata.descriptor)
+        assertSame(NodeWithGeneratedMetamodelDescriptor.features, metadata.features)
+
+        val child = A("1")
+        val node = NodeWithGeneratedMetamodel("foo", child)
+        assertEquals(listOf("label", "child"), node.properties.map { it.name })
+        assertEquals(listOf(child), node.children)
+        assertEquals("foo", node.getAttributeValue("label"))
+    }
+
+    @Test
+    fun declaredFeaturesAreTakenFromTheDescriptor() {
+        assertEquals(
+            NodeWithGeneratedMetamodelDescriptor.languageFeatures,
+            NodeWithGeneratedMetamodel::class.declaredFeatures(),
+        )
+    }
+
+    @Test
+    fun languageIncludesTheClassesUsedByTheFeatures() {
+        val language = KolasuLanguage("generated")
+        language.addClass(NodeWithGeneratedMetamodel::class)
+        assertTrue(A::class in language.astClasses)
+        assertTrue(String::class in language.primitiveClasses)
+    }
+
+    @Test
+    fun nodesCanBeInstantiatedThroughTheDescriptor() {
+        val node = NodeWithGeneratedMetamodelDescriptor.factory(listOf("foo", null))
+        assertEquals(NodeWithGeneratedMetamodel("foo", null), node)
+    }
+}
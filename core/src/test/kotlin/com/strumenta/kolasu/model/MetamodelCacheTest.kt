@@ -0,0 +1,59 @@
+package com.strumenta.kolasu.model
+
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class MetamodelCacheTest {
+    @Test
+    fun derivedFlagIsPartOfTheKey() {
+        val withDerived = NodeWithDerived::class.declaredFeatures(includeDerived = true).map { it.name }
+        val withoutDerived = NodeWithDerived::class.declaredFeatures().map { it.name }
+        assertTrue("otherCount" in withDerived)
+        assertFalse("otherCount" in withoutDerived)
+        assertEquals(withoutDerived, NodeWithDerived::class.declaredFeatures().map { it.name })
+    }
+
+    @Test
+    fun hitsAndMissesAreCounted() {
+        MetamodelCache.invalidate(VarDeclaration::class)
+        MetamodelCache.resetStatistics()
+        val first = VarDeclaration::class.allFeatures()
+        // Computing the features of a class also looks up the features of its supertypes, so we only count the hits
+        // of the second request
+        val hitsBefore = MetamodelCache.statistics(MetamodelInformation.ALL_FEATURES).hits
+        val second = VarDeclaration::class.allFeatures()
+        assertSame(first, second)
+        val statistics = MetamodelCache.statistics(MetamodelInformation.ALL_FEATURES)
+        assertEquals(1L, statistics.hits - hitsBefore)
+        assertTrue(statistics.misses >= 1)
+        assertTrue(MetamodelCache.statistics().requests >= statistics.requests)
+    }
+
+    @Test
+    fun inheritedFeaturesAreRecognized() {
+        val name = VarDeclaration::class.allFeatures().first { it.name == "name" }
+        val value = VarDeclaration::class.allFeatures().first { it.name == "value" }
+        assertTrue(VarDeclaration::class.isInherited(name))
+        assertFalse(VarDeclaration::class.isInherited(value))
+    }
+
+    @Test
+    fun concurrentRequestsGetTheSameValue() {
+        MetamodelCache.invalidate(MiniCalcFile::class)
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results =
+                executor
+                    .invokeAll((1..32).map { Callable { MiniCalcFile::class.allFeatures() } })
+                    .map { it.get() }
+            results.forEach { assertSame(results.first(), it) }
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
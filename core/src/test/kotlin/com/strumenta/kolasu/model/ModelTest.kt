@@ -1,8 +1,11 @@
 package com.strumenta.kolasu.model
 
 import com.strumenta.kolasu.semantics.Scope
+import io.lionweb.model.AnnotationInstance
+import java.lang.reflect.Proxy
 import kotlin.test.assertContains
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
 import org.junit.Test as test
@@ -185,4 +188,44 @@ class ModelTest {
     fun nameIsProperty() {
         assertTrue { MyNode("").properties.map { it.name }.contains("name") }
     }
+
+    @test
+    fun rarelyUsedInformationIsSetAndReset() {
+        val node = MyNode("a")
+        val other = MyNode("b")
+        assertNull(node.destination)
+        assertEquals(emptyList(), node.annotations)
+        node.destination = other
+        assertEquals(other, node.destination)
+        node.destination = null
+        assertNull(node.destination)
+
+        val source = SyntheticSource("test")
+        node.source = source
+        assertEquals(source, node.source)
+        node.source = null
+        assertNull(node.source)
+        assertEquals(listOf<String>("name"), node.properties.map { it.name })
+    }
+
+    @test
+    fun annotationsCanBeAddedThroughTheList() {
+        val node = MyNode("a")
+        val annotation =
+            Proxy.newProxyInstance(
+                javaClass.classLoader,
+                arrayOf(AnnotationInstance::class.java),
+            ) { proxy, method, args ->
+                when (method.name) {
+                    "equals" -> proxy === args[0]
+                    "hashCode" -> System.identityHashCode(proxy)
+                    else -> null
+                }
+            } as AnnotationInstance
+        node.annotations.add(annotation)
+        assertEquals(listOf(annotation), node.annotations)
+        assertFalse(node.addAnnotation(annotation))
+        assertTrue(node.removeAnnotation(annotation))
+        assertEquals(emptyList(), node.annotations)
+    }
 }
@@ -0,0 +1,72 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.serialization.DynamicNode
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+data class NodeWithDerived(
+    val child: A,
+    val others: MutableList<A> = mutableListOf(),
+    val ref: ReferenceByName<VarDeclaration>? = null,
+) : Node() {
+    @Derived
+    val otherCount: Int
+        get() = others.size
+
+    @Link
+    var linked: A? = null
+}
+
+class NodeMetadataTest {
+    @Test
+    fun metadataIsComputedOncePerClass() {
+        assertSame(NodeMetadata.of(B::class), NodeMetadata.of(B::class.java))
+        assertSame(NodeMetadata.of(B::class), B(A("1"), emptyList()).nodeMetadata)
+    }
+
+    @Test
+    fun featuresAreClassified() {
+        val metadata = NodeMetadata.of(NodeWithDerived::class)
+        assertEquals(listOf("child", "others"), metadata.containments.map { it.name }.sorted())
+        assertEquals(listOf("ref"), metadata.references.map { it.name })
+        assertEquals(listOf("otherCount"), metadata.attributes.map { it.name })
+        assertEquals(listOf("otherCount"), metadata.derivedFeatures.map { it.name })
+        assertNull(metadata.feature("linked"))
+
+        assertEquals(Multiplicity.SINGULAR, metadata.feature("child")!!.multiplicity)
+        assertEquals(Multiplicity.MANY, metadata.feature("others")!!.multiplicity)
+        assertEquals(Multiplicity.OPTIONAL, metadata.feature("ref")!!.multiplicity)
+        assertTrue(metadata.feature("otherCount")!!.derived)
+        assertFalse(metadata.customProperties)
+    }
+
+    @Test
+    fun propertiesAreConsistentWithPropertyDescription() {
+        val node = NodeWithDerived(A("1"), mutableListOf(A("2"), A("3")))
+        val expected = node.nodeProperties.map { PropertyDescription.buildFor(it, node) }.sortedBy { it.name }
+        assertEquals(expected, node.properties.sortedBy { it.name })
+        assertEquals(expected.filter { !it.derived }, node.originalProperties.sortedBy { it.name })
+    }
+
+    @Test
+    fun featureValuesAreReadFromTheNode() {
+        val child = A("1")
+        val node = NodeWithDerived(child, mutableListOf(A("2")))
+        assertSame(child, node.nodeMetadata.feature("child")!!.getValue(node))
+        assertEquals(1, node.nodeMetadata.feature("otherCount")!!.getValue(node))
+        assertEquals(listOf(child), node.getChildren("child"))
+        assertEquals(1, node.getAttributeValue("otherCount"))
+        assertNull(node.getReference("ref"))
+    }
+
+    @Test
+    fun customPropertiesAreRecognized() {
+        val metadata = NodeMetadata.of(DynamicNode::class)
+        assertTrue(metadata.customProperties)
+        assertTrue(metadata.features.isEmpty())
+    }
+}
@@ -0,0 +1,35 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.serialization.DynamicNode
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class NodeTypeDescriptorTest {
+    @Test
+    fun namesAreTakenFromTheClass() {
+        val node = VarDeclaration("a", IntLit("1"))
+        assertEquals("com.strumenta.kolasu.model.VarDeclaration", node.nodeType)
+        assertEquals("VarDeclaration", node.simpleNodeType)
+        assertSame(NodeTypeDescriptor.of(VarDeclaration::class), node.nodeTypeDescriptor)
+        assertSame(node.nodeTypeDescriptor, NodeTypeDescriptor.byId(node.nodeTypeId))
+    }
+
+    @Test
+    fun descriptorsAreSharedByName() {
+        val descriptor = NodeTypeDescriptor.named("com.strumenta.kolasu.model.VarDeclaration")
+        assertSame(NodeTypeDescriptor.of(VarDeclaration::class.java), descriptor)
+        assertNotEquals(descriptor.id, NodeTypeDescriptor.of(IntLit::class).id)
+        assertNull(NodeTypeDescriptor.byId(NodeTypeDescriptor.count))
+    }
+
+    @Test
+    fun overriddenNodeTypeIsRespected() {
+        val node = DynamicNode("my.lang.Statement", emptyList())
+        assertEquals("Statement", node.simpleNodeType)
+        assertSame(NodeTypeDescriptor.named("my.lang.Statement"), node.nodeTypeDescriptor)
+        assertNotEquals(NodeTypeDescriptor.of(DynamicNode::class).id, node.nodeTypeId)
+    }
+}
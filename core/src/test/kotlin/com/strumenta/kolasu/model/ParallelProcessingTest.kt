@@ -0,0 +1,64 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.traversing.walk
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ParallelProcessingTest {
+    private fun wideTree(): BW = BW(AW("a"), MutableList(10_000) { AW("$it") })
+
+    private fun deepTree(): Chain {
+        var current = Chain(null)
+        repeat(50_000) { current = Chain(current) }
+        return current
+    }
+
+    @Test
+    fun allNodesAreProcessed() {
+        val root = wideTree()
+        val count = AtomicInteger()
+        root.parallelProcessNodes({ count.incrementAndGet() }, threshold = 10)
+        assertEquals(10_002, count.get())
+
+        val aws = AtomicInteger()
+        root.parallelProcessNodesOfType(AW::class.java, { aws.incrementAndGet() }, threshold = 10)
+        assertEquals(10_001, aws.get())
+    }
+
+    @Test
+    fun resultsAreMergedInPreOrder() {
+        val root = wideTree()
+        assertEquals(
+            root.walk().filterIsInstance<AW>().map { it.s }.toList(),
+            root.parallelCollect({ (it as? AW)?.s }, threshold = 1),
+        )
+        val deep = deepTree()
+        assertEquals(deep.walk().toList(), deep.parallelCollect({ it }, threshold = 100))
+    }
+
+    @Test
+    fun customVisitor() {
+        val counter =
+            object : ParallelVisitor<Int>(threshold = 5) {
+                override fun createAccumulator() = 0
+
+                override fun visit(
+                    node: Node,
+                    accumulator: Int,
+                ) = if (node is AW) accumulator + 1 else accumulator
+
+                override fun merge(
+                    first: Int,
+                    second: Int,
+                ) = first + second
+            }
+        assertEquals(10_001, counter.visitTree(wideTree()))
+    }
+
+    @Test
+    fun thresholdMustBePositive() {
+        assertFailsWith<IllegalArgumentException> { wideTree().parallelProcessNodes({}, threshold = 0) }
+    }
+}
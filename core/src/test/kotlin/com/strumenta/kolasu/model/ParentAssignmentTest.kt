@@ -0,0 +1,53 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.traversing.walk
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertSame
+
+class Chain(
+    val next: Chain?,
+) : Node()
+
+class ParentAssignmentTest {
+    private fun chain(length: Int): Chain {
+        var current = Chain(null)
+        repeat(length - 1) { current = Chain(current) }
+        return current
+    }
+
+    private fun wideTree(): BW = BW(AW("a"), MutableList(10_000) { AW("$it") })
+
+    @Test
+    fun deepTreesDoNotOverflowTheStack() {
+        val root = chain(100_000)
+        root.assignParents()
+        var node: Chain = root
+        while (node.next != null) {
+            assertSame(node, node.next!!.parent)
+            node = node.next!!
+        }
+    }
+
+    @Test
+    fun parallelAssignmentOfDeepTree() {
+        val root = chain(100_000)
+        root.assignParentsInParallel(threshold = 10)
+        root.walk().forEach { node -> node.children.forEach { assertSame(node, it.parent) } }
+    }
+
+    @Test
+    fun parallelAssignmentOfWideTree() {
+        val root = wideTree()
+        ParallelParentAssigner(threshold = 1).assignParents(root)
+        root.walk().forEach { node -> node.children.forEach { assertSame(node, it.parent) } }
+        assertEquals(9_999, root.manyAs.last().indexInContainingProperty())
+        assertEquals(emptyList(), root.staleContainmentSlots())
+    }
+
+    @Test
+    fun thresholdMustBePositive() {
+        assertFailsWith<IllegalArgumentException> { ParallelParentAssigner(threshold = 0) }
+    }
+}
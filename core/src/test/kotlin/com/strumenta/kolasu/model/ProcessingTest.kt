@@ -1,5 +1,6 @@
 package com.strumenta.kolasu.model
 
+import com.strumenta.kolasu.traversing.walk
 import java.util.LinkedList
 import kotlin.test.assertEquals
 import kotlin.test.assertSame
@@ -33,6 +34,13 @@ data class DW(
     val manyAs: MutableList<AW>,
 ) : Node()
 
+data class UntypedHolder(
+    val first: A,
+    val anything: Any,
+    val mixed: List<Any>,
+    val names: List<String>,
+) : Node()
+
 @NodeType
 interface FooNodeType
 
@@ -354,4 +362,20 @@ class ProcessingTest {
         assertEquals(1, a3.indexInContainingProperty())
         assertEquals(2, a4.indexInContainingProperty())
     }
+
+    @test
+    fun nodesHeldByUntypedAttributesAreChildren() {
+        val a1 = A("1")
+        val a2 = A("2")
+        val a3 = A("3")
+        val holder = UntypedHolder(a1, a2, listOf("x", a3), listOf("y"))
+        assertEquals(listOf<Node>(a1, a2, a3), holder.children)
+        assertEquals(3, holder.childCount)
+        assertSame(a3, holder.childAt(2))
+        holder.assignParents()
+        assertSame(holder, a2.parent)
+        assertSame(holder, a3.parent)
+        assertSame(a3, a2.nextSibling)
+        assertEquals(listOf<Node>(holder, a1, a2, a3), holder.walk().toList())
+    }
 }
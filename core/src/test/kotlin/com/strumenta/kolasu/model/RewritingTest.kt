@@ -0,0 +1,201 @@
+package com.strumenta.kolasu.model
+
+import com.strumenta.kolasu.traversing.attachNodeTypeIndex
+import com.strumenta.kolasu.traversing.children
+import com.strumenta.kolasu.traversing.collectByType
+import com.strumenta.kolasu.traversing.detachNodeTypeIndex
+import com.strumenta.kolasu.traversing.walk
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class RewritingTest {
+    sealed class Expression : Node()
+
+    data class Literal(
+        val value: Int,
+    ) : Expression()
+
+    data class Variable(
+        val name: String,
+    ) : Expression()
+
+    data class Sum(
+        var left: Expression,
+        var right: Expression,
+    ) : Expression()
+
+    data class Product(
+        var left: Expression,
+        var right: Expression,
+    ) : Expression()
+
+    data class Statement(
+        var expression: Expression?,
+    ) : Node()
+
+    data class Block(
+        val statements: MutableList<Statement>,
+    ) : Node()
+
+    private val simplification =
+        RewriteEngine
+            .Builder()
+            .rule<Sum>("fold") { sum ->
+                val left = sum.left
+                val right = sum.right
+                if (left is Literal && right is Literal) Literal(left.value + right.value) else null
+            }.rule<Sum>("addZero") { sum -> if (sum.right == Literal(0)) sum.left else null }
+            .rule<Product>("multiplyByOne") { product -> if (product.right == Literal(1)) product.left else null }
+            .build()
+
+    private fun assertParentsAreConsistent(root: Node) {
+        assertNull(root.parent)
+        root.walk().forEach { node -> node.children.forEach { assertSame(node, it.parent) } }
+        assertEquals(emptyList(), root.staleContainmentSlots())
+    }
+
+    @Test
+    fun rulesAreAppliedUntilAFixpointIsReached() {
+        val x = Variable("x")
+        val root =
+            Sum(
+                Sum(Sum(Literal(1), Literal(2)), Product(x, Literal(1))),
+                Literal(0),
+            )
+        val result = simplification.rewrite(root)
+        assertEquals(Sum(Literal(3), Variable("x")), result.root)
+        assertSame(x, (result.root as Sum).right)
+        assertParentsAreConsistent(result.root)
+        assertEquals(3, result.rewrites)
+        assertEquals(listOf("fold", "addZero", "multiplyByOne"), result.ruleStatistics.map { it.name })
+        assertEquals(listOf(1L, 1L, 1L), result.ruleStatistics.map { it.firings })
+    }
+
+    @Test
+    fun parentsAreRewrittenAfterTheirChildren() {
+        val root = Block(mutableListOf(Statement(Sum(Sum(Literal(1), Literal(2)), Sum(Literal(3), Literal(4))))))
+        root.assignParents()
+        root.attachNodeTypeIndex()
+        try {
+            val result = simplification.rewrite(root)
+            assertSame(root, result.root)
+            assertEquals(Block(mutableListOf(Statement(Literal(10)))), root)
+            assertEquals(3L, result.ruleStatistics[0].firings)
+            assertEquals(emptyList(), root.collectByType(Sum::class.java))
+            assertParentsAreConsistent(root)
+        } finally {
+            root.detachNodeTypeIndex()
+        }
+    }
+
+    @Test
+    fun nodesModifiedInPlaceHaveTheirSlotsRepaired() {
+        val first = Statement(Variable("a"))
+        val last = Statement(Product(Variable("b"), Literal(1)))
+        val root = Block(mutableListOf(first, Statement(null), Statement(null), last))
+        val result =
+            root.rewrite {
+                rule<Block> { block ->
+                    if (block.statements.removeIf { it.expression == null }) block else null
+                }
+                rule<Product> { product -> if (product.right == Literal(1)) product.left else null }
+            }
+        assertEquals(Block(mutableListOf(first, Statement(Variable("b")))), result.root)
+        assertEquals(1, last.indexInContainingProperty())
+        assertSame(first, last.previousSibling)
+        assertParentsAreConsistent(root)
+    }
+
+    @Test
+    fun childrenRemovedInPlaceAreNotRewritten() {
+        val first = Statement(Variable("a"))
+        val last = Statement(Variable("b"))
+        val root = Block(mutableListOf(first, Statement(null), Statement(null), last))
+        val result =
+            root.rewrite {
+                rule<Statement> { statement -> if (statement.expression == null) Statement(Literal(0)) else null }
+                rule<Block> { block ->
+                    if (block.statements.removeIf { it.expression == null }) block else null
+                }
+            }
+        assertSame(root, result.root)
+        assertEquals(listOf(first, last), root.statements)
+        assertSame(first, root.statements[0])
+        assertSame(last, root.statements[1])
+        assertEquals(listOf(0L, 1L), result.ruleStatistics.map { it.firings })
+        assertParentsAreConsistent(root)
+    }
+
+    @Test
+    fun descendantsOfReplacedNodesAreRewrittenOnlyWhenMoved() {
+        val dropped = Sum(Literal(1), Literal(2))
+        val moved = Sum(Literal(3), Literal(4))
+        val root = Block(mutableListOf(Statement(Product(dropped, moved))))
+        val result =
+            root.rewrite {
+                rule<Sum>("fold") { sum ->
+                    val left = sum.left
+                    val right = sum.right
+                    if (left is Literal && right is Literal) Literal(left.value + right.value) else null
+                }
+                rule<Product>("takeRight") { product -> product.right }
+            }
+        assertEquals(Block(mutableListOf(Statement(Literal(7)))), result.root)
+        assertEquals(listOf(1L, 1L), result.ruleStatistics.map { it.attempts })
+        assertEquals(listOf(1L, 1L), result.ruleStatistics.map { it.firings })
+        assertNull(moved.parent)
+        assertParentsAreConsistent(root)
+    }
+
+    @Test
+    fun equalNodesReplaceTheOriginalOnes() {
+        val original = Variable("a")
+        val statement = Statement(original)
+        val root = Block(mutableListOf(statement))
+        root.rewrite {
+            rule<Variable> { variable -> if (variable === original) Variable("a") else null }
+        }
+        val replacement = statement.expression!!
+        assertNotSame(original, replacement)
+        assertEquals(original, replacement)
+        assertNull(original.parent)
+        assertSame(statement, replacement.parent)
+        assertParentsAreConsistent(root)
+    }
+
+    @Test
+    fun newNodesAreRewrittenToo() {
+        val root = Statement(Product(Variable("a"), Literal(2)))
+        val result =
+            root.rewrite {
+                rule<Product> { product ->
+                    if (product.right == Literal(2)) Sum(product.left, Sum(Literal(0), Literal(0))) else null
+                }
+                rule<Sum>("fold") { sum ->
+                    val left = sum.left
+                    val right = sum.right
+                    if (left is Literal && right is Literal) Literal(left.value + right.value) else null
+                }
+                rule<Sum>("addZero") { sum -> if (sum.right == Literal(0)) sum.left else null }
+            }
+        assertEquals(Statement(Variable("a")), result.root)
+        assertParentsAreConsistent(root)
+        assertTrue(result.ruleStatistics.all { it.firings == 1L })
+    }
+
+    @Test
+    fun rulesWhichDoNotTerminateAreDetected() {
+        val engine =
+            RewriteEngine
+                .Builder()
+                .rule<Literal> { Literal(it.value + 1) }
+                .maxRewrites(10)
+                .build()
+        assertFailsWith<IllegalStateException> { engine.rewrite(Statement(Literal(0))) }
+    }
+}
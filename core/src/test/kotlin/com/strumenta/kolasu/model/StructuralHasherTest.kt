@@ -0,0 +1,107 @@
+package com.strumenta.kolasu.model
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
+
+class StructuralHasherTest {
+    enum class Visibility {
+        PUBLIC,
+        PRIVATE,
+    }
+
+    class Declaration(
+        override val name: String,
+        val visibility: Visibility,
+        val initializer: Expression? = null,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition),
+        Named
+
+    class Expression(
+        val value: Int,
+        val operands: MutableList<Expression> = mutableListOf(),
+        val target: ReferenceByName<Declaration>? = null,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition)
+
+    private fun declaration(
+        value: Int = 1,
+        target: String = "a",
+        position: Position? = null,
+    ) = Declaration(
+        "x",
+        Visibility.PUBLIC,
+        Expression(0, mutableListOf(Expression(value), Expression(2, target = ReferenceByName(target)))),
+        position,
+    )
+
+    @Test
+    fun equalSubtreesHaveTheSameHash() {
+        val hasher = StructuralHasher()
+        assertEquals(hasher.hash(declaration()), hasher.hash(declaration()))
+        assertTrue(hasher.haveSameHash(declaration(), declaration()))
+        assertEquals(declaration().structuralHash(), declaration().structuralHash())
+    }
+
+    @Test
+    fun differentSubtreesHaveDifferentHashes() {
+        val hasher = StructuralHasher()
+        val hash = hasher.hash(declaration())
+        assertNotEquals(hash, hasher.hash(declaration(value = 3)))
+        assertNotEquals(hash, hasher.hash(declaration(target = "b")))
+        assertNotEquals(hash, hasher.hash(Declaration("x", Visibility.PRIVATE, declaration().initializer)))
+        assertNotEquals(hash, hasher.hash(Declaration("x", Visibility.PUBLIC)))
+        // The same children in a different order
+        val swapped = declaration()
+        swapped.initializer!!.operands.reverse()
+        assertNotEquals(hash, hasher.hash(swapped))
+    }
+
+    @Test
+    fun referencesAreHashedByName() {
+        val referred = Declaration("a", Visibility.PUBLIC)
+        val resolved = declaration()
+        resolved.initializer!!.operands[1].target!!.referred = referred
+        assertEquals(declaration().structuralHash(), resolved.structuralHash())
+    }
+
+    @Test
+    fun positionsAreOnlyConsideredWhenRequested() {
+        val first = declaration(position = pos(1, 0, 1, 10))
+        val second = declaration(position = pos(2, 0, 2, 10))
+        assertEquals(StructuralHasher().hash(first), StructuralHasher().hash(second))
+        assertNotEquals(StructuralHasher(includePositions = true).hash(first), StructuralHasher(true).hash(second))
+        assertEquals(
+            StructuralHasher(includePositions = true).hash(first),
+            StructuralHasher(true).hash(declaration(position = pos(1, 0, 1, 10))),
+        )
+    }
+
+    @Test
+    fun cachedHashesAreInvalidated() {
+        val hasher = StructuralHasher(cacheHashes = true)
+        val root = declaration()
+        root.assignParents()
+        val hash = hasher.hash(root)
+        val operand = root.initializer!!.operands[0]
+        val operandHash = hasher.hash(operand)
+        root.initializer.operands.add(Expression(4))
+        assertEquals(hash, hasher.hash(root))
+        hasher.invalidate(root.initializer)
+        assertNotEquals(hash, hasher.hash(root))
+        assertEquals(operandHash, hasher.hash(operand))
+        hasher.clearCache()
+        assertEquals(StructuralHasher().hash(root), hasher.hash(root))
+    }
+
+    @Test
+    fun deepTreesAreSupported() {
+        var expression = Expression(0)
+        for (i in 1..100_000) {
+            expression = Expression(i, mutableListOf(expression))
+        }
+        assertEquals(StructuralHasher().hash(expression), StructuralHasher(cacheHashes = true).hash(expression))
+    }
+}
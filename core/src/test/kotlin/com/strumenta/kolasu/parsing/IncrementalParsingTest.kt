@@ -0,0 +1,187 @@
+package com.strumenta.kolasu.parsing
+
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.Source
+import com.strumenta.kolasu.validation.Issue
+import com.strumenta.simplelang.SimpleLangParser
+import org.antlr.v4.runtime.ParserRuleContext
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SLCompilationUnit(
+    val statements: MutableList<SLStatement>,
+) : Node()
+
+class SLStatement(
+    val text: String,
+) : Node()
+
+class IncrementalSimpleLangParser : SimpleLangKolasuParser() {
+    override fun parseTreeToAst(
+        parseTreeRoot: SimpleLangParser.CompilationUnitContext,
+        considerPosition: Boolean,
+        issues: MutableList<Issue>,
+        source: Source?,
+    ): Node =
+        SLCompilationUnit(parseTreeRoot.statement().map { statement(it) }.toMutableList())
+            .withParseTreeNode(parseTreeRoot)
+
+    override val restartableRules: List<RestartableRule<SimpleLangParser>> =
+        listOf(
+            RestartableRule(SimpleLangParser.RULE_statement, { it.statement() }) { context, _ -> statement(context) },
+        )
+
+    private fun statement(context: ParserRuleContext) =
+        SLStatement(context.getOriginalText()).withParseTreeNode(context)
+}
+
+data class SLKeywordUnit(
+    val statements: MutableList<SLKeywordStatement>,
+) : Node()
+
+data class SLKeywordStatement(
+    val keyword: String,
+) : Node()
+
+/**
+ * Builds equal nodes for statements differing only in their whitespace, with explicitly set positions, and reports an
+ * issue on the whole compilation unit.
+ */
+class KeywordSimpleLangParser : SimpleLangKolasuParser() {
+    override fun parseTreeToAst(
+        parseTreeRoot: SimpleLangParser.CompilationUnitContext,
+        considerPosition: Boolean,
+        issues: MutableList<Issue>,
+        source: Source?,
+    ): Node {
+        issues.add(Issue.semantic("Compilation unit", position = parseTreeRoot.toPosition()))
+        return SLKeywordUnit(parseTreeRoot.statement().map { statement(it) }.toMutableList())
+            .withParseTreeNode(parseTreeRoot)
+    }
+
+    override val restartableRules: List<RestartableRule<SimpleLangParser>> =
+        listOf(
+            RestartableRule(SimpleLangParser.RULE_statement, { it.statement() }) { context, _ -> statement(context) },
+        )
+
+    private fun statement(context: ParserRuleContext) =
+        SLKeywordStatement(context.start.text).withParseTreeNode(context).apply { position = context.toPosition() }
+}
+
+class IncrementalParsingTest {
+    private val code =
+        """set a = 1
+          |set b = 2
+          |display 3
+        """.trimMargin()
+
+    private val parser = IncrementalSimpleLangParser()
+
+    private fun statements(result: ParsingResult<Node>) = (result.root as SLCompilationUnit).statements
+
+    private fun assertSameAsFullParsing(result: ParsingResult<Node>) {
+        val expected = parser.parse(result.code!!)
+        assertEquals(statements(expected).map { it.text }, statements(result).map { it.text })
+        assertEquals(statements(expected).map { it.position }, statements(result).map { it.position })
+        assertEquals(expected.root!!.position, result.root!!.position)
+        assertEquals(expected.firstStage!!.root!!.toStringTree(), result.firstStage!!.root!!.toStringTree())
+        assertTrue(result.issues.isEmpty())
+    }
+
+    @Test
+    fun onlyTheEditedStatementIsReplaced() {
+        val previous = parser.parse(code)
+        val oldStatements = statements(previous).toList()
+        val b = code.indexOf('b')
+        val result = parser.parseIncrementally(previous, listOf(TextEdit(b, b + 1, "bb")))
+        assertEquals("set a = 1\nset bb = 2\ndisplay 3", result.code)
+        assertSame(previous.root, result.root)
+        assertSame(oldStatements[0], statements(result)[0])
+        assertNotSame(oldStatements[1], statements(result)[1])
+        assertSame(oldStatements[2], statements(result)[2])
+        assertSame(result.root, statements(result)[1].parent)
+        assertSameAsFullParsing(result)
+    }
+
+    @Test
+    fun followingNodesAreShiftedAcrossLines() {
+        val previous = parser.parse(code)
+        val equal = code.indexOf("= 2")
+        val result = parser.parseIncrementally(previous, listOf(TextEdit(equal, equal + 1, "=\n ")))
+        assertSame(previous.root, result.root)
+        assertEquals(4, statements(result)[2].position!!.start.line)
+        assertSameAsFullParsing(result)
+    }
+
+    @Test
+    fun onlyTheTokensFollowingTheRegionAreRebound() {
+        val previous = parser.parse(code)
+        val oldTokens = previous.firstStage!!.root!!.terminals()
+        val b = code.indexOf('b')
+        val result = parser.parseIncrementally(previous, listOf(TextEdit(b, b + 1, "bb")))
+        val tokens = result.firstStage!!.root!!.terminals()
+        assertSame(oldTokens[0], tokens[0])
+        assertSame(oldTokens[3], tokens[3])
+        assertNotSame(oldTokens.last(), tokens.last())
+        val expected = parser.parse(result.code!!).firstStage!!.root!!.terminals()
+        assertEquals(expected.map { it.tokenIndex }, tokens.map { it.tokenIndex })
+        assertEquals(expected.map { it.startIndex }, tokens.map { it.startIndex })
+        assertEquals(expected.map { it.text }, tokens.map { it.text })
+    }
+
+    @Test
+    fun successiveEditsAreApplied() {
+        var result = parser.parse(code)
+        val root = result.root
+        repeat(3) {
+            val b = result.code!!.indexOf('b')
+            result = parser.parseIncrementally(result, listOf(TextEdit(b, b, "x")))
+            assertSame(root, result.root)
+        }
+        assertEquals("set a = 1\nset xxxb = 2\ndisplay 3", result.code)
+        assertSameAsFullParsing(result)
+    }
+
+    @Test
+    fun equalNodesReplaceTheOriginalOnes() {
+        val keywordParser = KeywordSimpleLangParser()
+        val previous = keywordParser.parse(code)
+        val unit = previous.root as SLKeywordUnit
+        val oldStatements = unit.statements.toList()
+        val equal = code.indexOf("= 2")
+        val result = keywordParser.parseIncrementally(previous, listOf(TextEdit(equal, equal, "\n")))
+        assertSame(unit, result.root)
+        assertEquals(oldStatements[1], unit.statements[1])
+        assertNotSame(oldStatements[1], unit.statements[1])
+        assertSame(unit, unit.statements[1].parent)
+        val expected = keywordParser.parse(result.code!!)
+        assertEquals(
+            (expected.root as SLKeywordUnit).statements.map { it.position },
+            unit.statements.map { it.position },
+        )
+        // The issue enclosing the reparsed statement is kept and resized
+        assertEquals(expected.issues, result.issues)
+    }
+
+    @Test
+    fun editsOutsideOfRestartableRulesCauseAFullParsing() {
+        val previous = parser.parse(code)
+        val end = code.indexOf("\ndisplay")
+        val result = parser.parseIncrementally(previous, listOf(TextEdit(end, end, "\nset c = 4")))
+        assertNotSame(previous.root, result.root)
+        assertEquals(4, statements(result).size)
+        assertSameAsFullParsing(result)
+    }
+
+    @Test
+    fun syntaxErrorsCauseAFullParsing() {
+        val previous = parser.parse(code)
+        val two = code.indexOf("= 2")
+        val result = parser.parseIncrementally(previous, listOf(TextEdit(two, two + 1, "set")))
+        assertNotSame(previous.root, result.root)
+        assertEquals(parser.parse(result.code!!).issues, result.issues)
+    }
+}
@@ -11,8 +11,23 @@ import org.antlr.v4.runtime.CharStream
 import org.antlr.v4.runtime.Lexer
 import org.antlr.v4.runtime.TokenStream
 import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryNotificationInfo
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPOutputStream
+import javax.management.Notification
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
 
 open class SimpleLangKolasuParser :
     KolasuParser<
@@ -38,6 +53,9 @@ open class SimpleLangKolasuParser :
     }
 
     public var cachesCounter = 0
+
+    val executionCount: Int
+        get() = executionCounter
 }
 
 class KolasuParserTest {
@@ -109,4 +127,196 @@ class KolasuParserTest {
         val mismatchedInput = result.issues.find { it.message.startsWith("Mismatched input 'c'") }!!
         assertEquals(Position(Point(2, 8), Point(2, 9)), mismatchedInput.position)
     }
+
+    @Test
+    fun clearingCachesDoesNotAffectTheCachesInUse() {
+        val parser = SimpleLangKolasuParser()
+        val caches = parser.antlrCaches
+        parser.parseFirstStage("set a = 10 + 2\ndisplay 3 * 4")
+        assertSame(caches, parser.antlrCaches)
+        assertTrue(caches.lexerDecisionToDFA.any { it.states.isNotEmpty() })
+        parser.clearCaches()
+        val newCaches = parser.antlrCaches
+        assertNotSame(caches, newCaches)
+        assertEquals(caches.epoch + 1, newCaches.epoch)
+        assertTrue(caches.lexerDecisionToDFA.any { it.states.isNotEmpty() })
+        assertTrue(newCaches.lexerDecisionToDFA.all { it.states.isEmpty() })
+    }
+
+    @Test
+    fun concurrentParsing() {
+        val parser = SimpleLangKolasuParser()
+        parser.cacheCycleSize = 7
+        parser.executionsToNextCacheClean = 7
+        val threads = 8
+        val parsesPerThread = 50
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val tasks =
+                (1..threads).map { thread ->
+                    Callable {
+                        (1..parsesPerThread).map { i ->
+                            parser.parseFirstStage("set v$thread = $i + 1\nset w = \"\"\ndisplay $thread * 2")
+                        }
+                    }
+                }
+            val results = executor.invokeAll(tasks).flatMap { it.get() }
+            assertEquals(threads * parsesPerThread, results.size)
+            assertTrue(results.all { it.issues.isEmpty() && it.root != null })
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+        }
+        assertEquals(threads * parsesPerThread, parser.executionCount)
+        // Clearing the caches restarts the cycle, so a few executions running meanwhile may not be counted in it
+        assertTrue(parser.antlrCaches.epoch in 1L..threads * parsesPerThread / 7L)
+    }
+
+    @Test
+    fun neverClearingCaches() {
+        val parser = SimpleLangKolasuParser()
+        parser.cachePolicy = ANTLRCachePolicy.NEVER
+        parser.executionsToNextCacheClean = 1
+        repeat(3) { parser.parseFirstStage("set a = 1 + 2") }
+        assertEquals(0, parser.cachesCounter)
+        assertEquals(0L, parser.cacheClears)
+        assertEquals(0L, parser.antlrCaches.epoch)
+        assertEquals(3L, parser.antlrCaches.executions)
+    }
+
+    @Test
+    fun clearingCachesBySize() {
+        val parser = SimpleLangKolasuParser()
+        parser.cachePolicy = ANTLRCachePolicy.maxSize(maxDFAStates = 1)
+        parser.parseFirstStage("set a = 1 + 2")
+        assertEquals(0L, parser.cacheClears)
+        assertNull(parser.lastClearedCaches)
+        assertTrue(parser.antlrCaches.dfaStateCount > 1)
+        parser.parseFirstStage("set a = 1 + 2")
+        assertEquals(1L, parser.cacheClears)
+        val cleared = parser.lastClearedCaches!!
+        assertEquals(0L, cleared.epoch)
+        // The second parsing operation started with the old caches, so it used them until its completion
+        assertEquals(2L, cleared.executions)
+        assertEquals(0L, parser.antlrCaches.executions)
+        assertTrue(cleared.dfaStateCount > 1)
+    }
+
+    @Test
+    fun clearingCachesByAge() {
+        val parser = SimpleLangKolasuParser()
+        parser.cachePolicy = ANTLRCachePolicy.NEVER or ANTLRCachePolicy.maxAge(Duration.ofNanos(1))
+        parser.parseFirstStage("set a = 1 + 2")
+        Thread.sleep(1)
+        parser.parseFirstStage("set a = 1 + 2")
+        assertTrue(parser.cacheClears >= 1)
+        assertEquals(parser.cacheClears, parser.antlrCaches.epoch)
+    }
+
+    @Test
+    fun clearingCachesUnderHeapPressure() {
+        val pools = ManagementFactory.getMemoryPoolMXBeans().filter { it.isCollectionUsageThresholdSupported }
+        val thresholds = pools.map { it.collectionUsageThreshold }
+        val policy = HeapPressureCachePolicy()
+        try {
+            val parsers = listOf(SimpleLangKolasuParser(), SimpleLangKolasuParser())
+            parsers.forEach {
+                it.cachePolicy = policy
+                it.parseFirstStage("set a = 1 + 2")
+            }
+            assertNull(policy.lastPressureAt)
+            Thread.sleep(1)
+            policy.handleNotification(
+                Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, this, 1L),
+            )
+            assertNotNull(policy.lastPressureAt)
+            // A policy shared by several parsers clears the caches of each of them, and only the caches created before
+            repeat(2) { parsers.forEach { it.parseFirstStage("set a = 1 + 2") } }
+            parsers.forEach { assertEquals(1L, it.cacheClears) }
+        } finally {
+            policy.close()
+        }
+        assertEquals(thresholds, pools.map { it.collectionUsageThreshold })
+    }
+
+    @Test
+    fun warmUpCostIsEstimated() {
+        val parser = SimpleLangKolasuParser()
+        repeat(ANTLRCaches.WARM_UP_EXECUTIONS * 2 - 1) { parser.parseFirstStage("set a = 1 + 2\ndisplay 3") }
+        assertNull(parser.antlrCaches.estimatedWarmUpCostNanos)
+        parser.parseFirstStage("set a = 1 + 2\ndisplay 3")
+        assertNotNull(parser.antlrCaches.estimatedWarmUpCostNanos)
+        assertTrue(parser.antlrCaches.warmUpTimeNanos <= parser.antlrCaches.parsingTimeNanos)
+    }
+
+    @Test
+    fun cachesCanBeSavedAndLoaded() {
+        val corpus =
+            listOf(
+                "set a = 1 + 2 * 3\ndisplay 4",
+                "input b is int\ndisplay 1.5 / 2 - 3",
+                "set c = \"\"\ndisplay true",
+            )
+        val trained = SimpleLangKolasuParser()
+        trained.warmUpCaches(corpus)
+        val output = ByteArrayOutputStream()
+        trained.saveCaches(output)
+
+        val parser = SimpleLangKolasuParser()
+        assertTrue(parser.loadCaches(ByteArrayInputStream(output.toByteArray())))
+        val caches = parser.antlrCaches
+        assertEquals(1L, caches.epoch)
+        assertEquals(trained.antlrCaches.lexerDFAStateCount, caches.lexerDFAStateCount)
+        assertEquals(trained.antlrCaches.parserDFAStateCount, caches.parserDFAStateCount)
+        corpus.forEach {
+            val result = parser.parseFirstStage(it)
+            assertEquals(trained.parseFirstStage(it).root!!.toStringTree(), result.root!!.toStringTree())
+        }
+        // The DFA was already complete for the corpus
+        assertEquals(trained.antlrCaches.dfaStateCount, parser.antlrCaches.dfaStateCount)
+    }
+
+    @Test
+    fun incompatibleCachesAreNotLoaded() {
+        val output = ByteArrayOutputStream()
+        GZIPOutputStream(output).use { it.write(ByteArray(16)) }
+        val parser = SimpleLangKolasuParser()
+        assertFalse(parser.loadCaches(ByteArrayInputStream(output.toByteArray())))
+        assertEquals(0L, parser.antlrCaches.epoch)
+    }
+
+    @Test
+    fun twoStageParsingSucceedingWithSLL() {
+        val parser = SimpleLangKolasuParser()
+        parser.twoStageParsing = true
+        val code = "set a = 1 + 2 * 3\ndisplay 4"
+        val result = parser.parseFirstStage(code)
+        assertEquals(PredictionStage.SLL, result.predictionStage)
+        assertNotNull(result.sllTime)
+        assertNull(result.llTime)
+        assertTrue(result.issues.isEmpty())
+        assertEquals(SimpleLangKolasuParser().parseFirstStage(code).root!!.toStringTree(), result.root!!.toStringTree())
+    }
+
+    @Test
+    fun twoStageParsingFallingBackToLL() {
+        val parser = SimpleLangKolasuParser()
+        parser.twoStageParsing = true
+        val code = "set set a = 10\ndisplay c"
+        val result = parser.parseFirstStage(code)
+        assertEquals(PredictionStage.LL, result.predictionStage)
+        assertNotNull(result.sllTime)
+        assertNotNull(result.llTime)
+        val expected = SimpleLangKolasuParser().parseFirstStage(code)
+        assertEquals(expected.issues, result.issues)
+        assertEquals(expected.root!!.toStringTree(), result.root!!.toStringTree())
+    }
+
+    @Test
+    fun singleStageParsingDoesNotRecordStages() {
+        val result = SimpleLangKolasuParser().parseFirstStage("display 4")
+        assertNull(result.predictionStage)
+        assertNull(result.sllTime)
+        assertNull(result.llTime)
+    }
 }
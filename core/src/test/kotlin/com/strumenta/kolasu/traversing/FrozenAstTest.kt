@@ -0,0 +1,64 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.traversing.TraversingStructurallyTest.Box
+import com.strumenta.kolasu.traversing.TraversingStructurallyTest.Item
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+internal class FrozenAstTest {
+    private val item1 = Item("1")
+    private val item2 = Item("2")
+    private val item3 = Item("3")
+    private val small = Box("small", listOf(item2, item3))
+    private val first = Box("first", listOf(item1))
+    private val root = Box("root", listOf(first, small))
+
+    @Test
+    fun nodesAreInPreOrder() {
+        val ast = root.freeze()
+        assertEquals(root.walk().toList(), ast.nodeList)
+        assertEquals(root.walk().toList(), ast.walk().toList())
+        assertEquals(listOf(small, item2, item3), ast.subtree(small))
+        assertEquals(listOf(item2, item3), ast.descendants(small))
+        assertEquals(listOf(first, small), ast.children(root))
+    }
+
+    @Test
+    fun structureIsRecorded() {
+        val ast = root.freeze()
+        assertNull(ast.parent(root))
+        assertSame(small, ast.parent(item3))
+        assertEquals(0, ast.depth(root))
+        assertEquals(2, ast.depth(item2))
+        assertTrue(ast.isAncestorOf(root, item3))
+        assertTrue(ast.isAncestorOf(small, item2))
+        assertFalse(ast.isAncestorOf(first, item2))
+        assertFalse(ast.isAncestorOf(small, small))
+        assertEquals(ast.size, ast.subtreeEnd(0))
+    }
+
+    @Test
+    fun searchByType() {
+        val ast = root.freeze()
+        assertEquals(listOf(item1, item2, item3), ast.searchByType(Item::class.java).toList())
+        assertEquals(listOf(item2, item3), ast.collectByType(Item::class.java, small))
+        assertContentEquals(
+            intArrayOf(ast.indexOf(item2), ast.indexOf(item3)),
+            ast.indexesOfTypeId(item1.nodeTypeId, ast.indexOf(small)),
+        )
+    }
+
+    @Test
+    fun nodesOutsideTheAstAreRejected() {
+        val ast = small.freeze()
+        assertEquals(-1, ast.indexOf(item1))
+        assertFalse(ast.isAncestorOf(small, item1))
+        assertFailsWith<IllegalArgumentException> { ast.subtree(item1) }
+    }
+}
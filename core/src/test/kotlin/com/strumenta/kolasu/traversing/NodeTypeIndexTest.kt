@@ -0,0 +1,82 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.AW
+import com.strumenta.kolasu.model.BW
+import com.strumenta.kolasu.model.DW
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.addSeveralAfter
+import com.strumenta.kolasu.model.assignParents
+import com.strumenta.kolasu.model.processNodesOfType
+import com.strumenta.kolasu.model.removeFromList
+import com.strumenta.kolasu.model.replaceWith
+import java.io.Serializable
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+internal class NodeTypeIndexTest {
+    private val a = AW("a")
+    private val b = AW("b")
+    private val c = AW("c")
+    private val d = AW("d")
+    private val bw = BW(a, mutableListOf(b))
+    private val root = DW(bw, mutableListOf(c, d))
+
+    @AfterTest
+    fun detach() {
+        root.detachNodeTypeIndex()
+    }
+
+    @Test
+    fun lookupsUseTheAttachedIndex() {
+        root.assignParents()
+        val index = root.attachNodeTypeIndex()
+        assertSame(index, root.nodeTypeIndex)
+        assertEquals(listOf(a, b, c, d), root.collectByType(AW::class.java))
+        assertTrue(index.isValid)
+        assertEquals(listOf<Node>(bw), root.searchByType(BW::class.java).toList())
+        assertEquals(listOf<Node>(root, bw, a, b, c, d), root.collectByType(Serializable::class.java))
+        assertEquals(listOf(bw, a, b, c, d), root.walkDescendants(Node::class).toList())
+        assertEquals(emptyList(), root.collectByType(String::class.java))
+        val processed = mutableListOf<AW>()
+        root.processNodesOfType(AW::class.java, { processed.add(it) })
+        assertEquals(listOf(a, b, c, d), processed)
+    }
+
+    @Test
+    fun otherWalkersDoNotUseTheIndex() {
+        root.attachNodeTypeIndex()
+        assertEquals(listOf(a, b, bw, c, d, root), root.collectByType(Node::class.java, Node::walkLeavesFirst))
+    }
+
+    @Test
+    fun modificationsInvalidateTheIndex() {
+        root.assignParents()
+        val index = root.attachNodeTypeIndex()
+        assertEquals(4, root.collectByType(AW::class.java).size)
+
+        val e = AW("e")
+        c.addSeveralAfter(listOf(e))
+        assertFalse(index.isValid)
+        assertEquals(listOf(a, b, c, e, d), root.collectByType(AW::class.java))
+
+        b.removeFromList()
+        assertEquals(listOf(a, c, e, d), root.collectByType(AW::class.java))
+
+        val f = AW("f")
+        a.replaceWith(f)
+        assertEquals(listOf(f, c, e, d), root.collectByType(AW::class.java))
+    }
+
+    @Test
+    fun detachedIndexIsNotUsed() {
+        root.attachNodeTypeIndex()
+        root.detachNodeTypeIndex()
+        assertNull(root.nodeTypeIndex)
+        assertEquals(listOf(a, b, c, d), root.collectByType(AW::class.java))
+    }
+}
@@ -0,0 +1,133 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.model.Named
+import com.strumenta.kolasu.model.Node
+import com.strumenta.kolasu.model.Position
+import com.strumenta.kolasu.model.ReferenceByName
+import com.strumenta.kolasu.model.assignParents
+import com.strumenta.kolasu.model.pos
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class QueryTest {
+    class Program(
+        val procedures: List<Procedure>,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition)
+
+    class Procedure(
+        override val name: String,
+        val body: List<Node>,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition),
+        Named
+
+    class Block(
+        val body: List<Node>,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition)
+
+    class Call(
+        val target: ReferenceByName<Procedure>,
+        specifiedPosition: Position? = null,
+    ) : Node(specifiedPosition)
+
+    private val callBar = Call(ReferenceByName("bar"), pos(2, 2, 2, 10))
+    private val nestedCallFoo = Call(ReferenceByName("foo"), pos(3, 4, 3, 12))
+    private val block = Block(listOf(nestedCallFoo), pos(3, 2, 4, 10))
+    private val foo = Procedure("foo", listOf(callBar, block), pos(1, 0, 5, 0))
+    private val callFoo = Call(ReferenceByName("foo", foo), pos(7, 2, 7, 10))
+    private val bar = Procedure("bar", listOf(callFoo), pos(6, 0, 10, 0))
+    private val program = Program(listOf(foo, bar), pos(1, 0, 20, 0))
+
+    private val callsToFoo =
+        Query
+            .descendants<Procedure>()
+            .descendants<Call>()
+            .referenceNamed("target", Regex("f.*"))
+
+    @Test
+    fun queriesAreExecutedWalkingTheTree() {
+        assertEquals(QueryStrategy.WALK, callsToFoo.compile().strategyFor(program))
+        assertEquals(listOf(nestedCallFoo, callFoo), callsToFoo.execute(program))
+    }
+
+    @Test
+    fun queriesUseTheAttachedNodeTypeIndex() {
+        program.assignParents()
+        program.attachNodeTypeIndex()
+        try {
+            assertEquals(QueryStrategy.NODE_TYPE_INDEX, callsToFoo.compile().strategyFor(program))
+            assertEquals(listOf(nestedCallFoo, callFoo), callsToFoo.execute(program))
+            assertEquals(listOf(callBar, callFoo), Query.children<Procedure>().children<Call>().execute(program))
+        } finally {
+            program.detachNodeTypeIndex()
+        }
+    }
+
+    @Test
+    fun queriesUsingTheNodeTypeIndexDoNotNeedTheParents() {
+        program.attachNodeTypeIndex()
+        try {
+            assertEquals(QueryStrategy.NODE_TYPE_INDEX, callsToFoo.compile().strategyFor(program))
+            assertEquals(listOf(nestedCallFoo, callFoo), callsToFoo.execute(program))
+        } finally {
+            program.detachNodeTypeIndex()
+        }
+    }
+
+    @Test
+    fun queriesRestrictedToAPositionUseThePositionIndex() {
+        val query = Query.descendants<Call>().within(pos(1, 0, 5, 0))
+        val positionIndex = program.buildPositionIndex()
+        assertEquals(QueryStrategy.POSITION_INDEX, query.compile().strategyFor(program, positionIndex))
+        assertEquals(listOf(callBar, nestedCallFoo), query.execute(program, positionIndex))
+        assertEquals(listOf(callBar, nestedCallFoo), query.execute(program))
+    }
+
+    @Test
+    fun descendantStepsAreCheckedOncePerAncestor() {
+        val call = Call(ReferenceByName("foo"))
+        var root: Node = call
+        repeat(200) { root = Block(listOf(root)) }
+        var failing: Query<*> = Query.descendants<Procedure>()
+        var matching: Query<*> = Query.descendants<Block>()
+        repeat(5) {
+            failing = failing.descendants<Block>()
+            matching = matching.descendants<Block>()
+        }
+        assertEquals(emptyList(), failing.descendants<Call>().execute(root))
+        assertEquals(listOf(call), matching.descendants<Call>().execute(root))
+    }
+
+    @Test
+    fun childAndDescendantAxes() {
+        assertEquals(listOf(foo, bar), Query.children<Procedure>().execute(program))
+        assertEquals(emptyList(), Query.children<Call>().execute(program))
+        assertEquals(emptyList(), Query.descendants<Program>().execute(program))
+        assertEquals(listOf(callBar, callFoo), Query.descendants<Procedure>().children<Call>().execute(program))
+        assertEquals(
+            listOf(nestedCallFoo),
+            Query
+                .descendants<Procedure>()
+                .descendants<Block>()
+                .children<Call>()
+                .execute(program),
+        )
+    }
+
+    @Test
+    fun attributeAndReferencePredicates() {
+        assertEquals(listOf(bar), Query.descendants<Procedure>().attributeEquals("name", "bar").execute(program))
+        assertEquals(emptyList(), Query.descendants<Procedure>().attributeEquals("unknown", null).execute(program))
+        assertEquals(listOf(callFoo), Query.descendants<Call>().referenceTo("target", foo).execute(program))
+        assertEquals(
+            listOf(callBar),
+            Query
+                .descendants<Call>()
+                .where { !it.target.resolved }
+                .referenceNamed("target", Regex("b.*"))
+                .execute(program),
+        )
+    }
+}
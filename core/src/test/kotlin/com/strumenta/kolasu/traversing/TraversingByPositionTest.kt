@@ -120,4 +120,60 @@ internal class TraversingByPositionTest {
         assertEquals("", printSequence(testCase.searchByPosition(outside, true)))
         assertNull(testCase.findByPosition(outside, true))
     }
+
+    @Test
+    fun findByPositionWithIndex() {
+        val index = testCase.buildPositionIndex()
+        assertEquals("root, 6", printSequence(testCase.searchByPosition(pos(13, 4, 13, 5), index)))
+        assertEquals("root, big, small, 5", printSequence(testCase.searchByPosition(pos(10, 8, 10, 12), index)))
+        assertEquals("small", printSequence(sequenceOf(testCase.findByPosition(pos(8, 8, 10, 12), index)!!)))
+        assertNull(testCase.findByPosition(pos(100, 100, 101, 101), index))
+
+        val big = testCase.contents[2]
+        assertEquals("big, small, 5", printSequence(big.searchByPosition(pos(10, 8, 10, 12), index)))
+        assertNull(big.findByPosition(pos(13, 4, 13, 5), index))
+        assertEquals("5", printSequence(sequenceOf(index.innermostAt(pos(10, 8, 10, 8).start)!!)))
+    }
+
+    @Test
+    fun walkWithinWithIndex() {
+        val index = testCase.buildPositionIndex()
+        for (position in listOf(pos(15, 1, 15, 1), pos(1, 1, 14, 1), pos(13, 3, 13, 9), pos(7, 5, 11, 5))) {
+            assertEquals(
+                printSequence(testCase.walkWithin(position)),
+                printSequence(testCase.walkWithin(position, index)),
+            )
+        }
+        val big = testCase.contents[2]
+        assertEquals("big, small, 3, 4, 5", printSequence(big.walkWithin(pos(1, 1, 14, 1), index)))
+    }
+
+    @Test
+    fun walkWithinWithIndexSkipsTheDescendantsOfPositionlessAndOutsideNodes() {
+        val tree =
+            Box(
+                "root",
+                listOf(
+                    Box("positionless", listOf(Item("1", specifiedPosition = pos(2, 1, 2, 5)))),
+                    Box(
+                        "outside",
+                        listOf(Item("2", specifiedPosition = pos(3, 1, 3, 5))),
+                        specifiedPosition = pos(10, 1, 10, 5),
+                    ),
+                    Item("3", specifiedPosition = pos(4, 1, 4, 5)),
+                ),
+                specifiedPosition = pos(1, 1, 20, 1),
+            )
+        val index = tree.buildPositionIndex()
+        val position = pos(2, 1, 5, 1)
+        assertEquals("3", printSequence(tree.walkWithin(position)))
+        assertEquals(printSequence(tree.walkWithin(position)), printSequence(tree.walkWithin(position, index)))
+    }
+
+    @Test
+    fun overlappingWithIndex() {
+        val index = testCase.buildPositionIndex()
+        assertEquals("root, big, small, 4, 5", printSequence(index.overlapping(pos(9, 10, 10, 8)).asSequence()))
+        assertEquals("root, 2, big", printSequence(index.overlapping(pos(5, 5, 6, 3)).asSequence()))
+    }
 }
@@ -9,6 +9,7 @@ import kotlin.test.Ignore
 import kotlin.test.Test
 import kotlin.test.assertContains
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 import kotlin.test.fail
 
 internal class TraversingStructurallyTest {
@@ -78,6 +79,29 @@ internal class TraversingStructurallyTest {
         assertEquals("1, first, 2, 3, 4, 5, small, big, 6, root", result)
     }
 
+    @Test
+    fun walkLeavesFirstOnALeaf() {
+        val result: String = printSequence(Item("1").walkLeavesFirst())
+        assertEquals("1", result)
+    }
+
+    @Test
+    fun forEachChild() {
+        val visited = mutableListOf<Node>()
+        testCase.forEachChild { visited.add(it) }
+        assertEquals(testCase.contents, visited)
+        assertEquals(testCase.children, visited)
+    }
+
+    @Test
+    fun childCountAndChildAt() {
+        assertEquals(4, testCase.childCount)
+        assertEquals(0, Item("1").childCount)
+        assertEquals(testCase.contents, (0 until testCase.childCount).map { testCase.childAt(it) })
+        assertFailsWith<IndexOutOfBoundsException> { testCase.childAt(4) }
+        assertFailsWith<IndexOutOfBoundsException> { testCase.childAt(-1) }
+    }
+
     @Test
     fun walkDescendants() {
         val result: String = printSequence(testCase.walkDescendants())
@@ -0,0 +1,83 @@
+package com.strumenta.kolasu.traversing
+
+import com.strumenta.kolasu.traversing.TraversingStructurallyTest.Box
+import com.strumenta.kolasu.traversing.TraversingStructurallyTest.Item
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+internal class TreeCursorTest {
+    private val item1 = Item("1")
+    private val item2 = Item("2")
+    private val item3 = Item("3")
+    private val small = Box("small", listOf(item2, item3))
+    private val first = Box("first", listOf(item1))
+    private val root = Box("root", listOf(first, small))
+
+    @Test
+    fun navigation() {
+        val cursor = TreeCursor(root)
+        assertFalse(cursor.gotoParent())
+        assertFalse(cursor.gotoNextSibling())
+        assertTrue(cursor.gotoFirstChild())
+        assertSame(first, cursor.node)
+        assertTrue(cursor.gotoNextSibling())
+        assertSame(small, cursor.node)
+        assertFalse(cursor.gotoNextSibling())
+        assertTrue(cursor.gotoFirstChild())
+        assertTrue(cursor.gotoNextSibling())
+        assertSame(item3, cursor.node)
+        assertEquals(2, cursor.depth)
+        assertFalse(cursor.gotoFirstChild())
+        assertTrue(cursor.gotoParent())
+        assertSame(small, cursor.node)
+        assertTrue(cursor.gotoParent())
+        assertSame(root, cursor.node)
+        assertEquals(0, cursor.depth)
+    }
+
+    @Test
+    fun preOrderAndPostOrder() {
+        val cursor = TreeCursor(root)
+        val preOrder = mutableListOf<Any>()
+        cursor.forEachPreOrder { preOrder.add(it) }
+        assertEquals(root.walk().toList(), preOrder)
+        assertSame(root, cursor.node)
+
+        val postOrder = mutableListOf<Any>()
+        cursor.forEachPostOrder { postOrder.add(it) }
+        assertEquals(listOf(item1, first, item2, item3, small, root), postOrder)
+        assertEquals(root.walkLeavesFirst().toList(), postOrder)
+    }
+
+    @Test
+    fun cursorsCanBeReused() {
+        val cursor = TreeCursor(root)
+        cursor.gotoFirstChild()
+        cursor.reset(small)
+        val nodes = mutableListOf<Any>()
+        cursor.forEachPreOrder { nodes.add(it) }
+        assertEquals(listOf(small, item2, item3), nodes)
+    }
+
+    @Test
+    fun nestedWalksOnTheSameThread() {
+        val pairs = mutableListOf<Pair<Any, Any>>()
+        first.forEachInTree { outer -> small.forEachInTree { inner -> pairs.add(outer to inner) } }
+        assertEquals(
+            listOf(first to small, first to item2, first to item3, item1 to small, item1 to item2, item1 to item3),
+            pairs,
+        )
+        val leavesFirst = mutableListOf<Any>()
+        root.forEachInTreeLeavesFirst { leavesFirst.add(it) }
+        assertEquals(root.walkLeavesFirst().toList(), leavesFirst)
+    }
+
+    @Test
+    fun sequencesCanBeIteratedMoreThanOnce() {
+        val sequence = root.walk()
+        assertEquals(sequence.toList(), sequence.toList())
+    }
+}
@@ -19,6 +19,8 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static com.strumenta.kolasu.model.ModelKt.getRESERVED_FEATURE_NAMES;
@@ -30,26 +32,53 @@ import static kotlin.reflect.full.KClassifiers.createType;
  * Kotlin's reflection does not work well with Java classes following the JavaBeans naming convention.
  */
 public class JavaNode extends BaseASTNode {
+
+    /**
+     * The metadata is computed by the first instance of each class that needs it, so that overrides of
+     * {@link #isFeature(PropertyDescriptor)} are taken into account.
+     */
+    private static final ClassValue<AtomicReference<NodeMetadata>> METADATA =
+            new ClassValue<AtomicReference<NodeMetadata>>() {
+                @Override
+                protected AtomicReference<NodeMetadata> computeValue(Class<?> type) {
+                    return new AtomicReference<>();
+                }
+            };
+
     @Internal
     public @NotNull List<PropertyDescription> getDerivedProperties() {
         return getProperties().stream().filter(PropertyDescription::getDerived).collect(Collectors.toList());
     }
 
+    /**
+     * The features of Java nodes are computed using JavaBeans introspection, once per class. The result of
+     * {@link #isFeature(PropertyDescriptor)} should thus depend only on the class of the node.
+     */
     @Override
     @Internal
-    public @NotNull List<PropertyDescription> getOriginalProperties() {
-        return getProperties().stream().filter(p -> !p.getDerived()).collect(Collectors.toList());
+    public @NotNull NodeMetadata getNodeMetadata() {
+        AtomicReference<NodeMetadata> cached = METADATA.get(getClass());
+        NodeMetadata metadata = cached.get();
+        if (metadata == null) {
+            metadata = computeMetadata(getClass(), this::isFeature);
+            if (!cached.compareAndSet(null, metadata)) {
+                metadata = cached.get();
+            }
+        }
+        return metadata;
     }
 
-    @Override
-    @Internal
-    public @NotNull List<PropertyDescription> getProperties() {
+    private static NodeMetadata computeMetadata(Class<?> type, Predicate<PropertyDescriptor> isFeature) {
+        if (NodeMetadata.hasCustomProperties(type)) {
+            return new NodeMetadata(type, Collections.emptyList(), true, null);
+        }
         try {
-            BeanInfo beanInfo = Introspector.getBeanInfo(getClass());
-            return Arrays.stream(beanInfo.getPropertyDescriptors())
-                    .filter(this::isFeature)
-                    .map(this::getPropertyDescription)
+            BeanInfo beanInfo = Introspector.getBeanInfo(type);
+            List<FeatureMetadata> features = Arrays.stream(beanInfo.getPropertyDescriptors())
+                    .filter(isFeature)
+                    .map(JavaNode::getFeatureMetadata)
                     .collect(Collectors.toList());
+            return new NodeMetadata(type, features, false, null);
         } catch (IntrospectionException e) {
             throw new RuntimeException(e);
         }
@@ -80,7 +109,7 @@ public class JavaNode extends BaseASTNode {
     }
 
     @NotNull
-    private PropertyDescription getPropertyDescription(PropertyDescriptor p) {
+    private static FeatureMetadata getFeatureMetadata(PropertyDescriptor p) {
         String name = p.getName();
         Class<?> type = p.getPropertyType();
         boolean provideNodes = isANode(type);
@@ -90,12 +119,6 @@ public class JavaNode extends BaseASTNode {
         } else if (p.getReadMethod().isAnnotationPresent(Mandatory.class) || p.getPropertyType().isPrimitive()) {
             multiplicity = Multiplicity.SINGULAR;
         }
-        Object value;
-        try {
-            value = p.getReadMethod().invoke(this);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
         PropertyType propertyType = provideNodes ? PropertyType.CONTAINMENT : PropertyType.ATTRIBUTE;
         Class<?> actualType = type;
         if (ReferenceByName.class.isAssignableFrom(type)) {
@@ -110,8 +133,9 @@ public class JavaNode extends BaseASTNode {
         }
         boolean derived = hasAnnotation(p, Derived.class);
         boolean nullable = multiplicity == Multiplicity.OPTIONAL;
-        return new PropertyDescription(
-                name, provideNodes, multiplicity, value, propertyType, derived, kotlinType(actualType, nullable));
+        return new FeatureMetadata(
+                name, propertyType, multiplicity, derived, kotlinType(actualType, nullable), provideNodes,
+                FeatureAccessors.forGetter(p.getReadMethod()));
     }
 
     @NotNull
@@ -2,6 +2,10 @@ package com.strumenta.kolasu.javalib;
 
 import com.strumenta.kolasu.model.BaseASTNode;
 import com.strumenta.kolasu.model.Position;
+import com.strumenta.kolasu.traversing.FrozenAst;
+import com.strumenta.kolasu.traversing.NodeTypeIndex;
+import com.strumenta.kolasu.traversing.NodeTypeIndexKt;
+import com.strumenta.kolasu.traversing.PositionIndex;
 import com.strumenta.kolasu.traversing.ProcessingByPosition;
 import com.strumenta.kolasu.traversing.ProcessingStructurally;
 import kotlin.jvm.internal.Reflection;
@@ -28,15 +32,40 @@ public class Traversing {
                 Spliterator.ORDERED), false);
     }
 
+    /**
+     * Performs a pre-order node traversal starting with a given node. The stream can be split at subtree boundaries,
+     * so it can be processed in parallel. When a {@link NodeTypeIndex} is attached to the node, the stream is sized
+     * and the nodes are taken from the index.
+     */
     public static Stream<BaseASTNode> walk(BaseASTNode node) {
-        return asStream(ProcessingStructurally.walk(node));
+        NodeTypeIndex index = NodeTypeIndexKt.getNodeTypeIndex(node);
+        if (index != null) {
+            return index.nodesOfType(BaseASTNode.class).stream();
+        }
+        return StreamSupport.stream(TreeSpliterator.walk(node), false);
     }
 
     /**
-     * Performs a post-order (or leaves-first) node traversal starting with a given node.
+     * Performs a post-order (or leaves-first) node traversal starting with a given node. The stream can be split at
+     * subtree boundaries, so it can be processed in parallel.
      */
     public static Stream<BaseASTNode> walkLeavesFirst(BaseASTNode node) {
-        return asStream(ProcessingStructurally.walkLeavesFirst(node));
+        return StreamSupport.stream(TreeSpliterator.walkLeavesFirst(node), false);
+    }
+
+    /**
+     * Traverses the descendants of the given node which are instances of the given class, in pre-order. The stream
+     * can be processed in parallel; when a {@link NodeTypeIndex} is attached to the node, it is sized and the nodes
+     * are taken from the index.
+     */
+    public static <N> Stream<N> walkDescendants(BaseASTNode node, Class<N> clazz) {
+        NodeTypeIndex index = NodeTypeIndexKt.getNodeTypeIndex(node);
+        if (index != null) {
+            return index.nodesOfType(clazz).stream().filter(it -> it != node);
+        }
+        return StreamSupport.stream(TreeSpliterator.walkDescendants(node), false)
+                .filter(clazz::isInstance)
+                .map(clazz::cast);
     }
 
     public static Stream<BaseASTNode> walkAncestors(BaseASTNode node) {
@@ -44,19 +73,19 @@ public class Traversing {
     }
 
     public static Stream<BaseASTNode> walkDescendantsBreadthFirst(BaseASTNode node) {
-        return asStream(ProcessingStructurally.walkDescendants(node, ProcessingStructurally::walk));
+        return walk(node).filter(it -> !it.equals(node));
     }
 
     public static Stream<BaseASTNode> walkDescendantsLeavesFirst(BaseASTNode node) {
-        return asStream(ProcessingStructurally.walkDescendants(node, ProcessingStructurally::walkLeavesFirst));
+        return walkLeavesFirst(node).filter(it -> !it.equals(node));
     }
 
     public static <N> Stream<N> walkDescendantsBreadthFirst(BaseASTNode node, Class<N> clazz) {
-        return asStream(ProcessingStructurally.walkDescendants(node, Reflection.createKotlinClass(clazz), ProcessingStructurally::walk));
+        return walkDescendantsBreadthFirst(node).filter(clazz::isInstance).map(clazz::cast);
     }
 
     public static <N> Stream<N> walkDescendantsLeavesFirst(BaseASTNode node, Class<N> clazz) {
-        return asStream(ProcessingStructurally.walkDescendants(node, Reflection.createKotlinClass(clazz), ProcessingStructurally::walkLeavesFirst));
+        return walkDescendantsLeavesFirst(node).filter(clazz::isInstance).map(clazz::cast);
     }
 
     public static void walk(BaseASTNode node, Consumer<BaseASTNode> consumer) {
@@ -112,7 +141,61 @@ public class Traversing {
         consumeSequence(ProcessingByPosition.walkWithin(nodes, position), consumer);
     }
 
+    /**
+     * Walks the AST within the given position starting from the given node, using the given index,
+     * which must include the node.
+     *
+     * @param index    the position index of the AST
+     * @param node     the node from which the walk should start
+     * @param position the position within which the walk should remain
+     */
+    public static void walkWithin(PositionIndex index, BaseASTNode node, Position position,
+                                  Consumer<BaseASTNode> consumer) {
+        index.within(position, node).forEach(consumer);
+    }
+
+    public static Stream<BaseASTNode> walkWithin(PositionIndex index, BaseASTNode node, Position position) {
+        return index.within(position, node).stream();
+    }
+
+    /**
+     * @return the innermost node, in the subtree of the given node, whose position contains the given position,
+     * or null if there is none.
+     */
+    public static BaseASTNode findByPosition(PositionIndex index, BaseASTNode node, Position position) {
+        return index.innermostContaining(position, node);
+    }
+
     public static <T> T findAncestorOfType(BaseASTNode node, Class<T> clazz) {
         return ProcessingStructurally.findAncestorOfType(node, clazz);
     }
+
+    /**
+     * Builds an immutable snapshot of the AST having the given root, to be traversed many times.
+     *
+     * @see FrozenAst
+     */
+    public static FrozenAst freeze(BaseASTNode root) {
+        return FrozenAst.of(root);
+    }
+
+    /**
+     * Traverses the subtree of the given node in the snapshot, in pre-order. The stream is sized and can be split
+     * efficiently, so it is suitable for parallel processing.
+     */
+    public static Stream<BaseASTNode> walk(FrozenAst ast, BaseASTNode node) {
+        return ast.subtree(node).stream();
+    }
+
+    public static Stream<BaseASTNode> walk(FrozenAst ast) {
+        return walk(ast, ast.getRoot());
+    }
+
+    public static <N> Stream<N> searchByType(FrozenAst ast, BaseASTNode node, Class<N> clazz) {
+        return walk(ast, node).filter(clazz::isInstance).map(clazz::cast);
+    }
+
+    public static <N> Stream<N> searchByType(FrozenAst ast, Class<N> clazz) {
+        return searchByType(ast, ast.getRoot(), clazz);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.strumenta.kolasu.javalib;
+
+import com.strumenta.kolasu.model.BaseASTNode;
+import kotlin.Unit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} traversing an AST, which can be split at subtree boundaries, so that parallel streams
+ * process independent subtrees concurrently.
+ * <p>
+ * The pending work is kept as a queue, in encounter order, of subtrees still to be traversed and of single nodes
+ * still to be emitted. Splitting hands over the first half of the queue, which is a prefix of the traversal;
+ * when only one subtree is pending, it is expanded into its root and its children first.
+ * <p>
+ * The number of nodes is not known in advance, so the size is only estimated. Use
+ * {@link Traversing#walk(com.strumenta.kolasu.traversing.FrozenAst)} or attach a
+ * {@link com.strumenta.kolasu.traversing.NodeTypeIndex} to get sized streams.
+ */
+public final class TreeSpliterator implements Spliterator<BaseASTNode> {
+
+    /**
+     * A node to be emitted without traversing its subtree.
+     */
+    private static final class Single {
+        private final BaseASTNode node;
+
+        private Single(BaseASTNode node) {
+            this.node = node;
+        }
+    }
+
+    private final ArrayDeque<Object> pending;
+    private final boolean leavesFirst;
+    private final ArrayList<BaseASTNode> children = new ArrayList<>();
+    private long estimatedSize;
+
+    private TreeSpliterator(ArrayDeque<Object> pending, boolean leavesFirst, long estimatedSize) {
+        this.pending = pending;
+        this.leavesFirst = leavesFirst;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * Traverses the given node and its descendants in pre-order, like {@link Traversing#walk(BaseASTNode)}.
+     */
+    public static TreeSpliterator walk(BaseASTNode root) {
+        return of(Collections.singletonList(root), false);
+    }
+
+    /**
+     * Traverses the descendants of the given node in pre-order.
+     */
+    public static TreeSpliterator walkDescendants(BaseASTNode root) {
+        ArrayList<BaseASTNode> children = new ArrayList<>();
+        root.forEachChild(child -> {
+            children.add(child);
+            return Unit.INSTANCE;
+        });
+        return of(children, false);
+    }
+
+    /**
+     * Traverses the given node and its descendants in post-order, like {@link Traversing#walkLeavesFirst(BaseASTNode)}.
+     */
+    public static TreeSpliterator walkLeavesFirst(BaseASTNode root) {
+        return of(Collections.singletonList(root), true);
+    }
+
+    private static TreeSpliterator of(Collection<BaseASTNode> roots, boolean leavesFirst) {
+        return new TreeSpliterator(new ArrayDeque<>(roots), leavesFirst, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BaseASTNode> action) {
+        while (!pending.isEmpty()) {
+            Object next = pending.pollFirst();
+            if (next instanceof Single) {
+                action.accept(((Single) next).node);
+                return true;
+            }
+            BaseASTNode node = (BaseASTNode) next;
+            if (leavesFirst) {
+                pending.addFirst(new Single(node));
+                pushChildren(node);
+            } else {
+                pushChildren(node);
+                action.accept(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super BaseASTNode> action) {
+        while (tryAdvance(action)) {
+            // Keep going
+        }
+    }
+
+    @Override
+    public Spliterator<BaseASTNode> trySplit() {
+        if (pending.size() == 1 && pending.peekFirst() instanceof BaseASTNode) {
+            expand((BaseASTNode) pending.pollFirst());
+        }
+        int size = pending.size();
+        if (size < 2) {
+            return null;
+        }
+        ArrayDeque<Object> prefix = new ArrayDeque<>(size / 2);
+        for (int i = 0; i < size / 2; i++) {
+            prefix.addLast(pending.pollFirst());
+        }
+        estimatedSize = estimatedSize / 2;
+        return new TreeSpliterator(prefix, leavesFirst, estimatedSize);
+    }
+
+    @Override
+    public long estimateSize() {
+        return pending.isEmpty() ? 0 : estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Replaces the given subtree, which has been removed from the front of the queue, with its root and its children.
+     */
+    private void expand(BaseASTNode node) {
+        if (leavesFirst) {
+            pending.addFirst(new Single(node));
+            pushChildren(node);
+        } else {
+            pushChildren(node);
+            pending.addFirst(new Single(node));
+        }
+    }
+
+    /**
+     * Adds the children of the given node at the front of the queue, in order.
+     */
+    private void pushChildren(BaseASTNode node) {
+        node.forEachChild(child -> {
+            children.add(child);
+            return Unit.INSTANCE;
+        });
+        for (int i = children.size() - 1; i >= 0; i--) {
+            pending.addFirst(children.get(i));
+        }
+        children.clear();
+    }
+}
@@ -0,0 +1,38 @@
+package com.strumenta.kolasu.javalib;
+
+import com.strumenta.kolasu.model.PropertyDescription;
+import org.junit.Test;
+
+import java.beans.PropertyDescriptor;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class JavaNodeTest {
+
+    public static class NodeWithHiddenProperty extends JavaNode {
+        public String getVisible() {
+            return "visible";
+        }
+
+        public String getHidden() {
+            return "hidden";
+        }
+
+        @Override
+        protected boolean isFeature(PropertyDescriptor p) {
+            return super.isFeature(p) && !p.getName().equals("hidden");
+        }
+    }
+
+    @Test
+    public void testOverriddenIsFeatureIsHonoured() {
+        NodeWithHiddenProperty node = new NodeWithHiddenProperty();
+        assertEquals(Arrays.asList("visible"),
+                node.getProperties().stream().map(PropertyDescription::getName).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("visible"),
+                new NodeWithHiddenProperty().getProperties().stream()
+                        .map(PropertyDescription::getName).collect(Collectors.toList()));
+    }
+}
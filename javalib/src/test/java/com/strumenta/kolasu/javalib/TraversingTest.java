@@ -2,16 +2,23 @@ package com.strumenta.kolasu.javalib;
 
 import com.strumenta.kolasu.model.BaseASTNode;
 import com.strumenta.kolasu.model.Processing;
+import com.strumenta.kolasu.traversing.FrozenAst;
 import com.strumenta.kolasu.traversing.ProcessingStructurally;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
 
 import static com.strumenta.kolasu.javalib.CompilationUnit.A;
 import static com.strumenta.kolasu.javalib.CompilationUnit.B;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 
 public class TraversingTest {
@@ -42,4 +49,38 @@ public class TraversingTest {
         List<BaseASTNode> nodes = Traversing.walk(cu).collect(Collectors.toList());
         assertEquals(Arrays.asList(cu, a1, b1, b2, a2, b3), nodes);
     }
+
+    @Test
+    public void testParallelWalk() {
+        assertEquals(Arrays.asList(cu, a1, b1, b2, a2, b3), Traversing.walk(cu).parallel().collect(Collectors.toList()));
+        assertEquals(Arrays.asList(b1, b2, a1, b3, a2, cu),
+                Traversing.walkLeavesFirst(cu).parallel().collect(Collectors.toList()));
+        assertEquals(Arrays.asList(b1, b2, b3),
+                Traversing.walkDescendants(cu, B.class).parallel().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSplitAtSubtreeBoundaries() {
+        Spliterator<BaseASTNode> suffix = TreeSpliterator.walk(cu);
+        Spliterator<BaseASTNode> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        List<BaseASTNode> nodes = new ArrayList<>();
+        prefix.forEachRemaining(nodes::add);
+        assertEquals(Collections.singletonList(cu), nodes);
+        Spliterator<BaseASTNode> firstSubtree = suffix.trySplit();
+        assertNotNull(firstSubtree);
+        firstSubtree.forEachRemaining(nodes::add);
+        suffix.forEachRemaining(nodes::add);
+        assertEquals(Arrays.asList(cu, a1, b1, b2, a2, b3), nodes);
+    }
+
+    @Test
+    public void testWalkFrozen() {
+        FrozenAst ast = Traversing.freeze(cu);
+        assertEquals(Arrays.asList(cu, a1, b1, b2, a2, b3), Traversing.walk(ast).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(a1, b1, b2), Traversing.walk(ast, a1).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(b1, b2, b3), Traversing.searchByType(ast, B.class).collect(Collectors.toList()));
+        assertTrue(ast.isAncestorOf(a1, b2));
+        assertFalse(ast.isAncestorOf(a1, b3));
+    }
 }
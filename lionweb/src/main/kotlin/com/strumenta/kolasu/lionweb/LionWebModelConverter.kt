@@ -6,9 +6,12 @@ import com.strumenta.kolasu.language.Feature
 import com.strumenta.kolasu.language.KolasuLanguage
 import com.strumenta.kolasu.model.CompositeDestination
 import com.strumenta.kolasu.model.Multiplicity
+import com.strumenta.kolasu.model.ParallelParentAssigner
+import com.strumenta.kolasu.model.ParentAssigner
 import com.strumenta.kolasu.model.Position
 import com.strumenta.kolasu.model.PossiblyNamed
 import com.strumenta.kolasu.model.ReferenceByName
+import com.strumenta.kolasu.model.SequentialParentAssigner
 import com.strumenta.kolasu.model.allFeatures
 import com.strumenta.kolasu.model.asContainment
 import com.strumenta.kolasu.model.assignParents
@@ -126,6 +129,12 @@ class LionWebModelConverter(
 
     var externalNodeResolver: NodeResolver = DummyNodeResolver()
 
+    /**
+     * The strategy used to assign the parents of the trees being exported. A [ParallelParentAssigner] can be used
+     * for large trees.
+     */
+    var parentAssigner: ParentAssigner = SequentialParentAssigner
+
     fun clearNodesMapping() {
         nodesMapping.clear()
     }
@@ -162,8 +171,9 @@ class LionWebModelConverter(
         kolasuTree: KNode,
         nodeIdProvider: NodeIdProvider = this.nodeIdProvider,
         considerParent: Boolean = true,
+        parentAssigner: ParentAssigner = this.parentAssigner,
     ): LWNode {
-        kolasuTree.assignParents()
+        parentAssigner.assignParents(kolasuTree)
         val myIDManager =
             object {
                 private val cache = IdentityHashMap<KNode, String>()
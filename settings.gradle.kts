@@ -17,3 +17,4 @@ include("semantics")
 include("javalib")
 include("lionweb")
 include("lionweb-client")
+include("codegen-ksp")